@@ -0,0 +1,107 @@
+package ru.vzotov.alfabank.application.impl;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.vzotov.accounting.application.AccountNotFoundException;
+import ru.vzotov.accounting.application.AccountReportNotFoundException;
+import ru.vzotov.accounting.application.AccountingService;
+import ru.vzotov.accounting.domain.model.AccountReportId;
+import ru.vzotov.alfabank.application.ReportProcessingSettings;
+import ru.vzotov.alfabank.benchmark.MovementListGenerator;
+import ru.vzotov.alfabank.benchmark.RowCounter;
+import ru.vzotov.alfabank.infrastructure.fs.AlfabankReportRepositoryFiles;
+import ru.vzotov.banking.domain.model.OperationId;
+
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Processing of whole reports with an accounting service that does nothing.
+ * Measures the cost of the module itself, without persistence.
+ * A latency of the accounting service shows how much of the parsing is hidden by the pipeline.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 10)
+@Fork(1)
+public class ProcessAccountReportBenchmark {
+
+    @Param({"10000", "100000", "1000000"})
+    public int rows;
+
+    /**
+     * Batches read ahead of registration, 0 reads and registers on one thread
+     */
+    @Param({"0", "2"})
+    public int pipelineDepth;
+
+    /**
+     * Simulated latency of every call of the accounting service, microseconds
+     */
+    @Param({"0"})
+    public long latency;
+
+    private AccountReportServiceAlfabank service;
+
+    private AccountReportId reportId;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        final Path report = MovementListGenerator.report(MovementListGenerator.directory(), rows);
+        final AlfabankReportRepositoryFiles repository = new AlfabankReportRepositoryFiles(report.getParent().toString()) {
+            @Override
+            public void markProcessed(AccountReportId reportId) {
+                // keep the report for the next invocation
+            }
+
+            @Override
+            public long findCheckpoint(AccountReportId reportId) {
+                // the report is never marked as processed, so its checkpoint must not be used by the next invocation
+                return 0;
+            }
+        };
+        service = new AccountReportServiceAlfabank(repository, noopAccountingService(TimeUnit.MICROSECONDS.toNanos(latency)),
+                ReportProcessingSettings.defaults().withPipelineDepth(pipelineDepth));
+        reportId = new AccountReportId(report.getFileName().toString(), Instant.now());
+    }
+
+    @Benchmark
+    public void processAccountReport(RowCounter counter) throws AccountReportNotFoundException, AccountNotFoundException {
+        service.processAccountReport(reportId);
+        counter.rows += rows;
+    }
+
+    static AccountingService noopAccountingService(long latencyNanos) {
+        final OperationId operationId = new OperationId("benchmark");
+        return (AccountingService) Proxy.newProxyInstance(
+                AccountingService.class.getClassLoader(),
+                new Class<?>[]{AccountingService.class},
+                (proxy, method, args) -> switch (method.getName()) {
+                    case "hashCode" -> System.identityHashCode(proxy);
+                    case "equals" -> proxy == args[0];
+                    case "toString" -> "AccountingService(no-op)";
+                    default -> {
+                        if (latencyNanos > 0) {
+                            LockSupport.parkNanos(latencyNanos);
+                        }
+                        yield OperationId.class.equals(method.getReturnType()) ? operationId : null;
+                    }
+                });
+    }
+}
@@ -0,0 +1,187 @@
+package ru.vzotov.alfabank.benchmark;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Generator of synthetic Alfabank movement lists.
+ * <p>
+ * Generated reports are modeled on the reports in {@code src/test/resources/account-reports}:
+ * Cp1251 encoding, {@code ;} delimiter with trailing delimiter, card operations, HOLD records,
+ * transfers and interest accruals with an empty reference.
+ * The generator is deterministic, the same number of rows always produces the same report.
+ */
+public class MovementListGenerator {
+
+    public static final String HEADER = "Тип счёта;Номер счета;Валюта;Дата операции;Референс проводки;Описание операции;Приход;Расход;";
+
+    private static final Charset CP1251 = Charset.forName("Cp1251");
+
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("dd.MM.yy");
+
+    private static final DateTimeFormatter HOLD_DATE_FORMAT = DateTimeFormatter.ofPattern("yy.MM.dd");
+
+    private static final String[] ACCOUNT_TYPES = {"Текущий зарплатный счёт", "Счёт кредитной карты"};
+    private static final String[] ACCOUNTS = {"40817810108290123456", "40817810808290123456"};
+    private static final String[] CARDS = {"555957++++++1234", "415482++++++5678"};
+
+    private static final String[] TERMINALS = {
+            "11276718\\RUS\\SARATOV\\6 MOT\\MAGNIT MM ANT",
+            "11276719\\RUS\\SARATOV\\6 MOT\\MAGNIT MM ANT",
+            "10705017\\RUS\\MOSCOW\\1 YA T\\ROSTELECOM",
+            "21072241\\RUS\\SARATOV\\239 B\\FORMULA KHLEB",
+            "10485950\\RUS\\SARATOV\\239 B\\PYATEROCHKA 6",
+            "110249\\RUS\\SARATOV\\B SAD\\VENDEX VOLGA",
+            "10000001\\RUS\\MOSCOW\\10 bld\\Tinkoff Bank",
+            "502546\\643\\SARATOV\\Alfa Iss",
+            "23283108\\643\\www delivery \\delivery club",
+            "5101831 /RU/UBRR>Visa Direct",
+            "00000002\\DEU\\425952 2985\\\\STEAMGAMES CO",
+            "RU200213\\RUS\\BORISOGLEBSK\\\\LUKOIL AZS 36"
+    };
+    private static final String[] MCC = {"5411", "5411", "4812", "5462", "5411", "5814", "6538", "6011", "5814", "6012", "5816", "5541"};
+
+    private static final String[] TRANSFERS = {
+            "Пополнение счета",
+            "Перевод между своими счетами",
+            "Погашение кредита внутрибанковским переводом между своими счетами",
+            "Пропускной режим, по Дог. N 12/67-У-99 от 15.11.2012 г.; оплата услуг"
+    };
+
+    private final Random random;
+
+    private LocalDate date = LocalDate.of(2020, 3, 30);
+
+    private long reference = 423;
+
+    public MovementListGenerator(long seed) {
+        this.random = new Random(seed);
+    }
+
+    /**
+     * Directory of generated reports, {@code target/benchmark-reports} unless
+     * the {@code alfabank.benchmark.dir} system property is set.
+     *
+     * @return directory of generated reports
+     */
+    public static Path directory() {
+        return Paths.get(System.getProperty("alfabank.benchmark.dir", "target/benchmark-reports")).toAbsolutePath();
+    }
+
+    /**
+     * Returns generated report with the given number of rows. The report is generated once and then reused.
+     *
+     * @param directory directory of generated reports
+     * @param rows      number of rows
+     * @return path of the report
+     * @throws IOException if the report can not be written
+     */
+    public static Path report(Path directory, int rows) throws IOException {
+        final Path report = directory.resolve("movementList_" + rows + ".csv");
+        if (!Files.exists(report)) {
+            Files.createDirectories(directory);
+            final Path tmp = Files.createTempFile(directory, "movementList_" + rows, ".tmp");
+            new MovementListGenerator(rows).write(tmp, rows);
+            Files.move(tmp, report, StandardCopyOption.ATOMIC_MOVE);
+        }
+        return report;
+    }
+
+    public void write(Path file, int rows) throws IOException {
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(file), CP1251), 1 << 16)) {
+            out.write(HEADER);
+            out.write('\n');
+            for (int i = 0; i < rows; i++) {
+                if (random.nextInt(8) == 0) {
+                    date = date.minusDays(1);
+                }
+                writeRow(out);
+            }
+        }
+    }
+
+    private void writeRow(Writer out) throws IOException {
+        final int account = random.nextInt(10) < 8 ? 0 : 1;
+        final int kind = random.nextInt(100);
+        final BigDecimal amount = BigDecimal.valueOf(1 + random.nextInt(500000), 2);
+
+        out.write(ACCOUNT_TYPES[account]);
+        out.write(';');
+        out.write(ACCOUNTS[account]);
+        out.write(";RUR;");
+        out.write(DATE_FORMAT.format(date));
+        out.write(';');
+
+        if (kind < 60) {
+            final int terminal = random.nextInt(TERMINALS.length);
+            out.write("CRD_" + Long.toString(reference++, 36).toUpperCase(Locale.ROOT));
+            out.write(';');
+            out.write(String.format(Locale.US, "%-19s %-49s %s %s %12.2f  RUR %sMCC%s",
+                    CARDS[account],
+                    TERMINALS[terminal],
+                    DATE_FORMAT.format(date),
+                    DATE_FORMAT.format(date.minusDays(random.nextInt(4))),
+                    amount,
+                    random.nextBoolean() ? "(Android Pay-9313) " : "",
+                    MCC[terminal]));
+            out.write(";0;");
+            out.write(ruAmount(amount));
+        } else if (kind < 70) {
+            out.write("HOLD;");
+            out.write(String.format(Locale.US, "%s RU %s %s %s %.2f RUR %s",
+                    TERMINALS[random.nextInt(TERMINALS.length)].substring(0, 6),
+                    "MAGNIT MM ANTROPOS.>Sar",
+                    HOLD_DATE_FORMAT.format(date),
+                    HOLD_DATE_FORMAT.format(date),
+                    amount,
+                    CARDS[account]));
+            out.write(";0;");
+            out.write(ruAmount(amount));
+        } else if (kind < 95) {
+            final String description = TRANSFERS[random.nextInt(TRANSFERS.length)];
+            out.write(String.format("C%02d%s%07d", random.nextInt(10), DATE_FORMAT.format(date).replace(".", ""), reference++));
+            out.write(';');
+            out.write(description.indexOf(';') < 0 ? description : '"' + description + '"');
+            out.write(';');
+            if (random.nextBoolean()) {
+                out.write(ruAmount(amount));
+                out.write(";0");
+            } else {
+                out.write("0;");
+                out.write(ruAmount(amount));
+            }
+        } else {
+            out.write(";Начисл. % на ежедн.фактич.остаток по счету ");
+            out.write(ACCOUNTS[account]);
+            out.write(';');
+            out.write(ruAmount(amount));
+            out.write(";0");
+        }
+        out.write(";\n");
+    }
+
+    private static String ruAmount(BigDecimal amount) {
+        return amount.stripTrailingZeros().toPlainString().replace('.', ',');
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: MovementListGenerator <rows> <file>");
+            System.exit(1);
+        }
+        final int rows = Integer.parseInt(args[0]);
+        new MovementListGenerator(rows).write(Paths.get(args[1]), rows);
+    }
+}
@@ -0,0 +1,76 @@
+package ru.vzotov.alfabank.infrastructure.fs;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.vzotov.accounting.domain.model.AccountReportId;
+import ru.vzotov.alfabank.benchmark.MovementListGenerator;
+import ru.vzotov.alfabank.domain.model.AlfabankOperation;
+import ru.vzotov.alfabank.domain.model.CardOperation;
+import ru.vzotov.alfabank.domain.model.PosInfo;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing of operation descriptions. Descriptions are taken from a generated report,
+ * so card and non-card descriptions are mixed in the same proportion as in the report.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CardOperationParserBenchmark {
+
+    private static final int SAMPLES = 10000;
+
+    private String[] descriptions;
+
+    private String[] posInfos;
+
+    private int description;
+
+    private int posInfo;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        final Path report = MovementListGenerator.report(MovementListGenerator.directory(), SAMPLES);
+        final AlfabankReportRepositoryFiles repository = new AlfabankReportRepositoryFiles(report.getParent().toString());
+        final AccountReportId reportId = new AccountReportId(report.getFileName().toString(), Instant.now());
+
+        descriptions = repository.find(reportId).operations().stream()
+                .map(AlfabankOperation::description)
+                .toArray(String[]::new);
+        posInfos = repository.find(reportId).operations().stream()
+                .map(AlfabankOperation::cardOperation)
+                .filter(card -> card != null)
+                .map(card -> String.join("\\", card.posInfo().terminalId(), card.posInfo().country(),
+                        card.posInfo().city() == null ? "" : card.posInfo().city(), card.posInfo().merchant()))
+                .toArray(String[]::new);
+    }
+
+    @Benchmark
+    public CardOperation parseCardOperationDescription() throws ParseException {
+        description = (description + 1) % descriptions.length;
+        return AlfabankReportRepositoryFiles.parseCardOperationDescription(descriptions[description]);
+    }
+
+    @Benchmark
+    public PosInfo parsePosInfo() {
+        posInfo = (posInfo + 1) % posInfos.length;
+        return AlfabankReportRepositoryFiles.parsePosInfo(posInfos[posInfo]);
+    }
+}
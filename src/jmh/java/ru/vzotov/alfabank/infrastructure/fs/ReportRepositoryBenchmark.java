@@ -0,0 +1,99 @@
+package ru.vzotov.alfabank.infrastructure.fs;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import ru.vzotov.accounting.domain.model.AccountReport;
+import ru.vzotov.accounting.domain.model.AccountReportId;
+import ru.vzotov.alfabank.application.ImportMetrics;
+import ru.vzotov.alfabank.benchmark.MovementListGenerator;
+import ru.vzotov.alfabank.benchmark.RowCounter;
+import ru.vzotov.alfabank.domain.model.AlfabankOperation;
+import ru.vzotov.alfabank.domain.model.AlfabankOperationBatch;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.stream.Stream;
+
+/**
+ * Reading and parsing of whole reports.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(java.util.concurrent.TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 10)
+@Fork(1)
+public class ReportRepositoryBenchmark {
+
+    @Param({"10000", "100000", "1000000"})
+    public int rows;
+
+    @Param({"COMMONS_CSV", "MAPPED", "PARALLEL"})
+    public ReportParser parser;
+
+    /**
+     * Whether parsed operations are read from the cache next to the report
+     */
+    @Param({"false", "true"})
+    public boolean cache;
+
+    private AlfabankReportRepositoryFiles repository;
+
+    private AccountReportId reportId;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        final Path report = MovementListGenerator.report(MovementListGenerator.directory(), rows);
+        ReportCache.delete(report.toFile());
+        repository = new AlfabankReportRepositoryFiles(report.getParent().toString(), false, parser,
+                ImportMetrics.NOOP, cache);
+        reportId = new AccountReportId(report.getFileName().toString(), Instant.now());
+        repository.find(reportId);
+    }
+
+    @Benchmark
+    public AccountReport<AlfabankOperation> find(RowCounter counter) {
+        final AccountReport<AlfabankOperation> report = repository.find(reportId);
+        counter.rows += report.operations().size();
+        return report;
+    }
+
+    @Benchmark
+    public void stream(RowCounter counter, Blackhole blackhole) {
+        try (Stream<AlfabankOperation> operations = repository.stream(reportId)) {
+            operations.forEach(operation -> {
+                counter.rows++;
+                blackhole.consume(operation);
+            });
+        }
+    }
+
+    /**
+     * Sums withdrawals over columnar batches, so no operation is created per row.
+     */
+    @Benchmark
+    public long batches(RowCounter counter) {
+        long withdrawn = 0;
+        try (Stream<AlfabankOperationBatch> batches = repository.batches(reportId, 0, 4096)) {
+            for (AlfabankOperationBatch batch : (Iterable<AlfabankOperationBatch>) batches::iterator) {
+                for (int row = 0; row < batch.size(); row++) {
+                    withdrawn += batch.withdraw(row);
+                }
+                counter.rows += batch.size();
+            }
+        }
+        return withdrawn;
+    }
+}
@@ -0,0 +1,126 @@
+package ru.vzotov.alfabank.infrastructure.fs;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.text.ParseException;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeFormatterBuilder;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static java.time.temporal.ChronoField.DAY_OF_MONTH;
+import static java.time.temporal.ChronoField.MONTH_OF_YEAR;
+import static java.time.temporal.ChronoField.YEAR;
+import static ru.vzotov.alfabank.infrastructure.fs.ReportValues.RU_DECIMAL_SEPARATOR;
+
+/**
+ * Parsing of the date, deposit and withdrawal fields of a report row.
+ * The {@code decimalFormat} benchmark parses the fields like the rows were parsed before {@link ReportValues},
+ * with a new {@link DecimalFormat} per row.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ReportValuesBenchmark {
+
+    private static final int SAMPLES = 10000;
+
+    private static final DateTimeFormatter DATE_FORMAT = new DateTimeFormatterBuilder()
+            .appendValue(DAY_OF_MONTH, 2)
+            .appendLiteral('.')
+            .appendValue(MONTH_OF_YEAR, 2)
+            .appendLiteral('.')
+            .appendValueReduced(YEAR, 2, 2, 2000)
+            .toFormatter();
+
+    private static final Locale RU = new Locale("ru");
+
+    private String[] dates;
+
+    private String[] deposits;
+
+    private String[] withdrawals;
+
+    private int row;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        final Random random = new Random(42);
+        final LocalDate start = LocalDate.of(2018, 1, 1);
+        dates = new String[SAMPLES];
+        deposits = new String[SAMPLES];
+        withdrawals = new String[SAMPLES];
+        for (int i = 0; i < SAMPLES; i++) {
+            dates[i] = start.plusDays(random.nextInt(2000)).format(DATE_FORMAT);
+            final String amount = amount(random);
+            final boolean deposit = random.nextInt(5) == 0;
+            deposits[i] = deposit ? amount : "0";
+            withdrawals[i] = deposit ? "0" : amount;
+        }
+    }
+
+    @Benchmark
+    public void decimalFormat(Blackhole blackhole) throws ParseException {
+        final int i = next();
+        final DecimalFormat decimals = new DecimalFormat("###.##", DecimalFormatSymbols.getInstance(RU));
+        blackhole.consume(LocalDate.parse(dates[i], DATE_FORMAT));
+        blackhole.consume(decimals.parse(deposits[i]).doubleValue());
+        blackhole.consume(decimals.parse(withdrawals[i]).doubleValue());
+    }
+
+    @Benchmark
+    public void parseAmount(Blackhole blackhole) throws ParseException {
+        final int i = next();
+        blackhole.consume(ReportValues.parseDate(dates[i]));
+        blackhole.consume(ReportValues.parseAmount(deposits[i], RU_DECIMAL_SEPARATOR));
+        blackhole.consume(ReportValues.parseAmount(withdrawals[i], RU_DECIMAL_SEPARATOR));
+    }
+
+    @Benchmark
+    public void parseMinorUnits(Blackhole blackhole) throws ParseException {
+        final int i = next();
+        blackhole.consume(ReportValues.parseDate(dates[i]));
+        blackhole.consume(ReportValues.parseMinorUnits(deposits[i], RU_DECIMAL_SEPARATOR));
+        blackhole.consume(ReportValues.parseMinorUnits(withdrawals[i], RU_DECIMAL_SEPARATOR));
+    }
+
+    @Benchmark
+    public LocalDate parseDate() {
+        return ReportValues.parseDate(dates[next()]);
+    }
+
+    private int next() {
+        row = (row + 1) % SAMPLES;
+        return row;
+    }
+
+    /**
+     * Amounts are written like in reports: without grouping and with up to two fractional digits.
+     */
+    private static String amount(Random random) {
+        final long kopecks = (long) Math.pow(10, 2 + random.nextInt(5) + random.nextDouble());
+        final long fraction = kopecks % 100;
+        if (fraction == 0) {
+            return Long.toString(kopecks / 100);
+        }
+        return (kopecks / 100) + "," + (fraction % 10 == 0 ? Long.toString(fraction / 10) : String.format("%02d", fraction));
+    }
+}
@@ -1,26 +1,162 @@
 package ru.vzotov.alfabank;
 
-import ru.vzotov.alfabank.domain.model.AlfabankOperation;
+import ru.vzotov.alfabank.application.AccountReportAlfabankNotifier;
+import ru.vzotov.alfabank.application.AccountLookup;
+import ru.vzotov.alfabank.application.HoldIndex;
+import ru.vzotov.alfabank.application.ImportMetrics;
+import ru.vzotov.alfabank.application.OperationBatchRegistrar;
+import ru.vzotov.alfabank.application.RegisteredReferenceIndex;
+import ru.vzotov.alfabank.application.ReportProcessingSettings;
+import ru.vzotov.alfabank.application.impl.AccountingServiceBatchRegistrar;
+import ru.vzotov.alfabank.domain.model.AlfabankReportRepository;
+import ru.vzotov.alfabank.infrastructure.fs.AlfabankReportRepositoryArchive;
 import ru.vzotov.alfabank.infrastructure.fs.AlfabankReportRepositoryFiles;
+import ru.vzotov.alfabank.infrastructure.fs.AlfabankReportRepositoryMemory;
+import ru.vzotov.alfabank.infrastructure.fs.AlfabankReportWatcher;
+import ru.vzotov.alfabank.infrastructure.fs.HoldIndexFiles;
+import ru.vzotov.alfabank.infrastructure.fs.RegisteredReferenceIndexFiles;
+import ru.vzotov.alfabank.infrastructure.fs.ReportParser;
+import ru.vzotov.alfabank.infrastructure.fs.ReportStorage;
+import ru.vzotov.alfabank.infrastructure.metrics.MicrometerImportMetrics;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ListableBeanFactory;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
-import ru.vzotov.accounting.domain.model.AccountReportRepository;
+import org.springframework.util.ClassUtils;
+import ru.vzotov.accounting.application.AccountingService;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.time.Duration;
 
 @Configuration
 public class AlfabankModule {
 
     private static final Logger log = LoggerFactory.getLogger(AlfabankModule.class);
 
+    /**
+     * Keeps reports in the directory of reports, processed reports are compressed into archive files
+     * with {@code ARCHIVE} storage. With {@code MEMORY} storage reports are lost when the application stops.
+     */
+    @Bean
+    public AlfabankReportRepository accountReportRepositoryAlfabank(
+            @Value("${alfabank.reports.path}") String baseDirectoryPath,
+            @Value("${alfabank.reports.storage:FILES}") ReportStorage storage,
+            @Value("${alfabank.reports.catalog.persistent:true}") boolean persistentCatalog,
+            @Value("${alfabank.reports.parser:COMMONS_CSV}") ReportParser parser,
+            @Value("${alfabank.reports.cache.enabled:false}") boolean cacheParsed,
+            @Value("${alfabank.reports.archive.max-size:67108864}") long maxArchiveSize,
+            ImportMetrics alfabankImportMetrics) {
+
+        if (ReportStorage.MEMORY.equals(storage)) {
+            log.info("Create in-memory alfabank report repository");
+            return new AlfabankReportRepositoryMemory(alfabankImportMetrics);
+        }
+
+        log.info("Create alfabank report repository for path {} with {} parser and {} storage",
+                baseDirectoryPath, parser, storage);
+
+        return switch (storage) {
+            case ARCHIVE -> new AlfabankReportRepositoryArchive(baseDirectoryPath, persistentCatalog, parser,
+                    alfabankImportMetrics, cacheParsed, maxArchiveSize);
+            default -> new AlfabankReportRepositoryFiles(baseDirectoryPath, persistentCatalog, parser,
+                    alfabankImportMetrics, cacheParsed);
+        };
+    }
+
     @Bean
-    public AccountReportRepository<AlfabankOperation> accountReportRepositoryAlfabank(
-            @Value("${alfabank.reports.path}") String baseDirectoryPath) {
+    public ReportProcessingSettings alfabankReportProcessingSettings(
+            @Value("${alfabank.processing.workers:1}") int workers,
+            @Value("${alfabank.processing.batch-size:500}") int batchSize,
+            @Value("${alfabank.processing.pos-terminal-cache-size:4096}") int posTerminalCacheSize,
+            @Value("${alfabank.processing.execution:PLATFORM}") ReportProcessingSettings.Execution execution,
+            @Value("${alfabank.processing.pipeline-depth:2}") int pipelineDepth,
+            @Value("${alfabank.processing.validate:true}") boolean validate) {
+
+        log.info("Alfabank reports are processed by {} {} workers in batches of {} operations",
+                workers, execution.name().toLowerCase(), batchSize);
+
+        return new ReportProcessingSettings(workers, batchSize, posTerminalCacheSize, execution, pipelineDepth, validate);
+    }
+
+    /**
+     * Remembers registered operations in the directory of reports,
+     * unless {@code alfabank.reports.reference-index.enabled} is false.
+     */
+    @Bean
+    public RegisteredReferenceIndex alfabankRegisteredReferenceIndex(
+            @Value("${alfabank.reports.path}") String baseDirectoryPath,
+            @Value("${alfabank.reports.reference-index.enabled:true}") boolean enabled) {
+        return enabled ? new RegisteredReferenceIndexFiles(baseDirectoryPath) : RegisteredReferenceIndex.NONE;
+    }
+
+    /**
+     * Remembers HOLD operations in the directory of reports, so matching holds are removed only for the operations
+     * dated within {@code alfabank.processing.hold-match-window} days of a hold.
+     * When {@code alfabank.processing.hold-index.enabled} is false holds are removed for every operation.
+     */
+    @Bean
+    public HoldIndex alfabankHoldIndex(
+            @Value("${alfabank.reports.path}") String baseDirectoryPath,
+            @Value("${alfabank.processing.hold-index.enabled:true}") boolean enabled,
+            @Value("${alfabank.processing.hold-match-window:60}") int windowDays) {
+        return enabled ? new HoldIndexFiles(baseDirectoryPath, windowDays) : HoldIndex.ALL;
+    }
+
+    /**
+     * Assumes that every account exists. Applications may provide a primary bean that looks up accounts,
+     * then reports with unknown accounts are rejected before any of their operations is registered.
+     */
+    @Bean
+    public AccountLookup alfabankAccountLookup() {
+        return AccountLookup.ANY;
+    }
+
+    /**
+     * Registers operations one by one. Applications may provide a primary bean that registers whole batches at once.
+     */
+    @Bean
+    public OperationBatchRegistrar alfabankOperationBatchRegistrar(AccountingService accountingService,
+                                                                   ImportMetrics alfabankImportMetrics,
+                                                                   HoldIndex alfabankHoldIndex) {
+        return new AccountingServiceBatchRegistrar(accountingService, alfabankImportMetrics, alfabankHoldIndex);
+    }
+
+    /**
+     * Exports metrics of imports through Micrometer when it is on the classpath and the application has a meter registry.
+     */
+    @Bean
+    public ImportMetrics alfabankImportMetrics(ListableBeanFactory beanFactory) {
+        if (ClassUtils.isPresent(MicrometerImportMetrics.METER_REGISTRY_CLASS, AlfabankModule.class.getClassLoader())) {
+            final ImportMetrics metrics = MicrometerImportMetrics.fromBeanFactory(beanFactory);
+            if (metrics != null) {
+                log.info("Metrics of alfabank imports are exported through Micrometer");
+                return metrics;
+            }
+        }
+        return ImportMetrics.NOOP;
+    }
 
-        log.info("Create alfabank report repository for path {}", baseDirectoryPath);
+    /**
+     * Watches the directory of reports when {@code alfabank.reports.watch.enabled} is set.
+     * Reports are processed after {@code alfabank.reports.watch.quiet-period} milliseconds without changes.
+     */
+    @Bean(destroyMethod = "close")
+    public AlfabankReportWatcher alfabankReportWatcher(
+            @Value("${alfabank.reports.path}") String baseDirectoryPath,
+            @Value("${alfabank.reports.watch.enabled:false}") boolean enabled,
+            @Value("${alfabank.reports.watch.quiet-period:5000}") long quietPeriod,
+            AlfabankReportRepository accountReportRepositoryAlfabank,
+            AccountReportAlfabankNotifier notifier) throws IOException {
 
-        return new AlfabankReportRepositoryFiles(baseDirectoryPath);
+        final AlfabankReportWatcher watcher = new AlfabankReportWatcher(accountReportRepositoryAlfabank,
+                Paths.get(baseDirectoryPath), Duration.ofMillis(quietPeriod), notifier::reportReady);
+        if (enabled) {
+            watcher.start();
+        }
+        return watcher;
     }
 
 
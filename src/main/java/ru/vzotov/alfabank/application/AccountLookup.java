@@ -0,0 +1,22 @@
+package ru.vzotov.alfabank.application;
+
+import ru.vzotov.banking.domain.model.AccountNumber;
+
+/**
+ * Tells accounts that exist in the accounting, so a report with an unknown account is rejected
+ * before any of its operations is registered. Implementations must be thread-safe.
+ */
+public interface AccountLookup {
+
+    /**
+     * Lookup that assumes that every account exists, unknown accounts are reported by the accounting service
+     * when their operations are registered
+     */
+    AccountLookup ANY = accountNumber -> true;
+
+    /**
+     * @param accountNumber number of account
+     * @return true if the account exists
+     */
+    boolean exists(AccountNumber accountNumber);
+}
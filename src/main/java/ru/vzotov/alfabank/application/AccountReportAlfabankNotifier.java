@@ -1,24 +1,113 @@
 package ru.vzotov.alfabank.application;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
+import ru.vzotov.accounting.application.AccountNotFoundException;
+import ru.vzotov.accounting.application.AccountReportNotFoundException;
 import ru.vzotov.accounting.application.AccountReportService;
+import ru.vzotov.accounting.domain.model.AccountReportId;
+import ru.vzotov.alfabank.domain.model.AlfabankReportRepository;
 
+import java.io.Closeable;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Starts processing of reports found by the scheduled poll and by the watcher of the directory of reports.
+ * <p>
+ * Reports of the watcher are queued and processed one after another on a separate thread, so the watcher
+ * keeps watching while a report is processed. The poll and the queued reports are never processed at once:
+ * reports that share an account are registered in order and the poll keeps its limit of workers.
+ */
 @Component
-public class AccountReportAlfabankNotifier {
+public class AccountReportAlfabankNotifier implements Closeable {
 
-    private static final long TEN_MINUTES = 10 * 60 * 1000;
+    private static final Logger log = LoggerFactory.getLogger(AccountReportAlfabankNotifier.class);
 
     private final AccountReportService accountReportService;
 
+    private final AlfabankReportRepository accountReportRepository;
+
+    /**
+     * Held while reports are processed, by the poll or by the queue of the watcher
+     */
+    private final Object processing = new Object();
+
+    /**
+     * Names of reports that are queued and not processed yet, a report stays queued while it waits for the poll
+     */
+    private final Set<String> queued = ConcurrentHashMap.newKeySet();
+
+    private final ExecutorService queue = Executors.newSingleThreadExecutor(runnable -> {
+        final Thread thread = new Thread(runnable, "alfabank-report-queue");
+        thread.setDaemon(true);
+        return thread;
+    });
+
     public AccountReportAlfabankNotifier(
-            @Qualifier("AccountReportServiceAlfabank") AccountReportService accountReportService) {
+            @Qualifier("AccountReportServiceAlfabank") AccountReportService accountReportService,
+            @Qualifier("accountReportRepositoryAlfabank") AlfabankReportRepository accountReportRepository) {
         this.accountReportService = accountReportService;
+        this.accountReportRepository = accountReportRepository;
     }
 
-    @Scheduled(initialDelay = 30 * 1000, fixedDelay = TEN_MINUTES)
+    /**
+     * Searches for reports that were missed by the watcher. The delay is ten minutes by default
+     * and may be increased with {@code alfabank.reports.poll-delay} when the watcher is enabled.
+     */
+    @Scheduled(initialDelay = 30 * 1000, fixedDelayString = "${alfabank.reports.poll-delay:600000}")
     public void searchNewReports() {
-        accountReportService.processNewReports();
+        synchronized (processing) {
+            accountReportService.processNewReports();
+        }
+    }
+
+    /**
+     * Queues report that is completely written to the directory of reports. The report is skipped
+     * if it is already queued, and when its turn comes it is skipped if the poll has processed it.
+     *
+     * @param reportId report identifier
+     */
+    public void reportReady(AccountReportId reportId) {
+        if (!queued.add(reportId.name())) {
+            log.info("Report {} is already queued", reportId);
+            return;
+        }
+        try {
+            queue.execute(() -> processQueued(reportId));
+        } catch (RejectedExecutionException e) {
+            queued.remove(reportId.name());
+            log.warn("Report {} is not queued, it is left to the poll", reportId, e);
+        }
+    }
+
+    private void processQueued(AccountReportId reportId) {
+        synchronized (processing) {
+            queued.remove(reportId.name());
+            try {
+                final AccountReportId unprocessed = accountReportRepository.findUnprocessed(reportId.name());
+                if (unprocessed == null) {
+                    log.info("Report {} is already processed", reportId);
+                    return;
+                }
+                accountReportService.processAccountReport(unprocessed);
+            } catch (AccountReportNotFoundException | AccountNotFoundException | RuntimeException e) {
+                log.warn("Processing failed for report {}", reportId, e);
+            }
+        }
+    }
+
+    /**
+     * Stops processing of the queue. A report that is being processed continues from its checkpoint after restart.
+     */
+    @Override
+    public void close() {
+        queue.shutdownNow();
     }
 }
@@ -0,0 +1,40 @@
+package ru.vzotov.alfabank.application;
+
+import java.util.List;
+
+/**
+ * Index of HOLD operations that may still be waiting for their completed operations.
+ * <p>
+ * The index tells completed operations that can not match any hold, so the accounting service
+ * is not asked to remove matching holds for them. It must never give false negatives:
+ * when in doubt an operation may match. Implementations must be thread-safe.
+ */
+public interface HoldIndex {
+
+    /**
+     * Index that lets every completed operation match holds
+     */
+    HoldIndex ALL = new HoldIndex() {
+        @Override
+        public boolean mayMatch(OperationRegistration operation) {
+            return true;
+        }
+
+        @Override
+        public void holdsRegistered(List<OperationRegistration> holds) {
+        }
+    };
+
+    /**
+     * @param operation completed operation
+     * @return false if the operation can not match any registered hold
+     */
+    boolean mayMatch(OperationRegistration operation);
+
+    /**
+     * Adds registered HOLD operations to the index.
+     *
+     * @param holds registered HOLD operations
+     */
+    void holdsRegistered(List<OperationRegistration> holds);
+}
@@ -0,0 +1,112 @@
+package ru.vzotov.alfabank.application;
+
+/**
+ * Metrics of report imports.
+ * <p>
+ * Implementations must be thread-safe and cheap, they are called for every row of a report.
+ */
+public interface ImportMetrics {
+
+    /**
+     * Stages of the import
+     */
+    enum Stage {
+        /**
+         * Search of reports in the directory of reports
+         */
+        SCAN,
+        /**
+         * Reading and parsing of report rows, measured once per report
+         */
+        READ,
+        /**
+         * Conversion of report rows into registrations and lookup of registered operations, measured once per report
+         */
+        PREPARE,
+        /**
+         * Validation of a report before its operations are registered
+         */
+        VALIDATE,
+        /**
+         * Parsing of a card operation description
+         */
+        CARD_PARSE,
+        /**
+         * Registration of a completed operation
+         */
+        REGISTER_OPERATION,
+        /**
+         * Registration of a HOLD operation
+         */
+        REGISTER_HOLD_OPERATION,
+        /**
+         * Registration of card details of an operation
+         */
+        REGISTER_CARD_OPERATION,
+        /**
+         * Removal of HOLD operations matching a completed operation
+         */
+        REMOVE_HOLD_OPERATIONS,
+        /**
+         * Registration of a batch of operations
+         */
+        REGISTER_BATCH,
+        /**
+         * Marking of a report as processed
+         */
+        MARK_PROCESSED
+    }
+
+    /**
+     * Metrics that are not recorded anywhere
+     */
+    ImportMetrics NOOP = new ImportMetrics() {
+        @Override
+        public void record(Stage stage, long nanos) {
+        }
+
+        @Override
+        public void reportProcessed(long rows, long nanos) {
+        }
+
+        @Override
+        public void reportFailed(Exception error) {
+        }
+    };
+
+    /**
+     * Records time spent on the stage.
+     *
+     * @param stage stage of the import
+     * @param nanos time in nanoseconds
+     */
+    void record(Stage stage, long nanos);
+
+    /**
+     * Records time of the stage that is finished now.
+     *
+     * @param stage stage of the import
+     * @param start start of the stage, {@link System#nanoTime()}
+     * @return end of the stage, i.e. start of the next stage
+     */
+    default long stageFinished(Stage stage, long start) {
+        final long end = System.nanoTime();
+        record(stage, end - start);
+        return end;
+    }
+
+    /**
+     * Records successfully processed report.
+     *
+     * @param rows  number of rows in the report
+     * @param nanos time spent on the report in nanoseconds
+     */
+    void reportProcessed(long rows, long nanos);
+
+    /**
+     * Records failed report.
+     *
+     * @param error cause of the failure
+     */
+    void reportFailed(Exception error);
+}
@@ -0,0 +1,31 @@
+package ru.vzotov.alfabank.application;
+
+import ru.vzotov.accounting.application.AccountNotFoundException;
+
+import java.util.List;
+
+/**
+ * Registers operations of reports in accounting by batches.
+ * <p>
+ * For every operation of the batch in the given order the registrar
+ * <ul>
+ *     <li>registers HOLD operations as hold operations;</li>
+ *     <li>registers other operations with their card details
+ *     and removes hold operations that match the registered operation.</li>
+ * </ul>
+ * The result must be the same as if the operations were registered one at a time: a completed operation
+ * must not remove holds of the rows that follow it in the batch.
+ * Implementations may use a single round-trip to the storage per batch.
+ */
+public interface OperationBatchRegistrar {
+
+    /**
+     * Registers the batch of operations.
+     * The list is reused by the caller, so it must not be kept after the method returns.
+     *
+     * @param batch operations in report order
+     * @throws AccountNotFoundException if account of an operation does not exist
+     */
+    void register(List<OperationRegistration> batch) throws AccountNotFoundException;
+
+}
@@ -0,0 +1,60 @@
+package ru.vzotov.alfabank.application;
+
+import org.apache.commons.lang3.Validate;
+import ru.vzotov.banking.domain.model.AccountNumber;
+import ru.vzotov.banking.domain.model.CardNumber;
+import ru.vzotov.banking.domain.model.MccCode;
+import ru.vzotov.banking.domain.model.OperationType;
+import ru.vzotov.banking.domain.model.PosTerminal;
+import ru.vzotov.banking.domain.model.TransactionReference;
+import ru.vzotov.domain.model.Money;
+
+import java.time.LocalDate;
+
+/**
+ * Operation of a report prepared for registration in accounting.
+ *
+ * @param account     account of the operation
+ * @param date        date of the operation
+ * @param reference   reference of the transaction, null for HOLD operations
+ * @param type        type of the operation
+ * @param amount      amount of the operation
+ * @param description description of the operation
+ * @param card        card details of the operation or null if the operation is not a card operation
+ */
+public record OperationRegistration(
+        AccountNumber account,
+        LocalDate date,
+        TransactionReference reference,
+        OperationType type,
+        Money amount,
+        String description,
+        Card card) {
+
+    public OperationRegistration {
+        Validate.notNull(account);
+        Validate.notNull(date);
+        Validate.notNull(type);
+        Validate.notNull(amount);
+        Validate.isTrue(reference != null || card == null, "HOLD operation can not have card details");
+    }
+
+    /**
+     * HOLD operations are not yet completed operations.
+     *
+     * @return true if the operation is a HOLD operation
+     */
+    public boolean isHold() {
+        return reference == null;
+    }
+
+    public record Card(
+            CardNumber cardNumber,
+            PosTerminal terminal,
+            LocalDate authDate,
+            LocalDate purchaseDate,
+            Money amount,
+            String extraInfo,
+            MccCode mcc) {
+    }
+}
@@ -0,0 +1,87 @@
+package ru.vzotov.alfabank.application;
+
+import java.util.List;
+
+/**
+ * Index of operations that are already registered.
+ * <p>
+ * Operations found in the index are skipped before registration, so overlapping reports do not cause
+ * round-trips to the accounting service. Transaction references of Alfabank are not unique, e.g. monthly
+ * loan payments and cashback share a reference, so operations are identified by their account, reference,
+ * date, type and amount, see {@link #identity(OperationRegistration)}. Legitimately repeated operations,
+ * e.g. two equal payments on the same day, are counted, so each of them is registered once.
+ * HOLD operations and operations with an empty reference are never indexed. Implementations must be thread-safe.
+ */
+public interface RegisteredReferenceIndex {
+
+    /**
+     * Index that knows no operations
+     */
+    RegisteredReferenceIndex NONE = new RegisteredReferenceIndex() {
+        @Override
+        public int count(String accountNumber, long identity) {
+            return 0;
+        }
+
+        @Override
+        public void registered(List<OperationRegistration> batch) {
+        }
+    };
+
+    /**
+     * @param accountNumber number of the account
+     * @param identity      identity of the operation
+     * @return number of times the operation is registered for the account
+     */
+    int count(String accountNumber, long identity);
+
+    /**
+     * @param accountNumber number of the account
+     * @param identity      identity of the operation
+     * @return true if the operation is already registered for the account
+     */
+    default boolean contains(String accountNumber, long identity) {
+        return count(accountNumber, identity) > 0;
+    }
+
+    /**
+     * Adds the registered operations to the index, every registration of an operation is counted.
+     *
+     * @param batch registered operations
+     */
+    void registered(List<OperationRegistration> batch);
+
+    /**
+     * 64-bit FNV-1a hash of the reference, date, type, amount and currency of the operation.
+     * The account is not hashed, operations are indexed by their accounts.
+     *
+     * @param operation completed operation
+     * @return identity of the operation
+     */
+    static long identity(OperationRegistration operation) {
+        long h = 0xcbf29ce484222325L;
+        h = hash(h, operation.reference().value());
+        h = hash(h, operation.date().toEpochDay());
+        h = hash(h, operation.type().ordinal());
+        h = hash(h, operation.amount().rawAmount());
+        h = hash(h, operation.amount().currency().getCurrencyCode());
+        return h;
+    }
+
+    private static long hash(long h, String s) {
+        for (int i = 0; i < s.length(); i++) {
+            final char c = s.charAt(i);
+            h = (h ^ (c & 0xFF)) * 0x100000001b3L;
+            h = (h ^ (c >>> 8)) * 0x100000001b3L;
+        }
+        // separates adjacent strings
+        return (h ^ 0xFF) * 0x100000001b3L;
+    }
+
+    private static long hash(long h, long value) {
+        for (int i = 0; i < Long.BYTES; i++, value >>>= 8) {
+            h = (h ^ (value & 0xFF)) * 0x100000001b3L;
+        }
+        return h;
+    }
+}
@@ -0,0 +1,42 @@
+package ru.vzotov.alfabank.application;
+
+import ru.vzotov.accounting.domain.model.AccountReportId;
+
+import java.time.Duration;
+
+/**
+ * Result of processing of a single report.
+ *
+ * @param reportId report identifier
+ * @param status   processing status
+ * @param duration time spent on the report
+ * @param error    description of the failure or null if the report is processed
+ */
+public record ReportProcessingResult(AccountReportId reportId, Status status, Duration duration, String error) {
+
+    public enum Status {
+        PROCESSED,
+        /**
+         * Report is being processed by another thread
+         */
+        SKIPPED,
+        FAILED
+    }
+
+    public static ReportProcessingResult processed(AccountReportId reportId, Duration duration) {
+        return new ReportProcessingResult(reportId, Status.PROCESSED, duration, null);
+    }
+
+    public static ReportProcessingResult skipped(AccountReportId reportId, Duration duration) {
+        return new ReportProcessingResult(reportId, Status.SKIPPED, duration, null);
+    }
+
+    public static ReportProcessingResult failed(AccountReportId reportId, Duration duration, Exception error) {
+        return new ReportProcessingResult(reportId, Status.FAILED, duration,
+                error.getClass().getSimpleName() + (error.getMessage() == null ? "" : ": " + error.getMessage()));
+    }
+
+    public boolean isProcessed() {
+        return Status.PROCESSED.equals(status);
+    }
+}
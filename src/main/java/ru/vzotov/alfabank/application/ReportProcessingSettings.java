@@ -0,0 +1,70 @@
+package ru.vzotov.alfabank.application;
+
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Settings of report processing.
+ *
+ * @param workers              number of reports processed at the same time.
+ *                             Reports that share an account are always processed one after another.
+ * @param batchSize            number of operations passed to {@link OperationBatchRegistrar} at once
+ * @param posTerminalCacheSize  number of POS terminals kept between imports, 0 disables the cache
+ * @param execution            kind of threads that process reports in parallel
+ * @param pipelineDepth        number of batches read ahead of registration by a separate thread,
+ *                             0 reads and registers operations on the same thread
+ * @param validate             whether every operation of a report is checked before any of them is registered
+ */
+public record ReportProcessingSettings(int workers, int batchSize, int posTerminalCacheSize, Execution execution,
+                                       int pipelineDepth, boolean validate) {
+
+    public ReportProcessingSettings {
+        Validate.isTrue(workers > 0, "Number of workers must be positive:", workers);
+        Validate.isTrue(batchSize > 0, "Batch size must be positive:", batchSize);
+        Validate.isTrue(posTerminalCacheSize >= 0, "Size of POS terminal cache must not be negative:", posTerminalCacheSize);
+        Validate.notNull(execution);
+        Validate.isTrue(pipelineDepth >= 0, "Pipeline depth must not be negative:", pipelineDepth);
+    }
+
+    public static ReportProcessingSettings defaults() {
+        return new ReportProcessingSettings(1, 500, 4096, Execution.PLATFORM, 2, true);
+    }
+
+    public ReportProcessingSettings withWorkers(int workers) {
+        return new ReportProcessingSettings(workers, batchSize, posTerminalCacheSize, execution, pipelineDepth, validate);
+    }
+
+    public ReportProcessingSettings withBatchSize(int batchSize) {
+        return new ReportProcessingSettings(workers, batchSize, posTerminalCacheSize, execution, pipelineDepth, validate);
+    }
+
+    public ReportProcessingSettings withPosTerminalCacheSize(int posTerminalCacheSize) {
+        return new ReportProcessingSettings(workers, batchSize, posTerminalCacheSize, execution, pipelineDepth, validate);
+    }
+
+    public ReportProcessingSettings withExecution(Execution execution) {
+        return new ReportProcessingSettings(workers, batchSize, posTerminalCacheSize, execution, pipelineDepth, validate);
+    }
+
+    public ReportProcessingSettings withPipelineDepth(int pipelineDepth) {
+        return new ReportProcessingSettings(workers, batchSize, posTerminalCacheSize, execution, pipelineDepth, validate);
+    }
+
+    public ReportProcessingSettings withValidate(boolean validate) {
+        return new ReportProcessingSettings(workers, batchSize, posTerminalCacheSize, execution, pipelineDepth, validate);
+    }
+
+    /**
+     * Kind of threads that process reports
+     */
+    public enum Execution {
+        /**
+         * Pool of {@code workers} platform threads
+         */
+        PLATFORM,
+        /**
+         * A virtual thread per report, at most {@code workers} reports at the same time.
+         * Requires Java 21, platform threads are used on older runtimes.
+         */
+        VIRTUAL
+    }
+}
@@ -1,11 +1,21 @@
 package ru.vzotov.alfabank.application.impl;
 
+import ru.vzotov.alfabank.application.AccountLookup;
+import ru.vzotov.alfabank.application.ImportMetrics;
+import ru.vzotov.alfabank.application.ImportMetrics.Stage;
+import ru.vzotov.alfabank.application.OperationBatchRegistrar;
+import ru.vzotov.alfabank.application.OperationRegistration;
+import ru.vzotov.alfabank.application.RegisteredReferenceIndex;
+import ru.vzotov.alfabank.application.ReportProcessingResult;
+import ru.vzotov.alfabank.application.ReportProcessingSettings;
 import ru.vzotov.alfabank.domain.model.AlfabankOperation;
+import ru.vzotov.alfabank.domain.model.AlfabankReportRepository;
 import ru.vzotov.alfabank.domain.model.CardOperation;
+import ru.vzotov.alfabank.domain.model.MinorUnits;
 import ru.vzotov.alfabank.domain.model.PosInfo;
+import ru.vzotov.alfabank.domain.model.ReportValidation;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.Validate;
-import org.apache.commons.math3.util.Precision;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -15,9 +25,7 @@ import ru.vzotov.accounting.application.AccountNotFoundException;
 import ru.vzotov.accounting.application.AccountReportNotFoundException;
 import ru.vzotov.accounting.application.AccountReportService;
 import ru.vzotov.accounting.application.AccountingService;
-import ru.vzotov.accounting.domain.model.AccountReport;
 import ru.vzotov.accounting.domain.model.AccountReportId;
-import ru.vzotov.accounting.domain.model.AccountReportRepository;
 import ru.vzotov.banking.domain.model.AccountNumber;
 import ru.vzotov.banking.domain.model.BankId;
 import ru.vzotov.banking.domain.model.CardNumber;
@@ -25,7 +33,6 @@ import ru.vzotov.banking.domain.model.City;
 import ru.vzotov.banking.domain.model.Country;
 import ru.vzotov.banking.domain.model.MccCode;
 import ru.vzotov.banking.domain.model.Merchant;
-import ru.vzotov.banking.domain.model.OperationId;
 import ru.vzotov.banking.domain.model.OperationType;
 import ru.vzotov.banking.domain.model.PosTerminal;
 import ru.vzotov.banking.domain.model.PosTerminalId;
@@ -35,8 +42,20 @@ import ru.vzotov.domain.model.Money;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Currency;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.stream.Stream;
 
 import static ru.vzotov.banking.domain.model.OperationType.DEPOSIT;
 import static ru.vzotov.banking.domain.model.OperationType.WITHDRAW;
@@ -47,15 +66,69 @@ public class AccountReportServiceAlfabank implements AccountReportService {
 
     private static final Logger log = LoggerFactory.getLogger(AccountReportServiceAlfabank.class);
 
-    private final AccountReportRepository<AlfabankOperation> accountReportRepository;
+    private final AlfabankReportRepository accountReportRepository;
 
-    private final AccountingService accountingService;
+    private final OperationBatchRegistrar registrar;
+
+    private final ReportProcessingSettings settings;
+
+    private final PosTerminalCache posTerminals;
+
+    private final ImportMetrics metrics;
+
+    private final RegisteredReferenceIndex registeredReferences;
+
+    private final AccountLookup accountLookup;
+
+    /**
+     * Names of reports that are being processed now. Reports may be found by the poll and by the watcher at once.
+     */
+    private final Set<String> reportsInProgress = ConcurrentHashMap.newKeySet();
+
+    AccountReportServiceAlfabank(
+            AlfabankReportRepository accountReportRepository,
+            AccountingService accountingService) {
+        this(accountReportRepository, accountingService, ReportProcessingSettings.defaults());
+    }
+
+    AccountReportServiceAlfabank(
+            AlfabankReportRepository accountReportRepository,
+            AccountingService accountingService,
+            ReportProcessingSettings settings) {
+        this(accountReportRepository, new AccountingServiceBatchRegistrar(accountingService), settings);
+    }
 
     AccountReportServiceAlfabank(
-            @Autowired @Qualifier("accountReportRepositoryAlfabank") AccountReportRepository<AlfabankOperation> accountReportRepository,
-            @Autowired AccountingService accountingService) {
+            AlfabankReportRepository accountReportRepository,
+            OperationBatchRegistrar registrar,
+            ReportProcessingSettings settings) {
+        this(accountReportRepository, registrar, settings, ImportMetrics.NOOP, RegisteredReferenceIndex.NONE);
+    }
+
+    AccountReportServiceAlfabank(
+            AlfabankReportRepository accountReportRepository,
+            OperationBatchRegistrar registrar,
+            ReportProcessingSettings settings,
+            ImportMetrics metrics,
+            RegisteredReferenceIndex registeredReferences) {
+        this(accountReportRepository, registrar, settings, metrics, registeredReferences, AccountLookup.ANY);
+    }
+
+    @Autowired
+    AccountReportServiceAlfabank(
+            @Qualifier("accountReportRepositoryAlfabank") AlfabankReportRepository accountReportRepository,
+            OperationBatchRegistrar registrar,
+            ReportProcessingSettings settings,
+            ImportMetrics metrics,
+            RegisteredReferenceIndex registeredReferences,
+            AccountLookup accountLookup) {
         this.accountReportRepository = accountReportRepository;
-        this.accountingService = accountingService;
+        this.registrar = registrar;
+        this.settings = settings;
+        this.metrics = metrics;
+        this.registeredReferences = registeredReferences;
+        this.accountLookup = accountLookup;
+        this.posTerminals = new PosTerminalCache(settings.posTerminalCacheSize(), AccountReportServiceAlfabank::makePosTerminal);
     }
 
     @Override
@@ -74,70 +147,220 @@ public class AccountReportServiceAlfabank implements AccountReportService {
     public void processAccountReport(AccountReportId reportId) throws AccountReportNotFoundException, AccountNotFoundException {
         Validate.notNull(reportId);
 
-        final AccountReport<AlfabankOperation> report = accountReportRepository.find(reportId);
-        if (report == null) {
-            throw new AccountReportNotFoundException();
-        }
-
-        for (AlfabankOperation row : report.operations()) {
-            final OperationType type = row.withdraw() > row.deposit() ? WITHDRAW : DEPOSIT;
-
-            //noinspection ConstantConditions
-            Validate.isTrue(WITHDRAW.equals(type) || DEPOSIT.equals(type));
-            Validate.isTrue(DEPOSIT.equals(type) || Precision.equals(row.deposit(), 0.00d, 0.001d));
-            Validate.isTrue(WITHDRAW.equals(type) || Precision.equals(row.withdraw(), 0.00d, 0.001d));
-
-            final AccountNumber accountNumber = new AccountNumber(row.accountNumber());
-            final Currency currency = Currency.getInstance(row.currencyCode());
-            final Money amount = new Money(DEPOSIT.equals(type) ? row.deposit() : row.withdraw(), currency);
-
-            // Skip HOLD records.
-            // The records are not yet completed operations.
-            if (row.transactionId().isHold()) {
-                accountingService.registerHoldOperation(
-                        accountNumber,
-                        row.date(),
-                        type,
-                        amount,
-                        row.description()
-                );
-            } else {
-                OperationId operationId = accountingService.registerOperation(
-                        accountNumber,
-                        row.date(),
-                        new TransactionReference(row.transactionId().reference()),
-                        type,
-                        amount,
-                        row.description()
-                );
-
-                final CardOperation card = row.cardOperation();
-                if (card != null) {
-                    accountingService.registerCardOperation(
-                            operationId,
-                            new CardNumber(card.cardNumber()),
-                            makePosTerminal(card.posInfo()),
-                            card.authDate(),
-                            card.purchaseDate(),
-                            new Money(card.amount(), Currency.getInstance(card.currency())),
-                            card.extraInfo(),
-                            new MccCode(card.mcc())
-                    );
+        if (!tryProcessAccountReport(reportId, null)) {
+            log.info("Report {} is already being processed", reportId);
+        }
+    }
+
+    /**
+     * Processes report unless it is already being processed by another thread.
+     *
+     * @param validation validation of the report made when reports were grouped, or null
+     * @return false if the report is already being processed
+     */
+    private boolean tryProcessAccountReport(AccountReportId reportId, ReportValidation validation)
+            throws AccountReportNotFoundException, AccountNotFoundException {
+        if (!reportsInProgress.add(reportId.name())) {
+            return false;
+        }
+        final long start = System.nanoTime();
+        try {
+            final long rows = processReportOperations(reportId, validation);
+
+            final long markStart = System.nanoTime();
+            accountReportRepository.markProcessed(reportId);
+            metrics.stageFinished(Stage.MARK_PROCESSED, markStart);
+
+            metrics.reportProcessed(rows, System.nanoTime() - start);
+            return true;
+        } catch (AccountReportNotFoundException | AccountNotFoundException | RuntimeException e) {
+            metrics.reportFailed(e);
+            throw e;
+        } finally {
+            reportsInProgress.remove(reportId.name());
+        }
+    }
+
+    /**
+     * Registers operations of the report.
+     * Processing continues from the checkpoint of the report, the checkpoint is saved after every registered batch.
+     * Operations of a batch that was registered right before a crash may be registered again if they are not indexed.
+     * Completed operations are skipped as many times as they are found in the index of registered operations,
+     * see {@link ImportOccurrences}, so the result does not depend on batches and checkpoints.
+     * Unless {@link ReportProcessingSettings#pipelineDepth()} is 0, the report is read by a separate thread
+     * while the previous batches are registered.
+     * Time spent on reading, on preparation of operations for registration and on registration is recorded separately.
+     * Reports are validated when their processing starts, unless they are validated when reports are grouped.
+     * Reports that continue from a checkpoint are validated already.
+     * Unless every account is assumed to exist, accounts of the report are checked before any operation is registered.
+     * Accounts are taken from the validation, the report is read once more to find them only if it is not validated.
+     *
+     * @param validated validation of the report made when reports were grouped, or null
+     * @return number of operations in the report
+     */
+    private long processReportOperations(AccountReportId reportId, ReportValidation validated)
+            throws AccountReportNotFoundException, AccountNotFoundException {
+        final long checkpoint = accountReportRepository.findCheckpoint(reportId);
+        if (checkpoint > 0) {
+            log.info("Continue processing of report {} from operation {}", reportId, checkpoint);
+        }
+
+        final ImportResolution resolution = new ImportResolution();
+        final ReportValidation validation = checkpoint == 0 && settings.validate()
+                ? requireValid(reportId, validated != null ? validated : validate(reportId, resolution))
+                : null;
+        if (accountLookup != AccountLookup.ANY) {
+            resolution.checkAccounts(validation != null
+                    ? validation.accounts()
+                    : accountReportRepository.findAccountNumbers(reportId), accountLookup);
+        }
+
+        final ReportBatchReader reader;
+        try (Stream<AlfabankOperation> operations = checkpoint > 0
+                ? accountReportRepository.stream(reportId, checkpoint)
+                : accountReportRepository.stream(reportId)) {
+            if (operations == null) {
+                throw new AccountReportNotFoundException();
+            }
+
+            final ImportOccurrences occurrences = new ImportOccurrences(registeredReferences);
+            if (checkpoint > 0 && registeredReferences != RegisteredReferenceIndex.NONE) {
+                countOccurrences(reportId, checkpoint, occurrences, resolution);
+            }
+            reader = new ReportBatchReader(operations.iterator(), checkpoint, settings.batchSize(),
+                    occurrences::isRegistered,
+                    row -> toRegistration(row, posTerminals, resolution));
+            try (ReportBatches batches = settings.pipelineDepth() > 0
+                    ? new ReportBatchPipeline(reader, settings.pipelineDepth(), settings.execution())
+                    : reader) {
+                ReportBatches.Batch batch;
+                while ((batch = batches.next()) != null) {
+                    if (!batch.operations().isEmpty()) {
+                        registerBatch(batch.operations());
+                    }
+                    accountReportRepository.saveCheckpoint(reportId, batch.rows());
                 }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Processing of report " + reportId.name() + " is interrupted", e);
+            }
+        }
+        metrics.record(Stage.READ, reader.readNanos());
+        metrics.record(Stage.PREPARE, reader.prepareNanos());
+        if (reader.skipped() > 0) {
+            log.info("Skipped {} already registered operations of report {}", reader.skipped(), reportId);
+        }
+        return reader.rows();
+    }
 
-                accountingService.removeMatchingHoldOperations(operationId);
+    /**
+     * Checks every operation of the report without registering any of them.
+     */
+    private ReportValidation validate(AccountReportId reportId, ImportResolution resolution) {
+        final long start = System.nanoTime();
+        final ReportValidation validation = accountReportRepository.validate(reportId, row -> {
+            try {
+                toRegistration(row, posTerminals, resolution);
+                return null;
+            } catch (RuntimeException e) {
+                return ReportValidation.describe(e);
             }
+        });
+        metrics.stageFinished(Stage.VALIDATE, start);
+        return validation;
+    }
+
+    /**
+     * Invalid reports are quarantined by the repository, so they are not read again on every poll.
+     *
+     * @return validation of the valid report
+     * @throws IllegalArgumentException if the report has invalid rows
+     */
+    private ReportValidation requireValid(AccountReportId reportId, ReportValidation validation) {
+        if (validation.valid()) {
+            return validation;
         }
 
-        accountReportRepository.markProcessed(reportId);
+        for (ReportValidation.RowError error : validation.errors()) {
+            log.warn("Invalid row of report {}, {}", reportId.name(), error);
+        }
+        final boolean quarantined = accountReportRepository.quarantine(reportId, validation);
+        throw new IllegalArgumentException(String.format("Report %s has %d invalid rows of %d%s", reportId.name(),
+                validation.invalidRows(), validation.rows(), quarantined ? ", it is moved to quarantine" : ""));
+    }
+
+    /**
+     * Counts occurrences of operations in the rows of the report before the checkpoint,
+     * so operations that repeat across the checkpoint are registered as many times as they occur.
+     * The time is recorded as preparation of the operations.
+     */
+    private void countOccurrences(AccountReportId reportId, long checkpoint, ImportOccurrences occurrences,
+                                  ImportResolution resolution) throws AccountReportNotFoundException {
+        final long start = System.nanoTime();
+        try (Stream<AlfabankOperation> operations = accountReportRepository.stream(reportId)) {
+            if (operations == null) {
+                throw new AccountReportNotFoundException();
+            }
+            operations.limit(checkpoint).forEach(row -> occurrences.occurred(toRegistration(row, posTerminals, resolution)));
+        }
+        metrics.stageFinished(Stage.PREPARE, start);
+    }
+
+    private void registerBatch(List<OperationRegistration> batch) throws AccountNotFoundException {
+        final long start = System.nanoTime();
+        registrar.register(batch);
+        metrics.stageFinished(Stage.REGISTER_BATCH, start);
+        if (registeredReferences != RegisteredReferenceIndex.NONE) {
+            registeredReferences.registered(batch);
+        }
+    }
+
+    static OperationRegistration toRegistration(AlfabankOperation row, PosTerminalCache posTerminals,
+                                                ImportResolution resolution) {
+        final OperationType type = row.withdrawMinor() > row.depositMinor() ? WITHDRAW : DEPOSIT;
+
+        //noinspection ConstantConditions
+        Validate.isTrue(WITHDRAW.equals(type) || DEPOSIT.equals(type));
+        Validate.isTrue(DEPOSIT.equals(type) || row.depositMinor() == 0, "Operation has both deposit and withdrawal");
+        Validate.isTrue(WITHDRAW.equals(type) || row.withdrawMinor() == 0, "Operation has both deposit and withdrawal");
+
+        final AccountNumber accountNumber = resolution.account(row.accountNumber());
+        final Currency currency = resolution.currency(row.currencyCode());
+        final Money amount = MinorUnits.toMoney(DEPOSIT.equals(type) ? row.depositMinor() : row.withdrawMinor(), currency);
+
+        // HOLD records are not yet completed operations.
+        if (row.transactionId().isHold()) {
+            return new OperationRegistration(accountNumber, row.date(), null, type, amount, row.description(), null);
+        }
+
+        final CardOperation card = row.cardOperation();
+        return new OperationRegistration(
+                accountNumber,
+                row.date(),
+                new TransactionReference(row.transactionId().reference()),
+                type,
+                amount,
+                row.description(),
+                card == null ? null : new OperationRegistration.Card(
+                        new CardNumber(card.cardNumber()),
+                        posTerminals.get(card.posInfo()),
+                        card.authDate(),
+                        card.purchaseDate(),
+                        MinorUnits.toMoney(card.amountMinor(), resolution.currency(card.currency())),
+                        card.extraInfo(),
+                        new MccCode(card.mcc())
+                )
+        );
     }
 
     public static PosTerminal makePosTerminal(PosInfo posInfo) {
-        Country country;
-        try {
-            country = new Country(posInfo.country());
-        }catch (IllegalArgumentException | NullPointerException ex) {
-            country = null;
+        Country country = null;
+        if (StringUtils.isNotEmpty(posInfo.country())) {
+            try {
+                country = new Country(posInfo.country());
+            } catch (IllegalArgumentException | NullPointerException ex) {
+                country = null;
+            }
         }
         return country == null ? null : new PosTerminal(
                 new PosTerminalId(posInfo.terminalId()),
@@ -154,16 +377,142 @@ public class AccountReportServiceAlfabank implements AccountReportService {
 
         log.info("Found {} unprocessed reports", reports.size());
 
-        for (AccountReportId reportId : reports) {
-            log.info("Start processing of report {}", reportId);
+        final List<ReportProcessingResult> results = processReports(reports);
+
+        if (!results.isEmpty()) {
+            log.info("Processed {} of {} reports", results.stream().filter(ReportProcessingResult::isProcessed).count(), results.size());
+            log.debug("POS terminal cache: {} terminals, {} hits, {} misses", posTerminals.size(), posTerminals.hits(), posTerminals.misses());
+            for (ReportProcessingResult result : results) {
+                log.info("Report {}: {} in {} ms{}", result.reportId().name(), result.status(), result.duration().toMillis(),
+                        result.error() == null ? "" : ", " + result.error());
+            }
+        }
+    }
+
+    /**
+     * Processes reports. Reports that share an account are processed in the given order one after another,
+     * independent reports are processed in parallel by {@link ReportProcessingSettings#workers()} workers
+     * on threads of {@link ReportProcessingSettings#execution()} kind.
+     *
+     * @param reports reports to process
+     * @return results of processing in the same order as the reports
+     */
+    public List<ReportProcessingResult> processReports(List<AccountReportId> reports) {
+        Validate.notNull(reports);
+
+        if (settings.workers() == 1 || reports.size() < 2) {
+            return reports.stream().map(reportId -> processReport(reportId, null)).toList();
+        }
+
+        final Map<AccountReportId, ReportValidation> validations = new ConcurrentHashMap<>();
+        final List<List<AccountReportId>> groups = groupByAccounts(reports, validations);
+        log.info("Process {} reports in {} independent groups", reports.size(), groups.size());
+
+        final int parallelism = Math.min(settings.workers(), groups.size());
+        final Semaphore permits = new Semaphore(parallelism);
+        final ExecutorService executor = ReportExecutors.newExecutor(settings.execution(), parallelism, "alfabank-report-");
+        try {
+            final List<Future<List<ReportProcessingResult>>> futures = groups.stream()
+                    .map(group -> executor.submit(() -> processGroup(group, validations, permits)))
+                    .toList();
+
+            final Map<AccountReportId, ReportProcessingResult> results = new HashMap<>();
+            for (Future<List<ReportProcessingResult>> future : futures) {
+                for (ReportProcessingResult result : future.get()) {
+                    results.put(result.reportId(), result);
+                }
+            }
+            return reports.stream().map(results::get).toList();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Processing of reports is interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Processing of reports failed", e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Processes reports of a group one after another. Permits limit the number of groups processed at once
+     * when every group gets its own virtual thread.
+     */
+    private List<ReportProcessingResult> processGroup(List<AccountReportId> group,
+                                                      Map<AccountReportId, ReportValidation> validations,
+                                                      Semaphore permits) throws InterruptedException {
+        permits.acquire();
+        try {
+            return group.stream().map(reportId -> processReport(reportId, validations.remove(reportId))).toList();
+        } finally {
+            permits.release();
+        }
+    }
+
+    private ReportProcessingResult processReport(AccountReportId reportId, ReportValidation validation) {
+        log.info("Start processing of report {}", reportId);
+        final long start = System.nanoTime();
+        try {
+            if (!tryProcessAccountReport(reportId, validation)) {
+                log.info("Report {} is already being processed", reportId);
+                return ReportProcessingResult.skipped(reportId, Duration.ofNanos(System.nanoTime() - start));
+            }
+
+            log.info("Processing of report {} finished", reportId);
+            return ReportProcessingResult.processed(reportId, Duration.ofNanos(System.nanoTime() - start));
+        } catch (AccountReportNotFoundException | AccountNotFoundException | RuntimeException e) {
+            log.warn("Processing failed for report {}", reportId, e);
+            return ReportProcessingResult.failed(reportId, Duration.ofNanos(System.nanoTime() - start), e);
+        }
+    }
+
+    /**
+     * Splits reports into groups that have no accounts in common. Order of reports inside a group is preserved.
+     * Reports that are validated before processing are validated here, their accounts are taken from the validations,
+     * so a report is read once to group it and once to import it.
+     *
+     * @param validations receives validations of the reports, they are used when the reports are processed
+     */
+    List<List<AccountReportId>> groupByAccounts(List<AccountReportId> reports, Map<AccountReportId, ReportValidation> validations) {
+        final int[] parent = new int[reports.size()];
+        final Map<String, Integer> accounts = new HashMap<>();
+        for (int i = 0; i < reports.size(); i++) {
+            parent[i] = i;
+
+            Set<String> reportAccounts;
             try {
-                processAccountReport(reportId);
+                final AccountReportId reportId = reports.get(i);
+                if (settings.validate() && accountReportRepository.findCheckpoint(reportId) == 0) {
+                    final ReportValidation validation = validate(reportId, new ImportResolution());
+                    validations.put(reportId, validation);
+                    reportAccounts = validation.accounts();
+                } else {
+                    reportAccounts = accountReportRepository.findAccountNumbers(reportId);
+                }
+            } catch (RuntimeException e) {
+                log.warn("Unable to read accounts of report {}", reports.get(i), e);
+                reportAccounts = Set.of();
+            }
 
-                log.info("Processing of report {} finished", reportId);
-            } catch (AccountReportNotFoundException | AccountNotFoundException e) {
-                log.warn("Processing failed for report {}", reportId);
+            for (String account : reportAccounts) {
+                final Integer other = accounts.putIfAbsent(account, i);
+                if (other != null) {
+                    parent[root(parent, i)] = root(parent, other);
+                }
             }
         }
 
+        final Map<Integer, List<AccountReportId>> groups = new LinkedHashMap<>();
+        for (int i = 0; i < reports.size(); i++) {
+            groups.computeIfAbsent(root(parent, i), k -> new ArrayList<>()).add(reports.get(i));
+        }
+        return new ArrayList<>(groups.values());
+    }
+
+    private static int root(int[] parent, int i) {
+        while (parent[i] != i) {
+            parent[i] = parent[parent[i]];
+            i = parent[i];
+        }
+        return i;
     }
 }
@@ -0,0 +1,128 @@
+package ru.vzotov.alfabank.application.impl;
+
+import org.apache.commons.lang3.Validate;
+import ru.vzotov.accounting.application.AccountNotFoundException;
+import ru.vzotov.accounting.application.AccountingService;
+import ru.vzotov.alfabank.application.HoldIndex;
+import ru.vzotov.alfabank.application.ImportMetrics;
+import ru.vzotov.alfabank.application.ImportMetrics.Stage;
+import ru.vzotov.alfabank.application.OperationBatchRegistrar;
+import ru.vzotov.alfabank.application.OperationRegistration;
+import ru.vzotov.banking.domain.model.OperationId;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Registrar that registers operations one by one with {@link AccountingService}.
+ * <p>
+ * Matching holds are removed right after every completed operation is registered, like when operations are
+ * registered one at a time, so holds of later rows of the batch are not removed by earlier completed operations.
+ * Removals can not be collected and made at the end of the report: the accounting service matches the holds
+ * that exist when it is called, so a deferred removal could take a hold of a later row.
+ * Holds are removed only for the completed operations that may match a hold according to the {@link HoldIndex},
+ * holds of consecutive rows are added to the index together.
+ */
+public class AccountingServiceBatchRegistrar implements OperationBatchRegistrar {
+
+    private final AccountingService accountingService;
+
+    private final ImportMetrics metrics;
+
+    private final HoldIndex holds;
+
+    public AccountingServiceBatchRegistrar(AccountingService accountingService) {
+        this(accountingService, ImportMetrics.NOOP);
+    }
+
+    /**
+     * @param accountingService accounting service
+     * @param metrics           metrics that receive time of every call of the accounting service
+     */
+    public AccountingServiceBatchRegistrar(AccountingService accountingService, ImportMetrics metrics) {
+        this(accountingService, metrics, HoldIndex.ALL);
+    }
+
+    /**
+     * @param accountingService accounting service
+     * @param metrics           metrics that receive time of every call of the accounting service
+     * @param holds             index of holds that tells operations that can not match any hold
+     */
+    public AccountingServiceBatchRegistrar(AccountingService accountingService, ImportMetrics metrics, HoldIndex holds) {
+        Validate.notNull(accountingService);
+        Validate.notNull(metrics);
+        Validate.notNull(holds);
+        this.accountingService = accountingService;
+        this.metrics = metrics;
+        this.holds = holds;
+    }
+
+    @Override
+    public void register(List<OperationRegistration> batch) throws AccountNotFoundException {
+        final List<OperationRegistration> registeredHolds = new ArrayList<>();
+        for (OperationRegistration operation : batch) {
+            final OperationId operationId = register(operation);
+            if (operation.isHold()) {
+                registeredHolds.add(operation);
+                continue;
+            }
+
+            if (!registeredHolds.isEmpty()) {
+                holds.holdsRegistered(registeredHolds);
+                registeredHolds.clear();
+            }
+            if (holds.mayMatch(operation)) {
+                final long start = System.nanoTime();
+                accountingService.removeMatchingHoldOperations(operationId);
+                metrics.stageFinished(Stage.REMOVE_HOLD_OPERATIONS, start);
+            }
+        }
+        if (!registeredHolds.isEmpty()) {
+            holds.holdsRegistered(registeredHolds);
+        }
+    }
+
+    /**
+     * @return identifier of the completed operation, null for HOLD operations
+     */
+    private OperationId register(OperationRegistration operation) throws AccountNotFoundException {
+        long start = System.nanoTime();
+        if (operation.isHold()) {
+            accountingService.registerHoldOperation(
+                    operation.account(),
+                    operation.date(),
+                    operation.type(),
+                    operation.amount(),
+                    operation.description()
+            );
+            metrics.stageFinished(Stage.REGISTER_HOLD_OPERATION, start);
+            return null;
+        } else {
+            final OperationId operationId = accountingService.registerOperation(
+                    operation.account(),
+                    operation.date(),
+                    operation.reference(),
+                    operation.type(),
+                    operation.amount(),
+                    operation.description()
+            );
+            start = metrics.stageFinished(Stage.REGISTER_OPERATION, start);
+
+            final OperationRegistration.Card card = operation.card();
+            if (card != null) {
+                accountingService.registerCardOperation(
+                        operationId,
+                        card.cardNumber(),
+                        card.terminal(),
+                        card.authDate(),
+                        card.purchaseDate(),
+                        card.amount(),
+                        card.extraInfo(),
+                        card.mcc()
+                );
+                metrics.stageFinished(Stage.REGISTER_CARD_OPERATION, start);
+            }
+            return operationId;
+        }
+    }
+}
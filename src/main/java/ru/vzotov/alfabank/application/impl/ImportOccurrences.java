@@ -0,0 +1,60 @@
+package ru.vzotov.alfabank.application.impl;
+
+import ru.vzotov.alfabank.application.OperationRegistration;
+import ru.vzotov.alfabank.application.RegisteredReferenceIndex;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Occurrences of indexed operations in the report that is being imported.
+ * <p>
+ * The k-th occurrence of an operation in the report is skipped only if the index has registered the operation
+ * at least k times. Repeated rows of a report are all registered, operations of an overlapping report are skipped
+ * as many times as they are registered, and an import that continues from a checkpoint counts the rows before
+ * the checkpoint with {@link #occurred(OperationRegistration)} first.
+ * Occurrences are counted by the thread that reads the report.
+ */
+final class ImportOccurrences {
+
+    private final RegisteredReferenceIndex index;
+
+    private final Map<Occurrence, Integer> occurrences = new HashMap<>();
+
+    ImportOccurrences(RegisteredReferenceIndex index) {
+        this.index = index;
+    }
+
+    /**
+     * HOLD operations are never skipped, they are matched by the accounting service.
+     *
+     * @param operation next operation of the report
+     * @return true if the operation is already registered as many times as it occurred in the report
+     */
+    boolean isRegistered(OperationRegistration operation) {
+        if (operation.isHold() || index == RegisteredReferenceIndex.NONE) {
+            return false;
+        }
+        final long identity = RegisteredReferenceIndex.identity(operation);
+        final int occurrence = count(operation.account().value(), identity);
+        return index.count(operation.account().value(), identity) >= occurrence;
+    }
+
+    /**
+     * Counts an operation of the report that is read before the checkpoint.
+     *
+     * @param operation operation of the report
+     */
+    void occurred(OperationRegistration operation) {
+        if (!operation.isHold() && index != RegisteredReferenceIndex.NONE) {
+            count(operation.account().value(), RegisteredReferenceIndex.identity(operation));
+        }
+    }
+
+    private int count(String accountNumber, long identity) {
+        return occurrences.merge(new Occurrence(accountNumber, identity), 1, Integer::sum);
+    }
+
+    private record Occurrence(String accountNumber, long identity) {
+    }
+}
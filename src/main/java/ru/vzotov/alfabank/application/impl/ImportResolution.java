@@ -0,0 +1,54 @@
+package ru.vzotov.alfabank.application.impl;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.vzotov.accounting.application.AccountNotFoundException;
+import ru.vzotov.alfabank.application.AccountLookup;
+import ru.vzotov.banking.domain.model.AccountNumber;
+
+import java.util.Currency;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Accounts and currencies of a single import.
+ * <p>
+ * A report has a few distinct accounts and currencies, so each of them is resolved once per import
+ * instead of once per operation. Instances are not thread-safe, they are used by the thread that reads the report.
+ */
+final class ImportResolution {
+
+    private static final Logger log = LoggerFactory.getLogger(ImportResolution.class);
+
+    private final Map<String, AccountNumber> accounts = new HashMap<>();
+
+    private final Map<String, Currency> currencies = new HashMap<>();
+
+    /**
+     * Resolves accounts of the report and checks that they exist.
+     *
+     * @param accountNumbers numbers of accounts that have operations in the report
+     * @param lookup         lookup of existing accounts
+     * @throws AccountNotFoundException if any of the accounts does not exist
+     */
+    void checkAccounts(Set<String> accountNumbers, AccountLookup lookup) throws AccountNotFoundException {
+        for (String value : accountNumbers) {
+            final AccountNumber accountNumber = account(value);
+            if (!lookup.exists(accountNumber)) {
+                log.warn("Account {} is not found", accountNumber);
+                throw new AccountNotFoundException();
+            }
+        }
+    }
+
+    AccountNumber account(String value) {
+        final AccountNumber accountNumber = accounts.get(value);
+        return accountNumber != null ? accountNumber : accounts.computeIfAbsent(value, AccountNumber::new);
+    }
+
+    Currency currency(String code) {
+        final Currency currency = currencies.get(code);
+        return currency != null ? currency : currencies.computeIfAbsent(code, Currency::getInstance);
+    }
+}
@@ -0,0 +1,85 @@
+package ru.vzotov.alfabank.application.impl;
+
+import org.apache.commons.lang3.Validate;
+import ru.vzotov.alfabank.domain.model.PosInfo;
+import ru.vzotov.banking.domain.model.PosTerminal;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Function;
+
+/**
+ * Bounded cache of POS terminals built from POS information of card operations.
+ * <p>
+ * Least recently used terminals are evicted first. POS information that does not make a terminal,
+ * e.g. with an unknown country, is cached as well. The cache is shared by all imports and may be used
+ * from any thread.
+ */
+public class PosTerminalCache {
+
+    private final int maxSize;
+
+    private final Function<PosInfo, PosTerminal> factory;
+
+    private final Map<PosInfo, Optional<PosTerminal>> terminals;
+
+    private long hits;
+
+    private long misses;
+
+    /**
+     * @param maxSize maximum number of cached terminals, 0 disables caching
+     * @param factory builds terminal from POS information, returns null if there is no terminal
+     */
+    public PosTerminalCache(int maxSize, Function<PosInfo, PosTerminal> factory) {
+        Validate.isTrue(maxSize >= 0);
+        Validate.notNull(factory);
+        this.maxSize = maxSize;
+        this.factory = factory;
+        this.terminals = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<PosInfo, Optional<PosTerminal>> eldest) {
+                return size() > PosTerminalCache.this.maxSize;
+            }
+        };
+    }
+
+    /**
+     * @param posInfo POS information
+     * @return terminal or null if there is no terminal for the POS information
+     */
+    public PosTerminal get(PosInfo posInfo) {
+        Validate.notNull(posInfo);
+
+        synchronized (this) {
+            final Optional<PosTerminal> terminal = terminals.get(posInfo);
+            if (terminal != null) {
+                hits++;
+                return terminal.orElse(null);
+            }
+            misses++;
+        }
+
+        // terminals are built outside of the lock, the same terminal may be built twice by concurrent imports
+        final PosTerminal terminal = factory.apply(posInfo);
+        if (maxSize > 0) {
+            synchronized (this) {
+                terminals.put(posInfo, Optional.ofNullable(terminal));
+            }
+        }
+        return terminal;
+    }
+
+    public synchronized long hits() {
+        return hits;
+    }
+
+    public synchronized long misses() {
+        return misses;
+    }
+
+    public synchronized int size() {
+        return terminals.size();
+    }
+}
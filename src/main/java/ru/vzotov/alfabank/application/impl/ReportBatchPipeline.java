@@ -0,0 +1,104 @@
+package ru.vzotov.alfabank.application.impl;
+
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.vzotov.alfabank.application.ReportProcessingSettings.Execution;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads batches on a separate thread, so parsing of the report overlaps with registration of the operations.
+ * <p>
+ * At most {@code depth} batches wait in the queue, the reading thread blocks when the queue is full.
+ * Batches are taken in the order of the report. A failure of reading is rethrown by {@link #next()}.
+ * Closing the pipeline stops the reading thread and waits for it, so the report can be closed afterwards.
+ */
+final class ReportBatchPipeline implements ReportBatches {
+
+    private static final Logger log = LoggerFactory.getLogger(ReportBatchPipeline.class);
+
+    private static final Object END = new Object();
+
+    private final ReportBatchReader reader;
+
+    private final BlockingQueue<Object> queue;
+
+    private final ExecutorService executor;
+
+    private boolean finished;
+
+    /**
+     * @param reader    reader of batches, it is used by the reading thread only
+     * @param depth     number of batches that may wait for registration
+     * @param execution kind of the reading thread
+     */
+    ReportBatchPipeline(ReportBatchReader reader, int depth, Execution execution) {
+        Validate.isTrue(depth > 0);
+        this.reader = reader;
+        this.queue = new ArrayBlockingQueue<>(depth);
+        this.executor = ReportExecutors.newExecutor(execution, 1, "alfabank-report-reader-");
+        this.executor.execute(this::read);
+    }
+
+    private void read() {
+        try {
+            try {
+                Batch batch;
+                while ((batch = reader.next()) != null) {
+                    queue.put(batch);
+                }
+                queue.put(END);
+            } catch (RuntimeException | Error e) {
+                queue.put(new Failure(e));
+            }
+        } catch (InterruptedException e) {
+            // the pipeline is closed
+        }
+    }
+
+    @Override
+    public Batch next() throws InterruptedException {
+        if (finished) {
+            return null;
+        }
+        final Object item = queue.take();
+        if (item instanceof Batch batch) {
+            return batch;
+        }
+        finished = true;
+        if (item instanceof Failure failure) {
+            if (failure.error() instanceof Error error) {
+                throw error;
+            }
+            throw (RuntimeException) failure.error();
+        }
+        return null;
+    }
+
+    /**
+     * Statistics of the reader are safe to use after the last batch is taken.
+     */
+    @Override
+    public ReportBatchReader reader() {
+        return reader;
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+        try {
+            if (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                log.warn("Reader of the report did not stop in time");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private record Failure(Throwable error) {
+    }
+}
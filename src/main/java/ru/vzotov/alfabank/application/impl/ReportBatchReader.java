@@ -0,0 +1,120 @@
+package ru.vzotov.alfabank.application.impl;
+
+import ru.vzotov.alfabank.application.OperationRegistration;
+import ru.vzotov.alfabank.domain.model.AlfabankOperation;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Reads operations of a report and groups them into batches on the calling thread.
+ * Time of reading and parsing of rows and time of their preparation for registration, i.e. conversion
+ * and lookup of registered operations, are measured separately.
+ */
+final class ReportBatchReader implements ReportBatches {
+
+    private final Iterator<AlfabankOperation> operations;
+
+    private final int batchSize;
+
+    private final Predicate<OperationRegistration> registered;
+
+    private final Function<AlfabankOperation, OperationRegistration> converter;
+
+    private long rows;
+
+    private long batchedRows;
+
+    private long skipped;
+
+    private long readNanos;
+
+    private long prepareNanos;
+
+    /**
+     * @param operations operations of the report after the checkpoint
+     * @param checkpoint number of rows read before
+     * @param batchSize  number of operations in a batch
+     * @param registered tells prepared operations that are already registered and must be skipped
+     * @param converter  prepares operations for registration
+     */
+    ReportBatchReader(Iterator<AlfabankOperation> operations, long checkpoint, int batchSize,
+                      Predicate<OperationRegistration> registered,
+                      Function<AlfabankOperation, OperationRegistration> converter) {
+        this.operations = operations;
+        this.rows = checkpoint;
+        this.batchedRows = checkpoint;
+        this.batchSize = batchSize;
+        this.registered = registered;
+        this.converter = converter;
+    }
+
+    @Override
+    public Batch next() {
+        long start = System.nanoTime();
+        try {
+            final List<OperationRegistration> batch = new ArrayList<>(batchSize);
+            while (batch.size() < batchSize && operations.hasNext()) {
+                final AlfabankOperation row = operations.next();
+                final long read = System.nanoTime();
+                readNanos += read - start;
+                final OperationRegistration operation = converter.apply(row);
+                rows++;
+                if (registered.test(operation)) {
+                    skipped++;
+                } else {
+                    batch.add(operation);
+                }
+                start = System.nanoTime();
+                prepareNanos += start - read;
+            }
+            if (rows == batchedRows) {
+                return null;
+            }
+            batchedRows = rows;
+            return new Batch(batch, rows);
+        } finally {
+            readNanos += System.nanoTime() - start;
+        }
+    }
+
+    @Override
+    public ReportBatchReader reader() {
+        return this;
+    }
+
+    /**
+     * @return number of rows read, including the rows before the checkpoint
+     */
+    long rows() {
+        return rows;
+    }
+
+    /**
+     * @return number of rows skipped as already registered
+     */
+    long skipped() {
+        return skipped;
+    }
+
+    /**
+     * @return time of reading and parsing of rows
+     */
+    long readNanos() {
+        return readNanos;
+    }
+
+    /**
+     * @return time of conversion of rows into registrations and of lookup of registered operations
+     */
+    long prepareNanos() {
+        return prepareNanos;
+    }
+
+    @Override
+    public void close() {
+    }
+}
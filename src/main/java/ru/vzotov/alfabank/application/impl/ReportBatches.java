@@ -0,0 +1,33 @@
+package ru.vzotov.alfabank.application.impl;
+
+import ru.vzotov.alfabank.application.OperationRegistration;
+
+import java.io.Closeable;
+import java.util.List;
+
+/**
+ * Source of batches of report operations prepared for registration.
+ */
+interface ReportBatches extends Closeable {
+
+    /**
+     * @return next batch or null if there are no more operations
+     * @throws InterruptedException if the thread is interrupted while it waits for the batch
+     */
+    Batch next() throws InterruptedException;
+
+    /**
+     * Statistics of reading. Complete only when all batches are taken.
+     */
+    ReportBatchReader reader();
+
+    @Override
+    void close();
+
+    /**
+     * @param operations operations to register, may be empty if all operations are already registered
+     * @param rows       number of report rows read up to the end of the batch, including the skipped ones
+     */
+    record Batch(List<OperationRegistration> operations, long rows) {
+    }
+}
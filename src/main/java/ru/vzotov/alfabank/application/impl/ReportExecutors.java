@@ -0,0 +1,92 @@
+package ru.vzotov.alfabank.application.impl;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.vzotov.alfabank.application.ReportProcessingSettings.Execution;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates executors for processing of reports.
+ * <p>
+ * The module is compiled for Java 17, so virtual threads are created through reflection
+ * when the application runs on Java 21 or later.
+ */
+final class ReportExecutors {
+
+    private static final Logger log = LoggerFactory.getLogger(ReportExecutors.class);
+
+    private static final Method OF_VIRTUAL = findMethod(Thread.class, "ofVirtual");
+
+    private static final Class<?> THREAD_BUILDER = findClass("java.lang.Thread$Builder");
+
+    private static final Method BUILDER_NAME = THREAD_BUILDER == null ? null : findMethod(THREAD_BUILDER, "name", String.class, long.class);
+
+    private static final Method BUILDER_FACTORY = THREAD_BUILDER == null ? null : findMethod(THREAD_BUILDER, "factory");
+
+    private static final Method NEW_THREAD_PER_TASK_EXECUTOR = findMethod(Executors.class, "newThreadPerTaskExecutor", ThreadFactory.class);
+
+    private ReportExecutors() {
+    }
+
+    /**
+     * @return true if the runtime supports virtual threads
+     */
+    static boolean isVirtualSupported() {
+        return OF_VIRTUAL != null && BUILDER_NAME != null && BUILDER_FACTORY != null && NEW_THREAD_PER_TASK_EXECUTOR != null;
+    }
+
+    /**
+     * Creates executor. Executors of virtual threads start a new thread for every task,
+     * so the number of concurrent tasks must be limited by the caller.
+     *
+     * @param execution kind of threads
+     * @param threads   number of platform threads
+     * @param name      prefix of thread names
+     * @return executor that must be shut down by the caller
+     */
+    static ExecutorService newExecutor(Execution execution, int threads, String name) {
+        if (Execution.VIRTUAL.equals(execution)) {
+            final ExecutorService executor = newVirtualExecutor(name);
+            if (executor != null) {
+                return executor;
+            }
+        }
+        final AtomicInteger threadNumber = new AtomicInteger();
+        return Executors.newFixedThreadPool(threads, runnable -> new Thread(runnable, name + threadNumber.incrementAndGet()));
+    }
+
+    private static ExecutorService newVirtualExecutor(String name) {
+        if (!isVirtualSupported()) {
+            log.warn("Virtual threads are not supported by Java {}, platform threads are used", Runtime.version().feature());
+            return null;
+        }
+        try {
+            final Object builder = BUILDER_NAME.invoke(OF_VIRTUAL.invoke(null), name, 1L);
+            return (ExecutorService) NEW_THREAD_PER_TASK_EXECUTOR.invoke(null, BUILDER_FACTORY.invoke(builder));
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            log.warn("Unable to create virtual threads, platform threads are used", e);
+            return null;
+        }
+    }
+
+    private static Class<?> findClass(String name) {
+        try {
+            return Class.forName(name);
+        } catch (ClassNotFoundException e) {
+            return null;
+        }
+    }
+
+    private static Method findMethod(Class<?> type, String name, Class<?>... parameterTypes) {
+        try {
+            return type.getMethod(name, parameterTypes);
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+}
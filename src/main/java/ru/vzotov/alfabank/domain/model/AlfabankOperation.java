@@ -14,10 +14,13 @@ public record AlfabankOperation(
         LocalDate date,
         TransactionId transactionId,
         String description,
-        Double deposit,
-        Double withdraw,
+        long depositMinor,
+        long withdrawMinor,
         CardOperation cardOperation) implements ValueObject<AlfabankOperation>, AccountReportOperation {
 
+    /**
+     * Creates operation with amounts in minor units of the currency of the account, see {@link MinorUnits}.
+     */
     public AlfabankOperation {
         Validate.notNull(accountType);
         Validate.notNull(accountNumber);
@@ -25,11 +28,34 @@ public record AlfabankOperation(
         Validate.notNull(date);
         Validate.notNull(transactionId);
         Validate.notNull(description);
-        Validate.notNull(deposit);
-        Validate.notNull(withdraw);
 
     }
 
+    /**
+     * Creates operation with amounts in units of the currency of the account, they are rounded to minor units.
+     */
+    public AlfabankOperation(String accountType, String accountNumber, String currencyCode, LocalDate date,
+                             TransactionId transactionId, String description, Double deposit, Double withdraw,
+                             CardOperation cardOperation) {
+        this(accountType, accountNumber, currencyCode, date, transactionId, description,
+                MinorUnits.of(Validate.notNull(deposit), MinorUnits.fractionDigits(currencyCode)),
+                MinorUnits.of(Validate.notNull(withdraw), MinorUnits.fractionDigits(currencyCode)), cardOperation);
+    }
+
+    /**
+     * @return deposit in units of the currency of the account
+     */
+    public Double deposit() {
+        return MinorUnits.toUnits(depositMinor, MinorUnits.fractionDigits(currencyCode));
+    }
+
+    /**
+     * @return withdrawal in units of the currency of the account
+     */
+    public Double withdraw() {
+        return MinorUnits.toUnits(withdrawMinor, MinorUnits.fractionDigits(currencyCode));
+    }
+
     @Override
     public boolean sameValueAs(AlfabankOperation that) {
         return that != null && Objects.equals(accountType, that.accountType) &&
@@ -38,8 +64,8 @@ public record AlfabankOperation(
                 Objects.equals(date, that.date) &&
                 Objects.equals(transactionId, that.transactionId) &&
                 Objects.equals(description, that.description) &&
-                Objects.equals(deposit, that.deposit) &&
-                Objects.equals(withdraw, that.withdraw) &&
+                depositMinor == that.depositMinor &&
+                withdrawMinor == that.withdrawMinor &&
                 Objects.equals(cardOperation, that.cardOperation);
     }
 
@@ -0,0 +1,416 @@
+package ru.vzotov.alfabank.domain.model;
+
+import org.apache.commons.lang3.Validate;
+
+import java.time.LocalDate;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Operations of a report stored by columns.
+ * <p>
+ * Amounts are stored in minor units, dates as epoch days, and strings that repeat from row to row,
+ * like account numbers, currencies and POS information, are stored once in the dictionary of the batch.
+ * References and descriptions are stored as they are. Values of a row are read by its index,
+ * and {@link AlfabankOperation} of a row is created only when it is requested.
+ * <p>
+ * Batches are immutable, they are filled by the {@link Builder}.
+ */
+public final class AlfabankOperationBatch {
+
+    private static final int NULL = -1;
+
+    private static final int NO_DATE = Integer.MIN_VALUE;
+
+    private static final byte CARD = 1;
+    private static final byte POS = 2;
+
+    private static final int ACCOUNT_TYPE = 0;
+    private static final int ACCOUNT_NUMBER = 1;
+    private static final int CURRENCY_CODE = 2;
+    private static final int CARD_NUMBER = 3;
+    private static final int TERMINAL_ID = 4;
+    private static final int COUNTRY = 5;
+    private static final int CITY = 6;
+    private static final int STREET = 7;
+    private static final int MERCHANT = 8;
+    private static final int CARD_CURRENCY = 9;
+    private static final int EXTRA_INFO = 10;
+    private static final int MCC = 11;
+    private static final int STRING_COLUMNS = 12;
+
+    private final int size;
+
+    private final String[] dictionary;
+
+    /**
+     * Dictionary indexes of the string columns
+     */
+    private final int[][] strings;
+
+    private final int[] dates;
+
+    private final String[] references;
+
+    private final String[] descriptions;
+
+    private final long[] deposits;
+
+    private final long[] withdraws;
+
+    private final byte[] flags;
+
+    private final int[] authDates;
+
+    private final int[] purchaseDates;
+
+    private final long[] cardAmounts;
+
+    private AlfabankOperationBatch(Builder builder) {
+        this.size = builder.size;
+        this.dictionary = builder.dictionary.toArray(String[]::new);
+        this.strings = new int[STRING_COLUMNS][];
+        for (int i = 0; i < STRING_COLUMNS; i++) {
+            this.strings[i] = Arrays.copyOf(builder.strings[i], size);
+        }
+        this.dates = Arrays.copyOf(builder.dates, size);
+        this.references = Arrays.copyOf(builder.references, size);
+        this.descriptions = Arrays.copyOf(builder.descriptions, size);
+        this.deposits = Arrays.copyOf(builder.deposits, size);
+        this.withdraws = Arrays.copyOf(builder.withdraws, size);
+        this.flags = Arrays.copyOf(builder.flags, size);
+        this.authDates = Arrays.copyOf(builder.authDates, size);
+        this.purchaseDates = Arrays.copyOf(builder.purchaseDates, size);
+        this.cardAmounts = Arrays.copyOf(builder.cardAmounts, size);
+    }
+
+    /**
+     * Groups operations into batches.
+     *
+     * @param operations operations
+     * @param batchSize  maximum number of operations in a batch
+     * @return lazy stream of batches, it closes the stream of operations when it is closed
+     */
+    public static Stream<AlfabankOperationBatch> batches(Stream<AlfabankOperation> operations, int batchSize) {
+        Validate.isTrue(batchSize > 0);
+        final Iterator<AlfabankOperation> it = operations.iterator();
+        final Spliterator<AlfabankOperationBatch> spliterator = new Spliterators.AbstractSpliterator<>(Long.MAX_VALUE,
+                Spliterator.ORDERED | Spliterator.NONNULL) {
+            @Override
+            public boolean tryAdvance(Consumer<? super AlfabankOperationBatch> action) {
+                if (!it.hasNext()) {
+                    return false;
+                }
+                final Builder builder = new Builder(batchSize);
+                while (builder.size() < batchSize && it.hasNext()) {
+                    builder.add(it.next());
+                }
+                action.accept(builder.build());
+                return true;
+            }
+        };
+        return StreamSupport.stream(spliterator, false).onClose(operations::close);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public String accountType(int row) {
+        return string(ACCOUNT_TYPE, row);
+    }
+
+    public String accountNumber(int row) {
+        return string(ACCOUNT_NUMBER, row);
+    }
+
+    public String currencyCode(int row) {
+        return string(CURRENCY_CODE, row);
+    }
+
+    public int epochDay(int row) {
+        return dates[checkRow(row)];
+    }
+
+    public LocalDate date(int row) {
+        return LocalDate.ofEpochDay(epochDay(row));
+    }
+
+    public String reference(int row) {
+        return references[checkRow(row)];
+    }
+
+    public String description(int row) {
+        return descriptions[checkRow(row)];
+    }
+
+    /**
+     * @return deposit in minor units
+     */
+    public long deposit(int row) {
+        return deposits[checkRow(row)];
+    }
+
+    /**
+     * @return withdrawal in minor units
+     */
+    public long withdraw(int row) {
+        return withdraws[checkRow(row)];
+    }
+
+    public boolean hasCardOperation(int row) {
+        return (flags[checkRow(row)] & CARD) != 0;
+    }
+
+    /**
+     * @return card operation of the row or null if the row is not a card operation
+     */
+    public CardOperation cardOperation(int row) {
+        if (!hasCardOperation(row)) {
+            return null;
+        }
+        final PosInfo posInfo = (flags[row] & POS) == 0 ? null : new PosInfo(
+                string(TERMINAL_ID, row),
+                string(COUNTRY, row),
+                string(CITY, row),
+                string(STREET, row),
+                string(MERCHANT, row));
+        return new CardOperation(
+                string(CARD_NUMBER, row),
+                posInfo,
+                toDate(authDates[row]),
+                toDate(purchaseDates[row]),
+                cardAmounts[row],
+                string(CARD_CURRENCY, row),
+                string(EXTRA_INFO, row),
+                string(MCC, row));
+    }
+
+    /**
+     * Creates operation of the row.
+     *
+     * @param row index of the row
+     * @return new operation
+     */
+    public AlfabankOperation get(int row) {
+        return new AlfabankOperation(
+                accountType(row),
+                accountNumber(row),
+                currencyCode(row),
+                date(row),
+                new TransactionId(reference(row)),
+                description(row),
+                deposit(row),
+                withdraw(row),
+                cardOperation(row));
+    }
+
+    /**
+     * @return list view of the operations, every access to an element creates the operation
+     */
+    public List<AlfabankOperation> operations() {
+        return new Operations();
+    }
+
+    public Stream<AlfabankOperation> stream() {
+        return operations().stream();
+    }
+
+    private String string(int column, int row) {
+        final int index = strings[column][checkRow(row)];
+        return index == NULL ? null : dictionary[index];
+    }
+
+    private int checkRow(int row) {
+        if (row < 0 || row >= size) {
+            throw new IndexOutOfBoundsException("Index " + row + " out of bounds for length " + size);
+        }
+        return row;
+    }
+
+    private static LocalDate toDate(int epochDay) {
+        return epochDay == NO_DATE ? null : LocalDate.ofEpochDay(epochDay);
+    }
+
+    private class Operations extends AbstractList<AlfabankOperation> implements RandomAccess {
+        @Override
+        public AlfabankOperation get(int index) {
+            return AlfabankOperationBatch.this.get(index);
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+
+    /**
+     * Fills a batch row by row. The builder is not thread-safe.
+     */
+    public static final class Builder {
+
+        private final List<String> dictionary = new ArrayList<>();
+
+        private final Map<String, Integer> dictionaryIndex = new HashMap<>();
+
+        private int size;
+
+        private final int[][] strings = new int[STRING_COLUMNS][];
+
+        private int[] dates;
+
+        private String[] references;
+
+        private String[] descriptions;
+
+        private long[] deposits;
+
+        private long[] withdraws;
+
+        private byte[] flags;
+
+        private int[] authDates;
+
+        private int[] purchaseDates;
+
+        private long[] cardAmounts;
+
+        public Builder() {
+            this(64);
+        }
+
+        /**
+         * @param capacity expected number of rows
+         */
+        public Builder(int capacity) {
+            Validate.isTrue(capacity > 0);
+            for (int i = 0; i < STRING_COLUMNS; i++) {
+                strings[i] = new int[capacity];
+            }
+            dates = new int[capacity];
+            references = new String[capacity];
+            descriptions = new String[capacity];
+            deposits = new long[capacity];
+            withdraws = new long[capacity];
+            flags = new byte[capacity];
+            authDates = new int[capacity];
+            purchaseDates = new int[capacity];
+            cardAmounts = new long[capacity];
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public Builder add(AlfabankOperation operation) {
+            Validate.notNull(operation);
+            return add(operation.accountType(), operation.accountNumber(), operation.currencyCode(),
+                    operation.date().toEpochDay(), operation.transactionId().reference(), operation.description(),
+                    operation.depositMinor(), operation.withdrawMinor(), operation.cardOperation());
+        }
+
+        /**
+         * Adds row.
+         *
+         * @param accountType   type of account
+         * @param accountNumber number of account
+         * @param currencyCode  currency of account
+         * @param epochDay      date of operation as epoch day
+         * @param reference     reference of transaction
+         * @param description   description of operation
+         * @param deposit       deposit in minor units
+         * @param withdraw      withdrawal in minor units
+         * @param cardOperation card operation or null if the operation is not a card operation
+         * @return this builder
+         */
+        public Builder add(String accountType, String accountNumber, String currencyCode, long epochDay,
+                           String reference, String description, long deposit, long withdraw,
+                           CardOperation cardOperation) {
+            Validate.notNull(accountType);
+            Validate.notNull(accountNumber);
+            Validate.notNull(currencyCode);
+            Validate.isTrue(epochDay > NO_DATE && epochDay <= Integer.MAX_VALUE, "Invalid date: %d", epochDay);
+            Validate.notNull(reference);
+            Validate.notNull(description);
+            if (size == dates.length) {
+                grow();
+            }
+
+            final int row = size;
+            strings[ACCOUNT_TYPE][row] = index(accountType);
+            strings[ACCOUNT_NUMBER][row] = index(accountNumber);
+            strings[CURRENCY_CODE][row] = index(currencyCode);
+            dates[row] = (int) epochDay;
+            references[row] = reference;
+            descriptions[row] = description;
+            deposits[row] = deposit;
+            withdraws[row] = withdraw;
+
+            final PosInfo posInfo = cardOperation == null ? null : cardOperation.posInfo();
+            flags[row] = (byte) ((cardOperation == null ? 0 : CARD) | (posInfo == null ? 0 : POS));
+            strings[CARD_NUMBER][row] = cardOperation == null ? NULL : index(cardOperation.cardNumber());
+            strings[TERMINAL_ID][row] = posInfo == null ? NULL : index(posInfo.terminalId());
+            strings[COUNTRY][row] = posInfo == null ? NULL : index(posInfo.country());
+            strings[CITY][row] = posInfo == null ? NULL : index(posInfo.city());
+            strings[STREET][row] = posInfo == null ? NULL : index(posInfo.street());
+            strings[MERCHANT][row] = posInfo == null ? NULL : index(posInfo.merchant());
+            authDates[row] = cardOperation == null ? NO_DATE : epochDay(cardOperation.authDate());
+            purchaseDates[row] = cardOperation == null ? NO_DATE : epochDay(cardOperation.purchaseDate());
+            cardAmounts[row] = cardOperation == null ? 0 : cardOperation.amountMinor();
+            strings[CARD_CURRENCY][row] = cardOperation == null ? NULL : index(cardOperation.currency());
+            strings[EXTRA_INFO][row] = cardOperation == null ? NULL : index(cardOperation.extraInfo());
+            strings[MCC][row] = cardOperation == null ? NULL : index(cardOperation.mcc());
+
+            size++;
+            return this;
+        }
+
+        public AlfabankOperationBatch build() {
+            return new AlfabankOperationBatch(this);
+        }
+
+        private int index(String value) {
+            if (value == null) {
+                return NULL;
+            }
+            Integer index = dictionaryIndex.get(value);
+            if (index == null) {
+                index = dictionary.size();
+                dictionary.add(value);
+                dictionaryIndex.put(value, index);
+            }
+            return index;
+        }
+
+        private static int epochDay(LocalDate date) {
+            return date == null ? NO_DATE : (int) date.toEpochDay();
+        }
+
+        private void grow() {
+            final int capacity = dates.length * 2;
+            for (int i = 0; i < STRING_COLUMNS; i++) {
+                strings[i] = Arrays.copyOf(strings[i], capacity);
+            }
+            dates = Arrays.copyOf(dates, capacity);
+            references = Arrays.copyOf(references, capacity);
+            descriptions = Arrays.copyOf(descriptions, capacity);
+            deposits = Arrays.copyOf(deposits, capacity);
+            withdraws = Arrays.copyOf(withdraws, capacity);
+            flags = Arrays.copyOf(flags, capacity);
+            authDates = Arrays.copyOf(authDates, capacity);
+            purchaseDates = Arrays.copyOf(purchaseDates, capacity);
+            cardAmounts = Arrays.copyOf(cardAmounts, capacity);
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package ru.vzotov.alfabank.domain.model;
+
+import ru.vzotov.accounting.domain.model.AccountReportId;
+import ru.vzotov.accounting.domain.model.AccountReportRepository;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.LocalDate;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+public interface AlfabankReportRepository extends AccountReportRepository<AlfabankOperation> {
+
+    /**
+     * Opens a lazy stream of report operations.
+     * Operations are read from the report one by one, so the whole report is never held in memory.
+     * The stream keeps the report open and must be closed by the caller.
+     *
+     * @param reportId report identifier
+     * @return stream of operations in report order
+     */
+    Stream<AlfabankOperation> stream(AccountReportId reportId);
+
+    /**
+     * Opens a lazy stream of report operations that starts after the given number of operations.
+     * The stream keeps the report open and must be closed by the caller.
+     *
+     * @param reportId report identifier
+     * @param skip     number of operations to skip
+     * @return stream of the remaining operations in report order
+     */
+    default Stream<AlfabankOperation> stream(AccountReportId reportId, long skip) {
+        return stream(reportId).skip(skip);
+    }
+
+    /**
+     * Opens a lazy stream of report operations grouped into columnar batches.
+     * The stream keeps the report open and must be closed by the caller.
+     *
+     * @param reportId  report identifier
+     * @param skip      number of operations to skip
+     * @param batchSize maximum number of operations in a batch
+     * @return stream of batches of the remaining operations in report order
+     */
+    default Stream<AlfabankOperationBatch> batches(AccountReportId reportId, long skip, int batchSize) {
+        return AlfabankOperationBatch.batches(stream(reportId, skip), batchSize);
+    }
+
+    /**
+     * Reads the whole report and checks every operation without registering any of them.
+     * Validation stops at the first row that can not be read. Accounts of the operations are collected on the way.
+     *
+     * @param reportId report identifier
+     * @param rules    checks operation, returns description of the error or null if the operation is valid
+     * @return rows of the report and errors of invalid rows
+     */
+    default ReportValidation validate(AccountReportId reportId, Function<AlfabankOperation, String> rules) {
+        final ReportValidation.Builder validation = new ReportValidation.Builder(reportId);
+        try (Stream<AlfabankOperation> operations = stream(reportId)) {
+            final Iterator<AlfabankOperation> it = operations.iterator();
+            while (true) {
+                final AlfabankOperation operation;
+                try {
+                    if (!it.hasNext()) {
+                        break;
+                    }
+                    operation = it.next();
+                } catch (RuntimeException e) {
+                    validation.row();
+                    validation.invalid(ReportValidation.describe(e));
+                    break;
+                }
+                validation.row();
+                validation.account(operation.accountNumber());
+                final String error = rules.apply(operation);
+                if (error != null) {
+                    validation.invalid(error);
+                }
+            }
+        }
+        return validation.build();
+    }
+
+    /**
+     * Moves invalid report away from the reports, so it is not processed again, and keeps its errors.
+     *
+     * @param reportId   report identifier
+     * @param validation validation of the report
+     * @return false if the repository does not quarantine reports and the report is left as it is
+     */
+    default boolean quarantine(AccountReportId reportId, ReportValidation validation) {
+        return false;
+    }
+
+    /**
+     * Finds the number of operations of the report that are already registered.
+     *
+     * @param reportId report identifier
+     * @return number of registered operations, 0 if the report has no checkpoint
+     */
+    long findCheckpoint(AccountReportId reportId);
+
+    /**
+     * Saves the number of operations of the report that are already registered,
+     * so processing of the report continues from this point if it is interrupted.
+     * The checkpoint is removed when the report is marked as processed.
+     *
+     * @param reportId report identifier
+     * @param rows     number of registered operations
+     */
+    void saveCheckpoint(AccountReportId reportId, long rows);
+
+    /**
+     * Finds unprocessed report by the name of its file.
+     *
+     * @param name name of the report
+     * @return report identifier or null if there is no such unprocessed report
+     */
+    AccountReportId findUnprocessed(String name);
+
+    /**
+     * Stores the report and summarizes its content.
+     * Repositories that detect reports with the same content do not store them again.
+     *
+     * @param name    name of the report
+     * @param content content of the report
+     * @return stored report and its summary
+     * @throws IOException if the report can not be stored
+     */
+    default ReportUpload upload(String name, InputStream content) throws IOException {
+        final AccountReportId reportId = save(name, content);
+        long rows = 0;
+        LocalDate firstDate = null;
+        LocalDate lastDate = null;
+        try (Stream<AlfabankOperation> operations = stream(reportId)) {
+            for (Iterator<AlfabankOperation> it = operations.iterator(); it.hasNext(); rows++) {
+                final LocalDate date = it.next().date();
+                firstDate = firstDate == null || date.isBefore(firstDate) ? date : firstDate;
+                lastDate = lastDate == null || date.isAfter(lastDate) ? date : lastDate;
+            }
+        }
+        return new ReportUpload(reportId, null, rows, firstDate, lastDate, false);
+    }
+
+    /**
+     * Finds numbers of accounts that have operations in the report.
+     *
+     * @param reportId report identifier
+     * @return account numbers
+     */
+    default Set<String> findAccountNumbers(AccountReportId reportId) {
+        try (Stream<AlfabankOperation> operations = stream(reportId)) {
+            return operations.map(AlfabankOperation::accountNumber).collect(Collectors.toSet());
+        }
+    }
+
+}
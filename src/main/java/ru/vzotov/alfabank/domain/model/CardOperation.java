@@ -1,28 +1,49 @@
 package ru.vzotov.alfabank.domain.model;
 
-import org.apache.commons.math3.util.Precision;
+import org.apache.commons.lang3.Validate;
 import ru.vzotov.ddd.shared.ValueObject;
 
 import java.time.LocalDate;
 import java.util.Objects;
 
+/**
+ * Details of a card operation from the description of a report row.
+ *
+ * @param amountMinor amount in minor units of the currency of the card operation, see {@link MinorUnits}
+ */
 public record CardOperation(
         String cardNumber,
         PosInfo posInfo,
         LocalDate authDate,
         LocalDate purchaseDate,
-        Double amount,
+        long amountMinor,
         String currency,
         String extraInfo,
         String mcc) implements ValueObject<CardOperation> {
 
+    /**
+     * Creates card operation with amount in units of its currency, the amount is rounded to minor units.
+     */
+    public CardOperation(String cardNumber, PosInfo posInfo, LocalDate authDate, LocalDate purchaseDate, Double amount,
+                         String currency, String extraInfo, String mcc) {
+        this(cardNumber, posInfo, authDate, purchaseDate,
+                MinorUnits.of(Validate.notNull(amount), MinorUnits.fractionDigits(currency)), currency, extraInfo, mcc);
+    }
+
+    /**
+     * @return amount in units of the currency of the card operation
+     */
+    public Double amount() {
+        return MinorUnits.toUnits(amountMinor, MinorUnits.fractionDigits(currency));
+    }
+
     @Override
     public boolean sameValueAs(CardOperation that) {
         return that != null && Objects.equals(cardNumber, that.cardNumber) &&
                 Objects.equals(posInfo, that.posInfo) &&
                 Objects.equals(authDate, that.authDate) &&
                 Objects.equals(purchaseDate, that.purchaseDate) &&
-                Precision.equals(amount, that.amount, 0.0001d) &&
+                amountMinor == that.amountMinor &&
                 Objects.equals(currency, that.currency) &&
                 Objects.equals(extraInfo, that.extraInfo) &&
                 Objects.equals(mcc, that.mcc);
@@ -0,0 +1,73 @@
+package ru.vzotov.alfabank.domain.model;
+
+import ru.vzotov.domain.model.Money;
+
+import java.util.Currency;
+
+/**
+ * Conversions of amounts in minor units of currency, e.g. kopecks, cents or fils.
+ * <p>
+ * The number of minor units in a unit is given by the default fraction digits of the currency,
+ * i.e. amounts in yen are whole yens and amounts in Kuwaiti dinars are thousandths of a dinar.
+ * Amounts in unknown currencies and in currencies without minor units, like gold, are kept in hundredths.
+ */
+public final class MinorUnits {
+
+    /**
+     * Fraction digits of currencies that are not known
+     */
+    public static final int DEFAULT_FRACTION_DIGITS = 2;
+
+    private static final long[] POWERS_OF_TEN = {1, 10, 100, 1000, 10000, 100000, 1000000};
+
+    private static final Currency RUR = Currency.getInstance("RUR");
+
+    private MinorUnits() {
+    }
+
+    /**
+     * @param currencyCode ISO 4217 code of the currency
+     * @return number of fractional digits of amounts in the currency
+     */
+    public static int fractionDigits(String currencyCode) {
+        if (currencyCode == null) {
+            return DEFAULT_FRACTION_DIGITS;
+        }
+        try {
+            return fractionDigits(Currency.getInstance(currencyCode));
+        } catch (IllegalArgumentException e) {
+            return DEFAULT_FRACTION_DIGITS;
+        }
+    }
+
+    public static int fractionDigits(Currency currency) {
+        final int digits = currency.getDefaultFractionDigits();
+        return digits < 0 || digits >= POWERS_OF_TEN.length ? DEFAULT_FRACTION_DIGITS : digits;
+    }
+
+    /**
+     * Converts amount in units of currency to minor units, the amount is rounded to the nearest minor unit.
+     */
+    public static long of(double units, int fractionDigits) {
+        return Math.round(units * POWERS_OF_TEN[fractionDigits]);
+    }
+
+    /**
+     * Converts amount in minor units to units of currency.
+     * The result is the closest double to the amount, so it is converted back to the same minor units.
+     */
+    public static double toUnits(long minor, int fractionDigits) {
+        return (double) minor / POWERS_OF_TEN[fractionDigits];
+    }
+
+    /**
+     * Converts amount in minor units of the currency to money. Amounts in roubles are passed as kopecks,
+     * amounts in other currencies are converted to units of currency first, so money keeps its own precision.
+     */
+    public static Money toMoney(long minor, Currency currency) {
+        if (RUR.equals(currency)) {
+            return Money.kopecks(minor);
+        }
+        return new Money(toUnits(minor, fractionDigits(currency)), currency);
+    }
+}
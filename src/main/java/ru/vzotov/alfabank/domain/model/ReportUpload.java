@@ -0,0 +1,30 @@
+package ru.vzotov.alfabank.domain.model;
+
+import org.apache.commons.lang3.Validate;
+import ru.vzotov.accounting.domain.model.AccountReportId;
+
+import java.time.LocalDate;
+
+/**
+ * Result of uploading a report.
+ *
+ * @param reportId    identifier of the stored report, or of the report that already has the same content
+ * @param contentHash SHA-256 of the content of the report in hex, null if the repository does not hash reports
+ * @param rows        number of operations in the report
+ * @param firstDate   date of the earliest operation, null if the report has no operations
+ * @param lastDate    date of the latest operation, null if the report has no operations
+ * @param duplicate   true if the content is already stored under another name and the upload is skipped
+ */
+public record ReportUpload(
+        AccountReportId reportId,
+        String contentHash,
+        long rows,
+        LocalDate firstDate,
+        LocalDate lastDate,
+        boolean duplicate) {
+
+    public ReportUpload {
+        Validate.notNull(reportId);
+        Validate.isTrue(rows >= 0);
+    }
+}
@@ -0,0 +1,127 @@
+package ru.vzotov.alfabank.domain.model;
+
+import org.apache.commons.lang3.Validate;
+import ru.vzotov.accounting.domain.model.AccountReportId;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Result of validation of a report.
+ *
+ * @param reportId    report identifier
+ * @param rows        number of rows of the report
+ * @param invalidRows number of rows that can not be registered
+ * @param errors      errors of the first {@value #MAX_ERRORS} invalid rows
+ * @param accounts    numbers of accounts of the rows that are read, so the report is not read again to find them
+ */
+public record ReportValidation(AccountReportId reportId, long rows, long invalidRows, List<RowError> errors,
+                               Set<String> accounts) {
+
+    /**
+     * Maximum number of errors kept by the validation
+     */
+    public static final int MAX_ERRORS = 100;
+
+    public ReportValidation {
+        Validate.notNull(reportId);
+        Validate.isTrue(rows >= 0 && invalidRows >= 0);
+        errors = List.copyOf(errors);
+        accounts = Set.copyOf(accounts);
+    }
+
+    public boolean valid() {
+        return invalidRows == 0;
+    }
+
+    /**
+     * @return message of the error or its type if it has no message
+     */
+    public static String describe(Throwable error) {
+        return error.getMessage() != null ? error.getMessage() : error.getClass().getSimpleName();
+    }
+
+    /**
+     * Error of a row of the report.
+     *
+     * @param row     number of the row, starting from 1, or 0 if the header of the report is invalid
+     * @param line    number of the line of the report, starting from 1, or null if it is not known
+     * @param message description of the error
+     */
+    public record RowError(long row, Long line, String message) {
+
+        @Override
+        public String toString() {
+            return (line != null ? "line " + line : "row " + row) + ": " + message;
+        }
+    }
+
+    /**
+     * Collects errors of rows while a report is read. The builder is not thread-safe.
+     */
+    public static final class Builder {
+
+        private final AccountReportId reportId;
+
+        private final List<RowError> errors = new ArrayList<>();
+
+        private final Set<String> accounts = new HashSet<>();
+
+        private long rows;
+
+        private long invalidRows;
+
+        public Builder(AccountReportId reportId) {
+            this.reportId = reportId;
+        }
+
+        /**
+         * Counts the next row.
+         *
+         * @return number of the row, starting from 1
+         */
+        public long row() {
+            return ++rows;
+        }
+
+        /**
+         * Adds error of the last counted row.
+         *
+         * @param line    number of the line of the row
+         * @param message description of the error
+         */
+        public void invalid(long line, String message) {
+            Validate.isTrue(line > 0, "Invalid line number: %d", line);
+            add(new RowError(rows, line, message));
+        }
+
+        /**
+         * Adds error of the last counted row when the line of the row is not known, e.g. the report is not read from a file.
+         *
+         * @param message description of the error
+         */
+        public void invalid(String message) {
+            add(new RowError(rows, null, message));
+        }
+
+        private void add(RowError error) {
+            invalidRows++;
+            if (errors.size() < MAX_ERRORS) {
+                errors.add(error);
+            }
+        }
+
+        /**
+         * Adds account of the last counted row.
+         */
+        public void account(String accountNumber) {
+            accounts.add(accountNumber);
+        }
+
+        public ReportValidation build() {
+            return new ReportValidation(reportId, rows, invalidRows, errors, accounts);
+        }
+    }
+}
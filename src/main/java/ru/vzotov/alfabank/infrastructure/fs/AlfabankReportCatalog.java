@@ -0,0 +1,377 @@
+package ru.vzotov.alfabank.infrastructure.fs;
+
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.vzotov.accounting.domain.model.AccountReportId;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Function;
+
+/**
+ * Catalog of reports in the directory of reports.
+ * <p>
+ * The catalog keeps identifiers of all reports in memory, so reports are not listed and their attributes
+ * are not read on every search. The directory is listed again only when its modification time changes,
+ * and attributes are read only for the files that are not in the catalog yet.
+ * <p>
+ * Reports that are added, renamed or removed by the repository itself are recorded with {@link #change(Change)},
+ * which also takes the new modification time of the directory, so changes of the repository do not cause a scan.
+ * A file written by another process within the same tick of the file system clock as a change of the repository
+ * is found by the next scan of the directory or when it is searched by its name.
+ * <p>
+ * Changes of the catalog are appended to the index file in the state directory of the repository,
+ * so the catalog survives restarts without reading attributes of the whole archive.
+ * Scans that find no changes are not recorded. The index is compacted when it is loaded
+ * and when it grows much larger than the catalog. If the index can not be written the catalog works in memory only.
+ * Several catalogs must not share the same index file.
+ */
+final class AlfabankReportCatalog {
+
+    private static final Logger log = LoggerFactory.getLogger(AlfabankReportCatalog.class);
+
+    static final String INDEX_NAME = "reports.idx";
+
+    /**
+     * Name of the index in the directory of reports before it was moved to the state directory
+     */
+    private static final String LEGACY_INDEX_NAME = ".alfabank-reports.idx";
+
+    private static final String INDEX_HEADER = "alfabank-reports 1";
+
+    private static final char ADDED = '+';
+    private static final char REMOVED = '-';
+    private static final char SCANNED = '@';
+    private static final char SEPARATOR = '\t';
+
+    /**
+     * Modification times that are this close to the time of the scan are not trusted,
+     * because a file may be added later within the same tick of the file system clock.
+     */
+    private static final long TIMESTAMP_GRANULARITY = 2000;
+
+    private final File directory;
+
+    private final Path index;
+
+    private final Function<File, AccountReportId> mapper;
+
+    private final Map<String, AccountReportId> reports = new TreeMap<>();
+
+    private final Map<String, AccountReportId> unprocessed = new TreeMap<>();
+
+    private long directoryModified = -1;
+
+    private long scannedAt;
+
+    /**
+     * Modification time of the directory after the last change of the repository, it is trusted without a scan
+     */
+    private long changedModified = -1;
+
+    private int indexRecords;
+
+    private boolean persistent;
+
+    /**
+     * @param directory  directory of reports
+     * @param mapper     reads identifier of the report from its file
+     * @param persistent whether the catalog is stored in the index file
+     */
+    AlfabankReportCatalog(File directory, Function<File, AccountReportId> mapper, boolean persistent) {
+        Validate.notNull(directory);
+        Validate.notNull(mapper);
+        this.directory = directory;
+        this.index = AlfabankReportRepositoryFiles.stateDirectory(directory).toPath().resolve(INDEX_NAME);
+        this.mapper = mapper;
+        this.persistent = persistent;
+        if (persistent) {
+            moveLegacyIndex();
+            load();
+        }
+    }
+
+    synchronized List<AccountReportId> findAll() {
+        refresh();
+        return reports.values().stream()
+                .filter(id -> AlfabankReportRepositoryFiles.isReportName(id.name()))
+                .toList();
+    }
+
+    synchronized List<AccountReportId> findUnprocessed() {
+        refresh();
+        return new ArrayList<>(unprocessed.values());
+    }
+
+    /**
+     * A report that is not in the catalog is looked for in the directory, so a report that was written
+     * in the same tick of the file system clock as a change of the repository is not missed.
+     */
+    synchronized AccountReportId findUnprocessed(String name) {
+        refresh();
+        final AccountReportId reportId = unprocessed.get(name);
+        if (reportId != null || reports.containsKey(name) || !AlfabankReportRepositoryFiles.isUnprocessedReportName(name)) {
+            return reportId;
+        }
+        final File file = new File(directory, name);
+        if (!file.isFile()) {
+            return null;
+        }
+        try {
+            added(mapper.apply(file));
+        } catch (IllegalArgumentException e) {
+            log.debug("Report {} disappeared during search", name, e);
+        }
+        return unprocessed.get(name);
+    }
+
+    /**
+     * Changes the directory of reports. The change records its reports with {@link #added(AccountReportId)}
+     * and {@link #removed(String)}. If the catalog is up-to-date with the directory before the change,
+     * the modification time of the directory after the change is taken without a scan.
+     *
+     * @param change change of the directory
+     */
+    synchronized void change(Change change) throws IOException {
+        final long before = directory.lastModified();
+        final boolean current = before == directoryModified && isTrusted(before);
+        change.apply();
+        if (current) {
+            directoryModified = directory.lastModified();
+            changedModified = directoryModified;
+        }
+    }
+
+    /**
+     * Adds report that is written to the directory.
+     */
+    synchronized void added(AccountReportId reportId) {
+        put(reportId);
+        if (isPersistable(reportId.name())) {
+            append(ADDED + reportId.name() + SEPARATOR + reportId.dateImported());
+        }
+    }
+
+    /**
+     * Removes report that is moved or deleted from the directory.
+     */
+    synchronized void removed(String name) {
+        if (remove(name) && isPersistable(name)) {
+            append(REMOVED + name);
+        }
+    }
+
+    private void refresh() {
+        final long modified = directory.lastModified();
+        if (modified == directoryModified && isTrusted(modified)) {
+            return;
+        }
+
+        final long now = System.currentTimeMillis();
+        final String[] names = directory.list();
+        Validate.validState(names != null, "Unable to list reports in %s", directory);
+
+        final List<String> changes = new ArrayList<>();
+        final Set<String> present = new HashSet<>();
+        for (String name : names) {
+            if (!isCatalogued(name)) {
+                continue;
+            }
+            present.add(name);
+            if (!reports.containsKey(name)) {
+                try {
+                    final AccountReportId reportId = mapper.apply(new File(directory, name));
+                    put(reportId);
+                    if (isPersistable(name)) {
+                        changes.add(ADDED + name + SEPARATOR + reportId.dateImported());
+                    }
+                } catch (IllegalArgumentException e) {
+                    log.debug("Report {} disappeared during scan", name, e);
+                    present.remove(name);
+                }
+            }
+        }
+        for (String name : new ArrayList<>(reports.keySet())) {
+            if (!present.contains(name)) {
+                remove(name);
+                if (isPersistable(name)) {
+                    changes.add(REMOVED + name);
+                }
+            }
+        }
+
+        directoryModified = modified;
+        scannedAt = now;
+        if (!changes.isEmpty()) {
+            changes.add(SCANNED + Long.toString(modified) + SEPARATOR + now);
+            append(changes.toArray(String[]::new));
+        }
+    }
+
+    private boolean isTrusted(long modified) {
+        return modified < scannedAt - TIMESTAMP_GRANULARITY || modified == changedModified;
+    }
+
+    private void put(AccountReportId reportId) {
+        reports.put(reportId.name(), reportId);
+        if (AlfabankReportRepositoryFiles.isUnprocessedReportName(reportId.name())) {
+            unprocessed.put(reportId.name(), reportId);
+        }
+    }
+
+    private boolean remove(String name) {
+        unprocessed.remove(name);
+        return reports.remove(name) != null;
+    }
+
+    private static boolean isCatalogued(String name) {
+        return AlfabankReportRepositoryFiles.isReportName(name) || AlfabankReportRepositoryFiles.isUnprocessedReportName(name);
+    }
+
+    private static boolean isPersistable(String name) {
+        return name.indexOf(SEPARATOR) < 0 && name.indexOf('\n') < 0 && name.indexOf('\r') < 0;
+    }
+
+    private void moveLegacyIndex() {
+        final Path legacy = directory.toPath().resolve(LEGACY_INDEX_NAME);
+        if (!Files.isRegularFile(legacy) || Files.exists(index)) {
+            return;
+        }
+        try {
+            Files.createDirectories(index.getParent());
+            Files.move(legacy, index);
+        } catch (IOException e) {
+            log.warn("Unable to move index of reports {} to {}, the directory will be scanned", legacy, index, e);
+        }
+    }
+
+    private void load() {
+        if (!Files.isRegularFile(index)) {
+            return;
+        }
+
+        try (BufferedReader in = Files.newBufferedReader(index, StandardCharsets.UTF_8)) {
+            Validate.validState(INDEX_HEADER.equals(in.readLine()), "Unknown format of index");
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                indexRecords++;
+                final String[] fields = line.substring(1).split(String.valueOf(SEPARATOR));
+                switch (line.charAt(0)) {
+                    case ADDED -> put(new AccountReportId(fields[0], Instant.parse(fields[1])));
+                    case REMOVED -> remove(fields[0]);
+                    case SCANNED -> {
+                        directoryModified = Long.parseLong(fields[0]);
+                        scannedAt = Long.parseLong(fields[1]);
+                    }
+                    default -> throw new IllegalStateException("Unknown record of index: " + line);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            log.warn("Unable to load index of reports {}, the directory will be scanned", index, e);
+            reports.clear();
+            unprocessed.clear();
+            directoryModified = -1;
+            compact();
+            return;
+        }
+
+        if (isCompactable()) {
+            compact();
+        }
+    }
+
+    /**
+     * @return true if most records of the index are superseded by later ones
+     */
+    private boolean isCompactable() {
+        return indexRecords > 2 * reports.size() + 64;
+    }
+
+    private void compact() {
+        final List<String> records = new ArrayList<>(reports.size() + 1);
+        for (AccountReportId reportId : reports.values()) {
+            if (isPersistable(reportId.name())) {
+                records.add(ADDED + reportId.name() + SEPARATOR + reportId.dateImported());
+            }
+        }
+        if (directoryModified >= 0) {
+            records.add(SCANNED + Long.toString(directoryModified) + SEPARATOR + scannedAt);
+        }
+
+        try {
+            Files.createDirectories(index.getParent());
+            final Path tmp = Files.createTempFile(index.getParent(), INDEX_NAME, ".tmp");
+            try {
+                write(tmp, records, StandardOpenOption.TRUNCATE_EXISTING);
+                Files.move(tmp, index, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+            indexRecords = records.size();
+        } catch (IOException e) {
+            log.warn("Unable to write index of reports {}, the catalog is kept in memory only", index, e);
+            persistent = false;
+        }
+    }
+
+    private void append(String... records) {
+        if (!persistent) {
+            return;
+        }
+        try {
+            write(index, List.of(records), StandardOpenOption.APPEND);
+            indexRecords += records.length;
+        } catch (IOException e) {
+            log.warn("Unable to write index of reports {}, the catalog is kept in memory only", index, e);
+            persistent = false;
+            return;
+        }
+        if (isCompactable()) {
+            compact();
+        }
+    }
+
+    private static void write(Path file, List<String> records, StandardOpenOption mode) throws IOException {
+        final boolean header = !Files.exists(file) || Files.size(file) == 0;
+        if (header) {
+            Files.createDirectories(file.getParent());
+        }
+        try (Writer out = Files.newBufferedWriter(file, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, mode)) {
+            if (header) {
+                out.write(INDEX_HEADER);
+                out.write('\n');
+            }
+            for (String record : records) {
+                out.write(record);
+                out.write('\n');
+            }
+        }
+    }
+
+    /**
+     * Change of the directory of reports made by the repository
+     */
+    @FunctionalInterface
+    interface Change {
+        void apply() throws IOException;
+    }
+}
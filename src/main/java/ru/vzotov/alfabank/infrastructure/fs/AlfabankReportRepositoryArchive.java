@@ -0,0 +1,157 @@
+package ru.vzotov.alfabank.infrastructure.fs;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.Validate;
+import ru.vzotov.accounting.domain.model.AccountReportId;
+import ru.vzotov.alfabank.application.ImportMetrics;
+import ru.vzotov.alfabank.domain.model.AlfabankOperation;
+import ru.vzotov.alfabank.domain.model.AlfabankOperationBatch;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Repository that keeps new reports in the directory of reports, like {@link AlfabankReportRepositoryFiles},
+ * and compresses processed reports into rolling archive files in the {@value #ARCHIVE_DIRECTORY} directory.
+ * <p>
+ * Processed reports keep their {@code <report>_processed.csv} names and are read from the archive
+ * with commons-csv. Processed reports that are already in the directory of reports stay there.
+ */
+public class AlfabankReportRepositoryArchive extends AlfabankReportRepositoryFiles {
+
+    static final String ARCHIVE_DIRECTORY = "archive";
+
+    /**
+     * Default size of an archive file after which a new archive file is started
+     */
+    public static final long DEFAULT_ARCHIVE_SIZE = 64L * 1024 * 1024;
+
+    private final ReportArchive archive;
+
+    public AlfabankReportRepositoryArchive(String baseDirectoryPath) {
+        this(baseDirectoryPath, false, ReportParser.COMMONS_CSV, ImportMetrics.NOOP, false, DEFAULT_ARCHIVE_SIZE);
+    }
+
+    /**
+     * @param baseDirectoryPath directory of reports
+     * @param persistentCatalog whether the catalog of reports is stored in the index file in the directory of reports,
+     *                          otherwise the directory is scanned once after start
+     * @param parser            strategy of reading new report files
+     * @param metrics           metrics that receive time of directory scans and of card description parsing
+     * @param cacheParsed       whether parsed operations of new reports are cached in binary files next to the reports
+     * @param maxArchiveSize    size of an archive file after which a new archive file is started
+     */
+    public AlfabankReportRepositoryArchive(String baseDirectoryPath, boolean persistentCatalog, ReportParser parser,
+                                           ImportMetrics metrics, boolean cacheParsed, long maxArchiveSize) {
+        super(baseDirectoryPath, persistentCatalog, parser, metrics, cacheParsed);
+        try {
+            this.archive = new ReportArchive(getBaseDirectory().toPath().resolve(ARCHIVE_DIRECTORY), maxArchiveSize);
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to open archive of reports", e);
+        }
+    }
+
+    @Override
+    public List<AccountReportId> findAll() {
+        final List<AccountReportId> reports = new ArrayList<>(super.findAll());
+        reports.addAll(archive.findAll());
+        return reports;
+    }
+
+    @Override
+    public Stream<AlfabankOperation> stream(AccountReportId reportId, long skip) {
+        Validate.notNull(reportId);
+        if (!archive.contains(reportId.name())) {
+            return super.stream(reportId, skip);
+        }
+        Validate.isTrue(skip >= 0);
+        final InputStream content;
+        try {
+            content = archive.open(reportId.name());
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to read archived report " + reportId.name(), e);
+        }
+        try {
+            return operations(new CsvReportReader(content, REPORT_CHARSET), skip, getMetrics());
+        } catch (IOException e) {
+            IOUtils.closeQuietly(content);
+            throw new IllegalArgumentException(e);
+        } catch (RuntimeException e) {
+            IOUtils.closeQuietly(content);
+            throw e;
+        }
+    }
+
+    /**
+     * Archived reports are grouped into batches from their operations.
+     */
+    @Override
+    public Stream<AlfabankOperationBatch> batches(AccountReportId reportId, long skip, int batchSize) {
+        Validate.notNull(reportId);
+        if (!archive.contains(reportId.name())) {
+            return super.batches(reportId, skip, batchSize);
+        }
+        Validate.isTrue(skip >= 0);
+        return AlfabankOperationBatch.batches(stream(reportId, skip), batchSize);
+    }
+
+    @Override
+    public Set<String> findAccountNumbers(AccountReportId reportId) {
+        Validate.notNull(reportId);
+        if (!archive.contains(reportId.name())) {
+            return super.findAccountNumbers(reportId);
+        }
+        try (Stream<AlfabankOperation> operations = stream(reportId)) {
+            return operations.map(AlfabankOperation::accountNumber).collect(Collectors.toSet());
+        }
+    }
+
+    /**
+     * The report is compressed into the archive under its processed name and then deleted from the directory.
+     * If the report is already archived, because the application stopped before the report was deleted,
+     * only the report is deleted.
+     */
+    @Override
+    public void markProcessed(AccountReportId reportId) {
+        Validate.notNull(reportId);
+
+        final File reportFile = new File(this.getBaseDirectory(), reportId.name());
+        final String processedName = processedName(reportId.name());
+
+        Validate.isTrue(reportFile.exists() && reportFile.canRead() && reportFile.canWrite());
+        Validate.isTrue(!super.isProcessed(reportId.name()));
+
+        try {
+            if (!archive.contains(processedName)) {
+                archive.add(new AccountReportId(processedName, reportId.dateImported()), reportFile.toPath());
+            }
+            changeDirectory(() -> {
+                Files.delete(reportFile.toPath());
+                removed(reportId);
+            });
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to mark processed", e);
+        }
+    }
+
+    @Override
+    protected boolean isProcessed(String name) {
+        return super.isProcessed(name) || archive.contains(processedName(name));
+    }
+
+    /**
+     * Archived reports are found by the content hashes kept in the index of the archive.
+     */
+    @Override
+    protected AccountReportId findDuplicate(long size, String hash) throws IOException {
+        final AccountReportId duplicate = super.findDuplicate(size, hash);
+        return duplicate != null ? duplicate : archive.find(size, hash);
+    }
+}
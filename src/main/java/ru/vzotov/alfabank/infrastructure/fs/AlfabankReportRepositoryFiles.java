@@ -1,64 +1,82 @@
 package ru.vzotov.alfabank.infrastructure.fs;
 
-import org.apache.commons.csv.CSVFormat;
-import org.apache.commons.csv.CSVRecord;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
-import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.Validate;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import ru.vzotov.accounting.domain.model.AccountReport;
 import ru.vzotov.accounting.domain.model.AccountReportId;
 import ru.vzotov.accounting.domain.model.AccountReportRepository;
+import ru.vzotov.alfabank.application.ImportMetrics;
+import ru.vzotov.alfabank.application.ImportMetrics.Stage;
 import ru.vzotov.alfabank.domain.model.AlfabankOperation;
+import ru.vzotov.alfabank.domain.model.AlfabankOperationBatch;
+import ru.vzotov.alfabank.domain.model.AlfabankReportRepository;
 import ru.vzotov.alfabank.domain.model.CardOperation;
+import ru.vzotov.alfabank.domain.model.MinorUnits;
 import ru.vzotov.alfabank.domain.model.PosInfo;
+import ru.vzotov.alfabank.domain.model.ReportUpload;
+import ru.vzotov.alfabank.domain.model.ReportValidation;
 import ru.vzotov.alfabank.domain.model.TransactionId;
 
 import java.io.File;
-import java.io.FileFilter;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.Reader;
+import java.io.OutputStream;
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.attribute.BasicFileAttributes;
-import java.text.DecimalFormat;
-import java.text.DecimalFormatSymbols;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.text.ParseException;
 import java.time.LocalDate;
-import java.time.format.DateTimeFormatter;
-import java.time.format.DateTimeFormatterBuilder;
-import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.Iterator;
 import java.util.List;
-import java.util.Locale;
-import java.util.Objects;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
 import java.util.function.Function;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
 
-import static java.time.temporal.ChronoField.DAY_OF_MONTH;
-import static java.time.temporal.ChronoField.MONTH_OF_YEAR;
-import static java.time.temporal.ChronoField.YEAR;
+import static ru.vzotov.alfabank.infrastructure.fs.ReportValues.RU_DECIMAL_SEPARATOR;
 
-public class AlfabankReportRepositoryFiles implements AccountReportRepository<AlfabankOperation> {
+public class AlfabankReportRepositoryFiles implements AlfabankReportRepository {
 
     private static final Logger log = LoggerFactory.getLogger(AccountReportRepository.class);
 
     private static final String REPORT_EXT = ".csv";
     private static final String REPORT_PROCESSED_EXT = "_processed.csv";
-    private static final DateTimeFormatter DATE_FORMAT = new DateTimeFormatterBuilder()
-            .appendValue(DAY_OF_MONTH, 2)
-            .appendLiteral('.')
-            .appendValue(MONTH_OF_YEAR, 2)
-            .appendLiteral('.')
-            .appendValueReduced(YEAR, 2, 2, 2000)
-            .toFormatter();
+    private static final String CHECKPOINT_EXT = ".checkpoint";
+    private static final String ERRORS_EXT = ".errors";
+    private static final String QUARANTINE_DIRECTORY = "quarantine";
+
+    /**
+     * Directory of checkpoints, caches, temporary files and the catalog index inside the directory of reports.
+     * Writing them does not change the modification time of the directory of reports, which the catalog relies on.
+     */
+    static final String STATE_DIRECTORY = ".alfabank-state";
+    private static final String UPLOAD_PREFIX = ".upload-";
+    private static final String UPLOAD_EXT = ".tmp";
+    private static final String CONTENT_DIGEST = "SHA-256";
+    private static final CardOperationParser CARD_OPERATION_PARSER = new CardOperationParser();
+    static final Charset REPORT_CHARSET = Charset.forName("Cp1251");
 
     private static final Function<File, AccountReportId> MAPPER = file -> {
         try {
@@ -74,13 +92,92 @@ public class AlfabankReportRepositoryFiles implements AccountReportRepository<Al
 
     private final File baseDirectory;
 
+    private final AlfabankReportCatalog catalog;
+
+    private final ReportParser parser;
+
+    private final ImportMetrics metrics;
+
+    private final boolean cacheParsed;
+
+    /**
+     * Hashes of the content of stored reports by their names
+     */
+    private final Map<String, ContentHash> contentHashes = new ConcurrentHashMap<>();
+
+    /**
+     * Guards the search of duplicates and moving of uploaded reports into the directory
+     */
+    private final Object uploadLock = new Object();
+
 
     public AlfabankReportRepositoryFiles(String baseDirectoryPath) {
+        this(baseDirectoryPath, false, ReportParser.COMMONS_CSV);
+    }
+
+    /**
+     * @param baseDirectoryPath directory of reports
+     * @param persistentCatalog whether the catalog of reports is stored in the index file in the directory of reports,
+     *                          otherwise the directory is scanned once after start
+     * @param parser            strategy of reading report files
+     */
+    public AlfabankReportRepositoryFiles(String baseDirectoryPath, boolean persistentCatalog, ReportParser parser) {
+        this(baseDirectoryPath, persistentCatalog, parser, ImportMetrics.NOOP);
+    }
+
+    /**
+     * @param baseDirectoryPath directory of reports
+     * @param persistentCatalog whether the catalog of reports is stored in the index file in the directory of reports,
+     *                          otherwise the directory is scanned once after start
+     * @param parser            strategy of reading report files
+     * @param metrics           metrics that receive time of directory scans and of card description parsing
+     */
+    public AlfabankReportRepositoryFiles(String baseDirectoryPath, boolean persistentCatalog, ReportParser parser,
+                                         ImportMetrics metrics) {
+        this(baseDirectoryPath, persistentCatalog, parser, metrics, false);
+    }
+
+    /**
+     * @param baseDirectoryPath directory of reports
+     * @param persistentCatalog whether the catalog of reports is stored in the index file in the directory of reports,
+     *                          otherwise the directory is scanned once after start
+     * @param parser            strategy of reading report files
+     * @param metrics           metrics that receive time of directory scans and of card description parsing
+     * @param cacheParsed       whether parsed operations are cached in binary files next to the reports
+     */
+    public AlfabankReportRepositoryFiles(String baseDirectoryPath, boolean persistentCatalog, ReportParser parser,
+                                         ImportMetrics metrics, boolean cacheParsed) {
+        Validate.notNull(parser);
+        Validate.notNull(metrics);
         this.baseDirectoryPath = baseDirectoryPath;
         this.baseDirectory = new File(baseDirectoryPath);
+        this.parser = parser;
+        this.metrics = metrics;
+        this.cacheParsed = cacheParsed;
 
         Validate.isTrue(this.baseDirectory.isDirectory());
         Validate.isTrue(this.baseDirectory.canRead());
+
+        this.catalog = new AlfabankReportCatalog(this.baseDirectory, MAPPER, persistentCatalog);
+    }
+
+    static File stateDirectory(File baseDirectory) {
+        return new File(baseDirectory, STATE_DIRECTORY);
+    }
+
+    private Path createStateDirectory() throws IOException {
+        final Path state = stateDirectory(this.getBaseDirectory()).toPath();
+        if (!Files.isDirectory(state)) {
+            changeDirectory(() -> Files.createDirectories(state));
+        }
+        return state;
+    }
+
+    /**
+     * Changes the directory of reports and records the changed reports in the catalog, see {@link AlfabankReportCatalog#change}.
+     */
+    protected void changeDirectory(AlfabankReportCatalog.Change change) throws IOException {
+        catalog.change(change);
     }
 
     protected String getBaseDirectoryPath() {
@@ -91,52 +188,240 @@ public class AlfabankReportRepositoryFiles implements AccountReportRepository<Al
         return baseDirectory;
     }
 
+    protected ImportMetrics getMetrics() {
+        return metrics;
+    }
+
     @Override
     public AccountReport<AlfabankOperation> find(AccountReportId reportId) {
+        try (Stream<AlfabankOperation> operations = stream(reportId)) {
+            return new AccountReport<>(reportId, operations.toList());
+        }
+    }
+
+    @Override
+    public Stream<AlfabankOperation> stream(AccountReportId reportId) {
+        return stream(reportId, 0);
+    }
+
+    /**
+     * Skipped records are only tokenized, they are not parsed into operations.
+     * If parsed operations are cached, a report that has not changed since it was cached is read from its cache,
+     * otherwise the cache is written when the whole report is read.
+     */
+    @Override
+    public Stream<AlfabankOperation> stream(AccountReportId reportId, long skip) {
+        Validate.isTrue(skip >= 0);
+        if (!cacheParsed) {
+            return parse(reportId, skip);
+        }
         Validate.notNull(reportId);
         final File reportFile = new File(this.getBaseDirectory(), reportId.name());
+        final Stream<AlfabankOperation> cached = ReportCache.read(reportFile, rows -> parse(reportId, rows));
+        if (cached != null) {
+            return cached.skip(skip);
+        }
+        if (skip > 0) {
+            return parse(reportId, skip);
+        }
+        try {
+            createStateDirectory();
+        } catch (IOException e) {
+            log.warn("Unable to create state directory, report {} is not cached", reportId.name(), e);
+            return parse(reportId, 0);
+        }
+        final long size = reportFile.length();
+        final long modified = reportFile.lastModified();
+        return ReportCache.writeThrough(reportFile, size, modified, parse(reportId, 0));
+    }
+
+    private Stream<AlfabankOperation> parse(AccountReportId reportId, long skip) {
+        if (ReportParser.PARALLEL.equals(parser) && skip == 0 && ForkJoinPool.getCommonPoolParallelism() > 1) {
+            final File reportFile = new File(this.getBaseDirectory(), reportId.name());
+            if (reportFile.length() > 2L * ParallelReportReader.DEFAULT_CHUNK_SIZE && reportFile.length() <= MappedReportReader.MAX_SIZE) {
+                return streamParallel(reportId, reportFile);
+            }
+        }
+        return operations(open(reportId), skip, metrics);
+    }
+
+    /**
+     * Parses records of the report into operations. The stream closes the reader.
+     */
+    static Stream<AlfabankOperation> operations(ReportReader reader, long skip, ImportMetrics metrics) {
+        final ReportColumns columns = reader.columns();
+        final StringInterner interner = new StringInterner();
+        return reader.records()
+                .skip(skip)
+                .map(record -> parseOperation(record, columns, interner, metrics))
+                .onClose(() -> IOUtils.closeQuietly(reader));
+    }
+
+    /**
+     * Parses the report by chunks on the common pool, the metrics must be thread-safe.
+     */
+    private Stream<AlfabankOperation> streamParallel(AccountReportId reportId, File reportFile) {
         Validate.isTrue(reportFile.exists() && reportFile.canRead());
+        final ParallelReportReader reader;
+        try {
+            reader = new ParallelReportReader(reportFile, REPORT_CHARSET, ParallelReportReader.DEFAULT_CHUNK_SIZE,
+                    ForkJoinPool.commonPool());
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Unable to read report " + reportId.name(), e);
+        }
+        return reader.parse((record, columns, interner) -> parseOperation(record, columns, interner, metrics))
+                .onClose(() -> IOUtils.closeQuietly(reader));
+    }
 
+    /**
+     * Records are parsed straight into the columns of the batches, without operations of the rows.
+     * Cached reports and reports that are parsed in parallel are grouped into batches from their operations.
+     */
+    @Override
+    public Stream<AlfabankOperationBatch> batches(AccountReportId reportId, long skip, int batchSize) {
+        Validate.isTrue(skip >= 0);
+        Validate.isTrue(batchSize > 0);
+        if (cacheParsed || ReportParser.PARALLEL.equals(parser) && ForkJoinPool.getCommonPoolParallelism() > 1) {
+            return AlfabankReportRepository.super.batches(reportId, skip, batchSize);
+        }
+        final ReportReader reader = open(reportId);
+        final ReportColumns columns = reader.columns();
+        final StringInterner interner = new StringInterner();
+        final Iterator<ReportRecord> records = reader.records().skip(skip).iterator();
+        final Spliterator<AlfabankOperationBatch> spliterator = new Spliterators.AbstractSpliterator<>(Long.MAX_VALUE,
+                Spliterator.ORDERED | Spliterator.NONNULL) {
+            @Override
+            public boolean tryAdvance(Consumer<? super AlfabankOperationBatch> action) {
+                if (!records.hasNext()) {
+                    return false;
+                }
+                final AlfabankOperationBatch.Builder batch = new AlfabankOperationBatch.Builder(batchSize);
+                while (batch.size() < batchSize && records.hasNext()) {
+                    parseOperation(records.next(), columns, interner, metrics, batch);
+                }
+                action.accept(batch.build());
+                return true;
+            }
+        };
+        return StreamSupport.stream(spliterator, false).onClose(() -> IOUtils.closeQuietly(reader));
+    }
 
-        try (Reader in = new InputStreamReader(new FileInputStream(reportFile), Charset.forName("Cp1251"))) {
-            final CSVFormat csvFormat = CSVFormat.Builder.create(CSVFormat.Predefined.Default.getFormat())
-                    .setDelimiter(';')
-                    .setTrailingDelimiter(true)
-                    .setHeader()
-                    .setSkipHeaderRecord(true)
-                    .build();
+    /**
+     * Rows are parsed from the report itself, so errors have line numbers, even if the report is cached.
+     * Rows that can not be parsed are reported and validation goes on, it stops only if the report
+     * can not be split into rows.
+     */
+    @Override
+    public ReportValidation validate(AccountReportId reportId, Function<AlfabankOperation, String> rules) {
+        Validate.notNull(rules);
+        final ReportValidation.Builder validation = new ReportValidation.Builder(reportId);
+        final ReportReader reader;
+        try {
+            reader = open(reportId);
+        } catch (IllegalArgumentException e) {
+            if (!new File(this.getBaseDirectory(), reportId.name()).isFile()) {
+                throw e;
+            }
+            validation.invalid(1, ReportValidation.describe(e));
+            return validation.build();
+        }
 
-            Iterable<CSVRecord> records = csvFormat.parse(in);
-            final List<AlfabankOperation> operations = StreamSupport.stream(records.spliterator(), false).map(record -> {
+        final StringInterner interner = new StringInterner();
+        try (reader) {
+            final ReportColumns columns = reader.columns();
+            final Iterator<ReportRecord> records = reader.records().iterator();
+            while (records.hasNext()) {
+                final ReportRecord record = records.next();
+                validation.row();
+                String error;
                 try {
-                    final DecimalFormat decimals = createDecimalFormat(new Locale("ru"));
-                    final String accountType = record.get("Тип счёта");
-                    final String accountNumber = record.get("Номер счета");
-                    final String currencyCode = record.get("Валюта");
-                    final LocalDate date = LocalDate.parse(record.get("Дата операции"), DATE_FORMAT);
-                    final TransactionId transactionId = new TransactionId(record.get("Референс проводки"));
-                    final String description = record.get("Описание операции");
-                    final Double deposit = decimals.parse(record.get("Приход")).doubleValue();
-                    final Double withdraw = decimals.parse(record.get("Расход")).doubleValue();
-                    final CardOperation card = parseCardOperationDescription(description);
-
-                    return new AlfabankOperation(
-                            accountType,
-                            accountNumber,
-                            currencyCode,
-                            date,
-                            transactionId,
-                            description,
-                            deposit,
-                            withdraw,
-                            card
-                    );
-                } catch (ParseException e) {
-                    throw new IllegalArgumentException(e);
+                    final AlfabankOperation operation = parseOperation(record, columns, interner, ImportMetrics.NOOP);
+                    validation.account(operation.accountNumber());
+                    error = rules.apply(operation);
+                } catch (RuntimeException e) {
+                    error = ReportValidation.describe(e);
+                }
+                if (error != null && record.line() > 0) {
+                    validation.invalid(record.line(), error);
+                } else if (error != null) {
+                    validation.invalid(error);
                 }
-            }).toList();
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        } catch (RuntimeException e) {
+            validation.row();
+            validation.invalid(ReportValidation.describe(e));
+        }
+        return validation.build();
+    }
 
-            return new AccountReport<>(reportId, operations);
+    /**
+     * Moves the report to the {@value #QUARANTINE_DIRECTORY} directory inside the directory of reports
+     * and writes errors of the report next to it, to {@code <report>.errors}.
+     * A quarantined report with the same name is replaced.
+     */
+    @Override
+    public boolean quarantine(AccountReportId reportId, ReportValidation validation) {
+        Validate.notNull(reportId);
+        Validate.notNull(validation);
+        final File reportFile = new File(this.getBaseDirectory(), reportId.name());
+        Validate.isTrue(reportFile.isFile(), "Report file does not exist:", reportId.name());
+
+        final Path quarantine = this.getBaseDirectory().toPath().resolve(QUARANTINE_DIRECTORY);
+        final List<String> errors = new ArrayList<>();
+        errors.add("rows: " + validation.rows() + ", invalid rows: " + validation.invalidRows());
+        validation.errors().forEach(error -> errors.add(error.toString()));
+        if (validation.errors().size() < validation.invalidRows()) {
+            errors.add("...");
+        }
+        try {
+            changeDirectory(() -> {
+                Files.createDirectories(quarantine);
+                Files.write(quarantine.resolve(reportId.name() + ERRORS_EXT), errors, StandardCharsets.UTF_8);
+                Files.move(reportFile.toPath(), quarantine.resolve(reportId.name()), StandardCopyOption.REPLACE_EXISTING);
+                removed(reportId);
+            });
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to quarantine report " + reportId.name(), e);
+        }
+        return true;
+    }
+
+    /**
+     * Forgets report that is moved out of the directory of reports: removes it from the catalog,
+     * drops its content hash and deletes its cache and checkpoint.
+     */
+    protected void removed(AccountReportId reportId) {
+        catalog.removed(reportId.name());
+        contentHashes.remove(reportId.name());
+        ReportCache.delete(new File(this.getBaseDirectory(), reportId.name()));
+        deleteCheckpoint(reportId.name());
+    }
+
+    @Override
+    public Set<String> findAccountNumbers(AccountReportId reportId) {
+        try (ReportReader reader = open(reportId)) {
+            final int accountNumber = reader.columns().accountNumber();
+            return reader.records().map(record -> record.get(accountNumber)).collect(Collectors.toSet());
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private ReportReader open(AccountReportId reportId) {
+        Validate.notNull(reportId);
+        final File reportFile = new File(this.getBaseDirectory(), reportId.name());
+        Validate.isTrue(reportFile.exists() && reportFile.canRead());
+
+        try {
+            if (ReportParser.MAPPED.equals(parser) || ReportParser.PARALLEL.equals(parser)) {
+                if (reportFile.length() <= MappedReportReader.MAX_SIZE) {
+                    return new MappedReportReader(reportFile, REPORT_CHARSET);
+                }
+                log.warn("Report {} is too large to be mapped, read it with commons-csv", reportId.name());
+            }
+            return new CsvReportReader(reportFile, REPORT_CHARSET);
         } catch (FileNotFoundException e) {
             throw new IllegalStateException(e);
         } catch (IOException e) {
@@ -144,76 +429,119 @@ public class AlfabankReportRepositoryFiles implements AccountReportRepository<Al
         }
     }
 
-    static CardOperation parseCardOperationDescription(final String description) throws ParseException {
-        final String regex = "([0-9]{6}[+0-9 ]{10,13}) (\\p{ASCII}{49}) (\\d{2}\\.\\d{2}\\.\\d{2}) (\\d{2}\\.\\d{2}\\.\\d{2}) ([ 0-9.]{13}) ([A-Z]{3}) (.*?)(MCC\\d{4})";
-        final Pattern p = Pattern.compile(regex);
-        final Matcher matcher = p.matcher(description);
-
-        CardOperation result = null;
-
-        if (matcher.matches()) {
-            final String cardNumber = matcher.group(1).trim();
-            final String pos = matcher.group(2).trim();
-            final String authDate = matcher.group(3).trim();
-            final String purchaseDate = matcher.group(4).trim();
-            final String amount = matcher.group(5).trim();
-            final String currency = matcher.group(6).trim();
-            final String extra = StringUtils.trimToNull(matcher.group(7).trim());
-            final String mcc = matcher.group(8).trim().substring(3);
-
-            final PosInfo posInfo = parsePosInfo(pos);
-
-            final DecimalFormat decimals = createDecimalFormat(Locale.US);
-
-            result = new CardOperation(
-                    cardNumber,
-                    posInfo,
-                    LocalDate.parse(authDate, DATE_FORMAT),
-                    LocalDate.parse(purchaseDate, DATE_FORMAT),
-                    decimals.parse(amount).doubleValue(),
-                    currency,
-                    extra,
-                    mcc
+    /**
+     * Parses operation. Values that repeat from row to row, like account numbers, currencies and POS information,
+     * are taken from the interner of the import.
+     */
+    static AlfabankOperation parseOperation(ReportRecord record, ReportColumns columns, StringInterner interner,
+                                            ImportMetrics metrics) {
+        try {
+            final String accountType = record.get(columns.accountType(), interner);
+            final String accountNumber = record.get(columns.accountNumber(), interner);
+            final String currencyCode = record.get(columns.currencyCode(), interner);
+            final LocalDate date = ReportValues.parseDate(record.get(columns.date()));
+            final TransactionId transactionId = new TransactionId(record.get(columns.reference()));
+            final String description = record.get(columns.description());
+            final int fractionDigits = MinorUnits.fractionDigits(currencyCode);
+            final long deposit = ReportValues.parseMinorUnits(record.get(columns.deposit()), RU_DECIMAL_SEPARATOR, fractionDigits);
+            final long withdraw = ReportValues.parseMinorUnits(record.get(columns.withdraw()), RU_DECIMAL_SEPARATOR, fractionDigits);
+            final long start = System.nanoTime();
+            final CardOperation card = CARD_OPERATION_PARSER.parse(description, interner);
+            metrics.stageFinished(Stage.CARD_PARSE, start);
+
+            return new AlfabankOperation(
+                    accountType,
+                    accountNumber,
+                    currencyCode,
+                    date,
+                    transactionId,
+                    description,
+                    deposit,
+                    withdraw,
+                    card
             );
+        } catch (ParseException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    /**
+     * Parses record into the next row of the batch.
+     */
+    static void parseOperation(ReportRecord record, ReportColumns columns, StringInterner interner,
+                               ImportMetrics metrics, AlfabankOperationBatch.Builder batch) {
+        try {
+            final String accountType = record.get(columns.accountType(), interner);
+            final String accountNumber = record.get(columns.accountNumber(), interner);
+            final String currencyCode = record.get(columns.currencyCode(), interner);
+            final long epochDay = ReportValues.parseDate(record.get(columns.date())).toEpochDay();
+            final String reference = record.get(columns.reference());
+            final String description = record.get(columns.description());
+            final int fractionDigits = MinorUnits.fractionDigits(currencyCode);
+            final long deposit = ReportValues.parseMinorUnits(record.get(columns.deposit()), RU_DECIMAL_SEPARATOR, fractionDigits);
+            final long withdraw = ReportValues.parseMinorUnits(record.get(columns.withdraw()), RU_DECIMAL_SEPARATOR, fractionDigits);
+            final long start = System.nanoTime();
+            final CardOperation card = CARD_OPERATION_PARSER.parse(description, interner);
+            metrics.stageFinished(Stage.CARD_PARSE, start);
+
+            batch.add(accountType, accountNumber, currencyCode, epochDay, reference, description, deposit, withdraw, card);
+        } catch (ParseException e) {
+            throw new IllegalArgumentException(e);
         }
+    }
 
-        return result;
+    static CardOperation parseCardOperationDescription(final String description) throws ParseException {
+        return CARD_OPERATION_PARSER.parse(description);
     }
 
     static PosInfo parsePosInfo(final String posInfo) {
-        final String[] parts = posInfo.split("[\\\\/]");
-
-        final String posNumber = parts[0].trim();
-        final String countryCode = parts[1].trim();
-        final String city = parts.length < 4 ? null : parts[2].trim();
-        final String street = parts.length < 5 ? null : parts[3].trim();
-        final String merchant = parts[parts.length - 1].trim();
+        return CARD_OPERATION_PARSER.parsePosInfo(posInfo);
+    }
 
-        return new PosInfo(posNumber, countryCode, city, street, merchant);
+    @Override
+    public List<AccountReportId> findAll() {
+        final long start = System.nanoTime();
+        final List<AccountReportId> reports = catalog.findAll();
+        metrics.stageFinished(Stage.SCAN, start);
+        return reports;
     }
 
-    private static DecimalFormat createDecimalFormat(Locale locale) {
-        return new DecimalFormat("###.##", DecimalFormatSymbols.getInstance(locale));
+    @Override
+    public List<AccountReportId> findUnprocessed() {
+        final long start = System.nanoTime();
+        final List<AccountReportId> reports = catalog.findUnprocessed();
+        metrics.stageFinished(Stage.SCAN, start);
+        return reports;
     }
 
     @Override
-    public List<AccountReportId> findAll() {
-        final FileFilter filter = pathname -> pathname.getName().endsWith(REPORT_EXT);
+    public AccountReportId findUnprocessed(String name) {
+        Validate.notEmpty(name);
+        return catalog.findUnprocessed(name);
+    }
 
-        return Arrays.stream(Objects.requireNonNull(this.getBaseDirectory().listFiles(filter)))
-                .map(MAPPER)
-                .toList();
+    static boolean isReportName(String name) {
+        return name.endsWith(REPORT_EXT);
+    }
 
+    static boolean isUnprocessedReportName(String name) {
+        final String lowerCaseName = name.toLowerCase();
+        return lowerCaseName.endsWith(REPORT_EXT) && !lowerCaseName.endsWith(REPORT_PROCESSED_EXT);
     }
 
-    @Override
-    public List<AccountReportId> findUnprocessed() {
-        final FileFilter filter = pathname -> pathname.getName().toLowerCase().endsWith(REPORT_EXT)
-                && !pathname.getName().toLowerCase().endsWith(REPORT_PROCESSED_EXT);
+    /**
+     * @return name of the report after it is processed
+     */
+    static String processedName(String name) {
+        return FilenameUtils.removeExtension(name) + REPORT_PROCESSED_EXT;
+    }
 
-        return Arrays.stream(Objects.requireNonNull(this.getBaseDirectory().listFiles(filter)))
-                .map(MAPPER)
-                .toList();
+    /**
+     * @param name name of unprocessed report
+     * @return true if the report with this name is already processed
+     */
+    protected boolean isProcessed(String name) {
+        return new File(this.getBaseDirectory(), processedName(name)).exists();
     }
 
     @Override
@@ -222,36 +550,227 @@ public class AlfabankReportRepositoryFiles implements AccountReportRepository<Al
 
         final File reportFile = new File(this.getBaseDirectory(), reportId.name());
 
-        final String baseName = FilenameUtils.removeExtension(reportId.name());
-
-        final File processedReportFile = new File(this.getBaseDirectory(), baseName + REPORT_PROCESSED_EXT);
+        final File processedReportFile = new File(this.getBaseDirectory(), processedName(reportId.name()));
 
         Validate.isTrue(reportFile.exists() && reportFile.canRead() && reportFile.canWrite());
-        Validate.isTrue(!processedReportFile.exists());
+        Validate.isTrue(!isProcessed(reportId.name()));
 
         try {
-            FileUtils.moveFile(reportFile, processedReportFile);
+            changeDirectory(() -> {
+                FileUtils.moveFile(reportFile, processedReportFile);
+                catalog.removed(reportFile.getName());
+                catalog.added(MAPPER.apply(processedReportFile));
+            });
         } catch (IOException e) {
             throw new IllegalStateException("Unable to mark processed", e);
         }
+
+        ReportCache.move(reportFile, processedReportFile);
+
+        final ContentHash contentHash = contentHashes.remove(reportFile.getName());
+        if (contentHash != null) {
+            contentHashes.put(processedReportFile.getName(),
+                    new ContentHash(contentHash.size(), processedReportFile.lastModified(), contentHash.hash()));
+        }
+
+        deleteCheckpoint(reportId.name());
+    }
+
+    @Override
+    public long findCheckpoint(AccountReportId reportId) {
+        Validate.notNull(reportId);
+        File checkpointFile = checkpointFile(reportId.name());
+        if (!checkpointFile.isFile()) {
+            checkpointFile = legacyCheckpointFile(reportId.name());
+            if (!checkpointFile.isFile()) {
+                return 0;
+            }
+        }
+
+        final File reportFile = new File(this.getBaseDirectory(), reportId.name());
+        final Properties checkpoint = new Properties();
+        try (InputStream in = new FileInputStream(checkpointFile)) {
+            checkpoint.load(in);
+            if (Long.parseLong(checkpoint.getProperty("size")) != reportFile.length()
+                    || Long.parseLong(checkpoint.getProperty("modified")) != reportFile.lastModified()) {
+                log.warn("Report {} has changed since its checkpoint, the checkpoint is ignored", reportId.name());
+                return 0;
+            }
+            return Long.parseLong(checkpoint.getProperty("rows"));
+        } catch (IOException | RuntimeException e) {
+            log.warn("Unable to read checkpoint of report {}, the checkpoint is ignored", reportId.name(), e);
+            return 0;
+        }
     }
 
+    /**
+     * The checkpoint is written to a temporary file first and then atomically replaces the previous one.
+     */
+    @Override
+    public void saveCheckpoint(AccountReportId reportId, long rows) {
+        Validate.notNull(reportId);
+        Validate.isTrue(rows >= 0);
+
+        final File reportFile = new File(this.getBaseDirectory(), reportId.name());
+        final Properties checkpoint = new Properties();
+        checkpoint.setProperty("rows", Long.toString(rows));
+        checkpoint.setProperty("size", Long.toString(reportFile.length()));
+        checkpoint.setProperty("modified", Long.toString(reportFile.lastModified()));
+
+        try {
+            final Path tmp = Files.createTempFile(createStateDirectory(), reportId.name(), CHECKPOINT_EXT + ".tmp");
+            try {
+                try (OutputStream out = Files.newOutputStream(tmp)) {
+                    checkpoint.store(out, null);
+                }
+                Files.move(tmp, checkpointFile(reportId.name()).toPath(),
+                        StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+            deleteLegacyCheckpoint(reportId.name());
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to save checkpoint of report " + reportId.name(), e);
+        }
+    }
+
+    private File checkpointFile(String name) {
+        return new File(stateDirectory(this.getBaseDirectory()), name + CHECKPOINT_EXT);
+    }
+
+    /**
+     * Checkpoint written to the directory of reports before checkpoints were moved to the state directory
+     */
+    private File legacyCheckpointFile(String name) {
+        return new File(this.getBaseDirectory(), name + CHECKPOINT_EXT);
+    }
+
+    private void deleteCheckpoint(String name) {
+        FileUtils.deleteQuietly(checkpointFile(name));
+        deleteLegacyCheckpoint(name);
+    }
+
+    private void deleteLegacyCheckpoint(String name) {
+        final File legacy = legacyCheckpointFile(name);
+        if (legacy.exists()) {
+            try {
+                changeDirectory(() -> Files.deleteIfExists(legacy.toPath()));
+            } catch (IOException e) {
+                log.warn("Unable to delete checkpoint {}", legacy, e);
+            }
+        }
+    }
+
+    /**
+     * Rejects reports that have the same content as a report stored under another name.
+     */
     @Override
     public AccountReportId save(String name, InputStream content) throws IOException {
+        final ReportUpload upload = upload(name, content);
+        Validate.isTrue(!upload.duplicate(), "Report %s has the same content as report %s", name, upload.reportId().name());
+        return upload.reportId();
+    }
+
+    /**
+     * The content is copied to a temporary file, hashed and summarized in a single pass,
+     * then the file is atomically moved into the directory of reports.
+     * If a report with the same content is already stored, processed or not, the upload is discarded
+     * and the identifier of that report is returned.
+     */
+    @Override
+    public ReportUpload upload(String name, InputStream content) throws IOException {
         Validate.notEmpty(name);
         Validate.notNull(content);
         Validate.isTrue(name.endsWith(REPORT_EXT), "Invalid name of report: ", name);
         Validate.isTrue(!name.endsWith(REPORT_PROCESSED_EXT), "Saving already processed reports is not allowed:", name);
+        validateNewReport(name);
+
+        final MessageDigest digest = newContentDigest();
+        final ReportSummaryScanner scanner = new ReportSummaryScanner(REPORT_CHARSET);
+        final Path tmp = Files.createTempFile(createStateDirectory(), UPLOAD_PREFIX, UPLOAD_EXT);
+        try {
+            long size = 0;
+            try (OutputStream out = Files.newOutputStream(tmp)) {
+                final byte[] buffer = new byte[IOUtils.DEFAULT_BUFFER_SIZE * 8];
+                for (int n; (n = content.read(buffer)) != IOUtils.EOF; size += n) {
+                    out.write(buffer, 0, n);
+                    digest.update(buffer, 0, n);
+                    scanner.update(buffer, 0, n);
+                }
+            }
+            scanner.finish();
+            final String hash = HexFormat.of().formatHex(digest.digest());
+
+            synchronized (uploadLock) {
+                final AccountReportId duplicate = findDuplicate(size, hash);
+                if (duplicate != null) {
+                    log.info("Report {} has the same content as report {}, it is not stored", name, duplicate.name());
+                    return new ReportUpload(duplicate, hash, scanner.rows(), scanner.firstDate(), scanner.lastDate(), true);
+                }
+
+                validateNewReport(name);
+                deleteCheckpoint(name);
+
+                final File reportFile = new File(this.getBaseDirectory(), name);
+                ReportCache.delete(reportFile);
+                changeDirectory(() -> {
+                    Files.move(tmp, reportFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+                    catalog.added(MAPPER.apply(reportFile));
+                });
+                contentHashes.put(name, new ContentHash(size, reportFile.lastModified(), hash));
+
+                final AccountReportId reportId = MAPPER.apply(reportFile);
+                return new ReportUpload(reportId, hash, scanner.rows(), scanner.firstDate(), scanner.lastDate(), false);
+            }
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
 
+    private void validateNewReport(String name) {
         final File reportFile = new File(this.getBaseDirectory(), name);
         Validate.isTrue(!reportFile.exists(), "Report file already exists:", name);
 
-        final String baseName = FilenameUtils.removeExtension(name);
-        final File processedReportFile = new File(this.getBaseDirectory(), baseName + REPORT_PROCESSED_EXT);
-        Validate.isTrue(!processedReportFile.exists(), "Report file with this name is already processed earlier:", name);
+        Validate.isTrue(!isProcessed(name), "Report file with this name is already processed earlier:", name);
+    }
+
+    /**
+     * Finds stored report with the same content. Only reports of the same size are hashed,
+     * hashes are kept in memory while the files are not modified.
+     */
+    protected AccountReportId findDuplicate(long size, String hash) throws IOException {
+        for (AccountReportId reportId : catalog.findAll()) {
+            final File file = new File(this.getBaseDirectory(), reportId.name());
+            if (file.length() != size) {
+                continue;
+            }
+            ContentHash contentHash = contentHashes.get(reportId.name());
+            if (contentHash == null || contentHash.size() != size || contentHash.modified() != file.lastModified()) {
+                final MessageDigest digest = newContentDigest();
+                final long modified = file.lastModified();
+                try (InputStream in = new DigestInputStream(new FileInputStream(file), digest)) {
+                    IOUtils.consume(in);
+                } catch (FileNotFoundException e) {
+                    continue;
+                }
+                contentHash = new ContentHash(size, modified, HexFormat.of().formatHex(digest.digest()));
+                contentHashes.put(reportId.name(), contentHash);
+            }
+            if (contentHash.hash().equals(hash)) {
+                return reportId;
+            }
+        }
+        return null;
+    }
 
-        FileUtils.copyInputStreamToFile(content, reportFile);
+    private static MessageDigest newContentDigest() {
+        try {
+            return MessageDigest.getInstance(CONTENT_DIGEST);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
 
-        return MAPPER.apply(reportFile);
+    private record ContentHash(long size, long modified, String hash) {
     }
 }
@@ -0,0 +1,167 @@
+package ru.vzotov.alfabank.infrastructure.fs;
+
+import org.apache.commons.lang3.Validate;
+import ru.vzotov.accounting.domain.model.AccountReport;
+import ru.vzotov.accounting.domain.model.AccountReportId;
+import ru.vzotov.alfabank.application.ImportMetrics;
+import ru.vzotov.alfabank.domain.model.AlfabankOperation;
+import ru.vzotov.alfabank.domain.model.AlfabankReportRepository;
+import ru.vzotov.alfabank.domain.model.ReportValidation;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+
+/**
+ * Repository that keeps reports in memory, for tests and benchmarks.
+ * <p>
+ * Reports are stored as they are uploaded and are parsed with commons-csv every time they are read.
+ * Processed reports are renamed to {@code <report>_processed.csv} like in the directory of reports,
+ * quarantined reports are removed from the repository and only their validation is kept.
+ * Reports with the same content are not detected. The repository is thread-safe.
+ */
+public class AlfabankReportRepositoryMemory implements AlfabankReportRepository {
+
+    private final ImportMetrics metrics;
+
+    private final Map<String, StoredReport> reports = new TreeMap<>();
+
+    private final Map<String, Long> checkpoints = new HashMap<>();
+
+    private final Map<String, ReportValidation> quarantined = new HashMap<>();
+
+    public AlfabankReportRepositoryMemory() {
+        this(ImportMetrics.NOOP);
+    }
+
+    /**
+     * @param metrics metrics that receive time of card description parsing
+     */
+    public AlfabankReportRepositoryMemory(ImportMetrics metrics) {
+        Validate.notNull(metrics);
+        this.metrics = metrics;
+    }
+
+    @Override
+    public AccountReport<AlfabankOperation> find(AccountReportId reportId) {
+        try (Stream<AlfabankOperation> operations = stream(reportId)) {
+            return new AccountReport<>(reportId, operations.toList());
+        }
+    }
+
+    @Override
+    public Stream<AlfabankOperation> stream(AccountReportId reportId) {
+        return stream(reportId, 0);
+    }
+
+    @Override
+    public Stream<AlfabankOperation> stream(AccountReportId reportId, long skip) {
+        Validate.notNull(reportId);
+        Validate.isTrue(skip >= 0);
+        final byte[] content;
+        synchronized (this) {
+            final StoredReport report = reports.get(reportId.name());
+            Validate.isTrue(report != null, "Report does not exist: %s", reportId.name());
+            content = report.content();
+        }
+        try {
+            return AlfabankReportRepositoryFiles.operations(
+                    new CsvReportReader(new ByteArrayInputStream(content), AlfabankReportRepositoryFiles.REPORT_CHARSET),
+                    skip, metrics);
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    @Override
+    public synchronized List<AccountReportId> findAll() {
+        return reports.values().stream().map(StoredReport::reportId).toList();
+    }
+
+    @Override
+    public synchronized List<AccountReportId> findUnprocessed() {
+        return reports.values().stream()
+                .map(StoredReport::reportId)
+                .filter(reportId -> AlfabankReportRepositoryFiles.isUnprocessedReportName(reportId.name()))
+                .toList();
+    }
+
+    @Override
+    public synchronized AccountReportId findUnprocessed(String name) {
+        Validate.notEmpty(name);
+        final StoredReport report = reports.get(name);
+        return report != null && AlfabankReportRepositoryFiles.isUnprocessedReportName(name) ? report.reportId() : null;
+    }
+
+    @Override
+    public synchronized void markProcessed(AccountReportId reportId) {
+        Validate.notNull(reportId);
+        Validate.isTrue(AlfabankReportRepositoryFiles.isUnprocessedReportName(reportId.name()));
+        final String processedName = AlfabankReportRepositoryFiles.processedName(reportId.name());
+        Validate.isTrue(reports.containsKey(reportId.name()));
+        Validate.isTrue(!reports.containsKey(processedName));
+
+        final StoredReport report = reports.remove(reportId.name());
+        reports.put(processedName, new StoredReport(new AccountReportId(processedName, report.reportId().dateImported()),
+                report.content()));
+        checkpoints.remove(reportId.name());
+    }
+
+    @Override
+    public synchronized long findCheckpoint(AccountReportId reportId) {
+        Validate.notNull(reportId);
+        return checkpoints.getOrDefault(reportId.name(), 0L);
+    }
+
+    @Override
+    public synchronized void saveCheckpoint(AccountReportId reportId, long rows) {
+        Validate.notNull(reportId);
+        Validate.isTrue(rows >= 0);
+        checkpoints.put(reportId.name(), rows);
+    }
+
+    @Override
+    public synchronized boolean quarantine(AccountReportId reportId, ReportValidation validation) {
+        Validate.notNull(reportId);
+        Validate.notNull(validation);
+        Validate.isTrue(reports.remove(reportId.name()) != null, "Report does not exist:", reportId.name());
+        checkpoints.remove(reportId.name());
+        quarantined.put(reportId.name(), validation);
+        return true;
+    }
+
+    /**
+     * @param name name of the report
+     * @return validation of the quarantined report or null if the report is not quarantined
+     */
+    public synchronized ReportValidation findQuarantined(String name) {
+        return quarantined.get(name);
+    }
+
+    @Override
+    public AccountReportId save(String name, InputStream content) throws IOException {
+        Validate.notEmpty(name);
+        Validate.notNull(content);
+        Validate.isTrue(AlfabankReportRepositoryFiles.isUnprocessedReportName(name), "Invalid name of report: ", name);
+
+        final byte[] bytes = content.readAllBytes();
+        synchronized (this) {
+            Validate.isTrue(!reports.containsKey(name), "Report already exists:", name);
+            Validate.isTrue(!reports.containsKey(AlfabankReportRepositoryFiles.processedName(name)),
+                    "Report with this name is already processed earlier:", name);
+            final AccountReportId reportId = new AccountReportId(name, Instant.now());
+            reports.put(name, new StoredReport(reportId, bytes));
+            quarantined.remove(name);
+            return reportId;
+        }
+    }
+
+    private record StoredReport(AccountReportId reportId, byte[] content) {
+    }
+}
@@ -0,0 +1,198 @@
+package ru.vzotov.alfabank.infrastructure.fs;
+
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.vzotov.accounting.domain.model.AccountReportId;
+import ru.vzotov.alfabank.domain.model.AlfabankReportRepository;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+/**
+ * Watches the directory of reports and notifies about new reports as soon as they are completely written.
+ * <p>
+ * A report is considered complete when its size has not changed during the quiet period
+ * and it ends with a line break. Reports that never get a trailing line break are accepted
+ * after {@value #MAX_INCOMPLETE_CHECKS} quiet periods without changes.
+ */
+public class AlfabankReportWatcher implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(AlfabankReportWatcher.class);
+
+    private static final int MAX_INCOMPLETE_CHECKS = 5;
+
+    private final AlfabankReportRepository repository;
+
+    private final Path directory;
+
+    private final Duration quietPeriod;
+
+    private final Consumer<AccountReportId> listener;
+
+    private final Map<String, Candidate> candidates = new HashMap<>();
+
+    private volatile WatchService watchService;
+
+    private Thread thread;
+
+    /**
+     * @param repository  repository of reports
+     * @param directory   directory of reports
+     * @param quietPeriod time without changes after which a report is checked for completeness
+     * @param listener    listener of new reports, it is called on the thread of the watcher
+     */
+    public AlfabankReportWatcher(AlfabankReportRepository repository, Path directory, Duration quietPeriod,
+                                 Consumer<AccountReportId> listener) {
+        Validate.notNull(repository);
+        Validate.notNull(directory);
+        Validate.isTrue(quietPeriod != null && !quietPeriod.isNegative() && !quietPeriod.isZero());
+        Validate.notNull(listener);
+        this.repository = repository;
+        this.directory = directory;
+        this.quietPeriod = quietPeriod;
+        this.listener = listener;
+    }
+
+    public synchronized void start() throws IOException {
+        Validate.validState(thread == null, "Watcher is already started");
+
+        watchService = FileSystems.getDefault().newWatchService();
+        directory.register(watchService, ENTRY_CREATE, ENTRY_MODIFY);
+
+        thread = new Thread(this::run, "alfabank-report-watcher");
+        thread.setDaemon(true);
+        thread.start();
+
+        log.info("Watching for new alfabank reports in {}", directory);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (watchService != null) {
+            watchService.close();
+        }
+        if (thread != null) {
+            thread.interrupt();
+            thread = null;
+        }
+    }
+
+    private void run() {
+        final long tick = Math.max(quietPeriod.toMillis() / 2, 1);
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                final WatchKey key = watchService.poll(tick, TimeUnit.MILLISECONDS);
+                if (key != null) {
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (OVERFLOW.equals(event.kind())) {
+                            rescan();
+                        } else {
+                            changed(Objects.toString(event.context()));
+                        }
+                    }
+                    key.reset();
+                }
+                checkCandidates();
+            }
+        } catch (ClosedWatchServiceException | InterruptedException e) {
+            log.info("Stopped watching for new alfabank reports in {}", directory);
+        }
+    }
+
+    private void rescan() {
+        final String[] names = directory.toFile().list();
+        if (names != null) {
+            for (String name : names) {
+                changed(name);
+            }
+        }
+    }
+
+    private void changed(String name) {
+        if (AlfabankReportRepositoryFiles.isUnprocessedReportName(name)) {
+            candidates.computeIfAbsent(name, n -> new Candidate()).changedAt = System.nanoTime();
+        }
+    }
+
+    private void checkCandidates() {
+        final long now = System.nanoTime();
+        for (Iterator<Map.Entry<String, Candidate>> it = candidates.entrySet().iterator(); it.hasNext(); ) {
+            final Map.Entry<String, Candidate> entry = it.next();
+            final Candidate candidate = entry.getValue();
+            if (now - candidate.changedAt < quietPeriod.toNanos()) {
+                continue;
+            }
+
+            final File file = directory.resolve(entry.getKey()).toFile();
+            if (!file.isFile()) {
+                it.remove();
+                continue;
+            }
+
+            final long size = file.length();
+            if (size != candidate.size) {
+                candidate.size = size;
+                candidate.changedAt = now;
+                continue;
+            }
+
+            if (!endsWithLineBreak(file) && ++candidate.incompleteChecks < MAX_INCOMPLETE_CHECKS) {
+                candidate.changedAt = now;
+                continue;
+            }
+
+            it.remove();
+            notifyListener(entry.getKey());
+        }
+    }
+
+    private void notifyListener(String name) {
+        try {
+            final AccountReportId reportId = repository.findUnprocessed(name);
+            if (reportId != null) {
+                log.info("New report {} is ready", reportId);
+                listener.accept(reportId);
+            }
+        } catch (RuntimeException e) {
+            log.warn("Unable to process new report {}", name, e);
+        }
+    }
+
+    private static boolean endsWithLineBreak(File file) {
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            if (in.length() == 0) {
+                return false;
+            }
+            in.seek(in.length() - 1);
+            return in.read() == '\n';
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static class Candidate {
+        long changedAt;
+        long size = -1;
+        int incompleteChecks;
+    }
+}
@@ -0,0 +1,275 @@
+package ru.vzotov.alfabank.infrastructure.fs;
+
+import org.apache.commons.lang3.StringUtils;
+import ru.vzotov.alfabank.domain.model.CardOperation;
+import ru.vzotov.alfabank.domain.model.MinorUnits;
+import ru.vzotov.alfabank.domain.model.PosInfo;
+
+import java.text.ParseException;
+import java.util.Arrays;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static ru.vzotov.alfabank.infrastructure.fs.ReportValues.DATE_LENGTH;
+import static ru.vzotov.alfabank.infrastructure.fs.ReportValues.US_DECIMAL_SEPARATOR;
+import static ru.vzotov.alfabank.infrastructure.fs.ReportValues.isDate;
+import static ru.vzotov.alfabank.infrastructure.fs.ReportValues.isDigit;
+import static ru.vzotov.alfabank.infrastructure.fs.ReportValues.parseMinorUnits;
+import static ru.vzotov.alfabank.infrastructure.fs.ReportValues.parseDate;
+
+/**
+ * Parser of card operation descriptions.
+ * <p>
+ * Description of a card operation has a fixed layout:
+ * <pre>
+ * 555957++++++1234    10705017\RUS\MOSCOW\1 YA T\ROSTELECOM             10.07.18 07.07.18       500.00  RUR MCC4812
+ * </pre>
+ * i.e. card mask, 49 characters of POS information, authorization and purchase dates, 13 characters of amount,
+ * currency, optional extra information and MCC code.
+ * <p>
+ * Fields are located by their offsets, the regular expression is used only when the fast path does not recognize
+ * the layout. Instances are immutable and may be shared between threads.
+ */
+public final class CardOperationParser {
+
+    private static final Pattern CARD_OPERATION = Pattern.compile(
+            "([0-9]{6}[+0-9 ]{10,13}) (\\p{ASCII}{49}) (\\d{2}\\.\\d{2}\\.\\d{2}) (\\d{2}\\.\\d{2}\\.\\d{2}) ([ 0-9.]{13}) ([A-Z]{3}) (.*?)(MCC\\d{4})");
+
+    private static final int CARD_MIN_LENGTH = 16;
+    private static final int CARD_MAX_LENGTH = 19;
+    private static final int CARD_PREFIX_LENGTH = 6;
+    private static final int POS_LENGTH = 49;
+    private static final int AMOUNT_LENGTH = 13;
+    private static final int CURRENCY_LENGTH = 3;
+    private static final int MCC_LENGTH = 7;
+
+
+    /**
+     * Offset of the extra information relative to the end of the card mask
+     */
+    private static final int EXTRA_OFFSET = 1 + POS_LENGTH + 1 + DATE_LENGTH + 1 + DATE_LENGTH + 1 + AMOUNT_LENGTH + 1 + CURRENCY_LENGTH + 1;
+
+    /**
+     * Parses description of the operation.
+     *
+     * @param description description of the operation
+     * @return card operation or null if the description does not belong to a card operation
+     * @throws ParseException if amount of the card operation can not be parsed
+     */
+    public CardOperation parse(final String description) throws ParseException {
+        return parse(description, StringInterner.NONE);
+    }
+
+    /**
+     * Parses description of the operation. Values that repeat from row to row are taken from the interner.
+     *
+     * @param description description of the operation
+     * @param interner    interner of values
+     * @return card operation or null if the description does not belong to a card operation
+     * @throws ParseException if amount of the card operation can not be parsed
+     */
+    CardOperation parse(final String description, final StringInterner interner) throws ParseException {
+        final int length = description.length();
+        if (!endsWithMcc(description, length)) {
+            return null;
+        }
+
+        for (int cardLength = CARD_MAX_LENGTH; cardLength >= CARD_MIN_LENGTH; cardLength--) {
+            if (matchesLayout(description, length, cardLength)) {
+                return parseFields(description, length, cardLength, interner);
+            }
+        }
+
+        return parseWithPattern(description, interner);
+    }
+
+    /**
+     * Parses POS information.
+     *
+     * @param posInfo POS information, parts are separated with slashes or backslashes
+     * @return POS information
+     */
+    public PosInfo parsePosInfo(final String posInfo) {
+        return parsePosInfo(posInfo, 0, posInfo.length(), StringInterner.NONE);
+    }
+
+    /**
+     * Parses POS information located in the given characters.
+     * Parts are split the way {@code String.split("[\\\\/]")} does it, i.e. trailing empty parts are dropped.
+     */
+    PosInfo parsePosInfo(final CharSequence s, final int from, final int to, final StringInterner interner) {
+        int[] separators = new int[8];
+        int count = 0;
+        for (int i = from; i < to; i++) {
+            final char c = s.charAt(i);
+            if (c == '\\' || c == '/') {
+                if (count == separators.length) {
+                    separators = Arrays.copyOf(separators, count * 2);
+                }
+                separators[count++] = i;
+            }
+        }
+
+        int parts = count + 1;
+        if (count > 0) {
+            while (parts > 0 && partStart(separators, parts - 1, from) == partEnd(separators, count, parts - 1, to)) {
+                parts--;
+            }
+        }
+        if (parts < 2) {
+            throw new ArrayIndexOutOfBoundsException("Index 1 out of bounds for length " + parts);
+        }
+
+        final String posNumber = part(s, separators, count, 0, from, to, interner);
+        final String countryCode = part(s, separators, count, 1, from, to, interner);
+        final String city = parts < 4 ? null : part(s, separators, count, 2, from, to, interner);
+        final String street = parts < 5 ? null : part(s, separators, count, 3, from, to, interner);
+        final String merchant = part(s, separators, count, parts - 1, from, to, interner);
+
+        return new PosInfo(posNumber, countryCode, city, street, merchant);
+    }
+
+    private PosInfo parseTrimmedPosInfo(CharSequence s, int from, int to, StringInterner interner) {
+        while (from < to && s.charAt(from) <= ' ') {
+            from++;
+        }
+        while (to > from && s.charAt(to - 1) <= ' ') {
+            to--;
+        }
+        return parsePosInfo(s, from, to, interner);
+    }
+
+    private static String part(CharSequence s, int[] separators, int count, int part, int from, int to, StringInterner interner) {
+        return interner.internTrimmed(s, partStart(separators, part, from), partEnd(separators, count, part, to));
+    }
+
+    private static int partStart(int[] separators, int part, int from) {
+        return part == 0 ? from : separators[part - 1] + 1;
+    }
+
+    private static int partEnd(int[] separators, int count, int part, int to) {
+        return part < count ? separators[part] : to;
+    }
+
+    private CardOperation parseFields(String description, int length, int cardLength, StringInterner interner) throws ParseException {
+        final int pos = cardLength + 1;
+        final int authDate = pos + POS_LENGTH + 1;
+        final int purchaseDate = authDate + DATE_LENGTH + 1;
+        final int amount = purchaseDate + DATE_LENGTH + 1;
+        final int currency = amount + AMOUNT_LENGTH + 1;
+        final int extra = currency + CURRENCY_LENGTH + 1;
+        final int mcc = length - MCC_LENGTH;
+
+        final String extraInfo = interner.internTrimmed(description, extra, mcc);
+        final String currencyCode = interner.intern(description, currency, currency + CURRENCY_LENGTH);
+        return new CardOperation(
+                interner.internTrimmed(description, 0, cardLength),
+                parseTrimmedPosInfo(description, pos, pos + POS_LENGTH, interner),
+                parseDate(description, authDate),
+                parseDate(description, purchaseDate),
+                parseMinorUnits(description, amount, amount + AMOUNT_LENGTH, US_DECIMAL_SEPARATOR,
+                        MinorUnits.fractionDigits(currencyCode)),
+                currencyCode,
+                extraInfo.isEmpty() ? null : extraInfo,
+                interner.intern(description, mcc + 3, length)
+        );
+    }
+
+    private CardOperation parseWithPattern(String description, StringInterner interner) throws ParseException {
+        final Matcher matcher = CARD_OPERATION.matcher(description);
+        if (!matcher.matches()) {
+            return null;
+        }
+
+        final String amount = matcher.group(5);
+        final String currencyCode = interner.intern(matcher.group(6));
+        return new CardOperation(
+                interner.internTrimmed(description, matcher.start(1), matcher.end(1)),
+                parseTrimmedPosInfo(description, matcher.start(2), matcher.end(2), interner),
+                parseDate(description, matcher.start(3)),
+                parseDate(description, matcher.start(4)),
+                parseMinorUnits(amount, US_DECIMAL_SEPARATOR, MinorUnits.fractionDigits(currencyCode)),
+                currencyCode,
+                interner.intern(StringUtils.trimToNull(matcher.group(7).trim())),
+                interner.intern(description, matcher.start(8) + 3, matcher.end(8))
+        );
+    }
+
+    private static boolean matchesLayout(String s, int length, int cardLength) {
+        final int extra = cardLength + EXTRA_OFFSET;
+        if (extra > length - MCC_LENGTH) {
+            return false;
+        }
+
+        for (int i = 0; i < CARD_PREFIX_LENGTH; i++) {
+            if (!isDigit(s.charAt(i))) {
+                return false;
+            }
+        }
+        for (int i = CARD_PREFIX_LENGTH; i < cardLength; i++) {
+            final char c = s.charAt(i);
+            if (c != '+' && c != ' ' && !isDigit(c)) {
+                return false;
+            }
+        }
+
+        int i = cardLength;
+        if (s.charAt(i++) != ' ') {
+            return false;
+        }
+        for (final int end = i + POS_LENGTH; i < end; i++) {
+            if (s.charAt(i) > 0x7F) {
+                return false;
+            }
+        }
+        if (s.charAt(i++) != ' ' || !isDate(s, i)) {
+            return false;
+        }
+        i += DATE_LENGTH;
+        if (s.charAt(i++) != ' ' || !isDate(s, i)) {
+            return false;
+        }
+        i += DATE_LENGTH;
+        if (s.charAt(i++) != ' ') {
+            return false;
+        }
+        for (final int end = i + AMOUNT_LENGTH; i < end; i++) {
+            final char c = s.charAt(i);
+            if (c != ' ' && c != '.' && !isDigit(c)) {
+                return false;
+            }
+        }
+        if (s.charAt(i++) != ' ') {
+            return false;
+        }
+        for (final int end = i + CURRENCY_LENGTH; i < end; i++) {
+            final char c = s.charAt(i);
+            if (c < 'A' || c > 'Z') {
+                return false;
+            }
+        }
+        if (s.charAt(i++) != ' ') {
+            return false;
+        }
+        for (final int end = length - MCC_LENGTH; i < end; i++) {
+            if (isLineTerminator(s.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean endsWithMcc(String s, int length) {
+        if (length < MCC_LENGTH) {
+            return false;
+        }
+        final int mcc = length - MCC_LENGTH;
+        return s.charAt(mcc) == 'M' && s.charAt(mcc + 1) == 'C' && s.charAt(mcc + 2) == 'C'
+                && isDigit(s.charAt(mcc + 3)) && isDigit(s.charAt(mcc + 4))
+                && isDigit(s.charAt(mcc + 5)) && isDigit(s.charAt(mcc + 6));
+    }
+
+    private static boolean isLineTerminator(char c) {
+        return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+    }
+}
@@ -0,0 +1,78 @@
+package ru.vzotov.alfabank.infrastructure.fs;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.io.IOUtils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.util.stream.Stream;
+
+/**
+ * Reads reports with commons-csv.
+ */
+final class CsvReportReader implements ReportReader {
+
+    private static final CSVFormat CSV_FORMAT = CSVFormat.Builder.create(CSVFormat.Predefined.Default.getFormat())
+            .setDelimiter(';')
+            .setTrailingDelimiter(true)
+            .setHeader()
+            .setSkipHeaderRecord(true)
+            .build();
+
+    private final CSVParser parser;
+
+    private final ReportColumns columns;
+
+    CsvReportReader(File file, Charset charset) throws IOException {
+        this(new FileInputStream(file), charset);
+    }
+
+    /**
+     * @param content content of the report, it is closed with the reader
+     * @param charset charset of the report
+     */
+    CsvReportReader(InputStream content, Charset charset) throws IOException {
+        final Reader in = new InputStreamReader(content, charset);
+        try {
+            this.parser = CSV_FORMAT.parse(in);
+            this.columns = ReportColumns.of(parser.getHeaderMap());
+        } catch (IOException | RuntimeException e) {
+            IOUtils.closeQuietly(in);
+            throw e;
+        }
+    }
+
+    @Override
+    public ReportColumns columns() {
+        return columns;
+    }
+
+    @Override
+    public Stream<ReportRecord> records() {
+        return parser.stream().map(record -> {
+            final long line = parser.getCurrentLineNumber();
+            return new ReportRecord() {
+                @Override
+                public String get(int column) {
+                    return record.get(column);
+                }
+
+                @Override
+                public long line() {
+                    return line;
+                }
+            };
+        });
+    }
+
+    @Override
+    public void close() throws IOException {
+        parser.close();
+    }
+}
@@ -0,0 +1,254 @@
+package ru.vzotov.alfabank.infrastructure.fs;
+
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.vzotov.alfabank.application.HoldIndex;
+import ru.vzotov.alfabank.application.OperationRegistration;
+import ru.vzotov.banking.domain.model.OperationType;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Clock;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * Index of HOLD operations stored in the directory of reports.
+ * <p>
+ * Holds of every account are kept in {@code .alfabank-holds/<account>.holds}. A completed operation may match a hold
+ * of the same account, type and amount dated within the match window before or after the operation.
+ * Holds are looked up by their type and amount. Amounts of card operations in a foreign currency are not compared,
+ * because the bank converts them again when they are completed. Holds written by earlier versions have no amount
+ * and may match operations of any amount.
+ * <p>
+ * Holds registered before the account got into the index are unknown, so every operation dated
+ * up to the window after the account got into the index may match. Holds are forgotten
+ * when they are older than two windows, the bank releases them long before.
+ */
+public class HoldIndexFiles implements HoldIndex {
+
+    private static final Logger log = LoggerFactory.getLogger(HoldIndexFiles.class);
+
+    static final String INDEX_DIRECTORY = ".alfabank-holds";
+
+    private static final String INDEX_EXT = ".holds";
+
+    private static final String SINCE = "since";
+
+    private static final char SEPARATOR = '\t';
+
+    private static final Pattern ACCOUNT_NUMBER = Pattern.compile("[0-9A-Za-z]+");
+
+    private final File directory;
+
+    private final int windowDays;
+
+    private final Clock clock;
+
+    private final Map<String, AccountHolds> accounts = new ConcurrentHashMap<>();
+
+    /**
+     * @param baseDirectoryPath directory of reports
+     * @param windowDays        maximum number of days between a hold and its completed operation
+     */
+    public HoldIndexFiles(String baseDirectoryPath, int windowDays) {
+        this(baseDirectoryPath, windowDays, Clock.systemDefaultZone());
+    }
+
+    HoldIndexFiles(String baseDirectoryPath, int windowDays, Clock clock) {
+        Validate.notEmpty(baseDirectoryPath);
+        Validate.isTrue(windowDays > 0, "Match window must be positive:", windowDays);
+        Validate.notNull(clock);
+        this.directory = new File(baseDirectoryPath, INDEX_DIRECTORY);
+        this.windowDays = windowDays;
+        this.clock = clock;
+    }
+
+    @Override
+    public boolean mayMatch(OperationRegistration operation) {
+        final String accountNumber = operation.account().value();
+        if (!ACCOUNT_NUMBER.matcher(accountNumber).matches()) {
+            return true;
+        }
+        final OperationRegistration.Card card = operation.card();
+        final boolean foreign = card != null && card.amount() != null
+                && !card.amount().currency().equals(operation.amount().currency());
+        return account(accountNumber).mayMatch(operation.date(), new HoldKey(operation.type(),
+                foreign ? null : operation.amount().rawAmount(), foreign ? null : operation.amount().currency().getCurrencyCode()));
+    }
+
+    @Override
+    public void holdsRegistered(List<OperationRegistration> holds) {
+        final Map<String, List<Hold>> byAccount = new LinkedHashMap<>();
+        for (OperationRegistration hold : holds) {
+            Validate.isTrue(hold.isHold(), "Operation is not a hold:", hold);
+            byAccount.computeIfAbsent(hold.account().value(), number -> new ArrayList<>())
+                    .add(new Hold(hold.date(), new HoldKey(hold.type(), hold.amount().rawAmount(),
+                            hold.amount().currency().getCurrencyCode())));
+        }
+        byAccount.forEach((accountNumber, accountHolds) -> {
+            if (ACCOUNT_NUMBER.matcher(accountNumber).matches()) {
+                account(accountNumber).add(accountHolds, LocalDate.now(clock).minusDays(2L * windowDays));
+            }
+        });
+    }
+
+    private AccountHolds account(String accountNumber) {
+        return accounts.computeIfAbsent(accountNumber, number -> new AccountHolds(new File(directory, number + INDEX_EXT)));
+    }
+
+    /**
+     * Type and amount of a hold, the amount and currency are null if they are unknown
+     */
+    private record HoldKey(OperationType type, Long amount, String currency) {
+
+        HoldKey withoutAmount() {
+            return new HoldKey(type, null, null);
+        }
+    }
+
+    private record Hold(LocalDate date, HoldKey key) {
+    }
+
+    /**
+     * Holds of a single account
+     */
+    private class AccountHolds {
+
+        private final Path file;
+
+        private final List<Hold> holds = new ArrayList<>();
+
+        /**
+         * Dates of holds by their type and amount
+         */
+        private final Map<HoldKey, List<LocalDate>> dates = new HashMap<>();
+
+        private LocalDate since;
+
+        AccountHolds(File file) {
+            this.file = file.toPath();
+            load();
+        }
+
+        /**
+         * @param key type and amount of the completed operation, the amount is null if amounts are not compared
+         */
+        synchronized boolean mayMatch(LocalDate date, HoldKey key) {
+            if (!date.isAfter(since.plusDays(windowDays))) {
+                return true;
+            }
+            if (key.amount() == null) {
+                for (Hold hold : holds) {
+                    if (hold.key().type().equals(key.type()) && isWithinWindow(hold.date(), date)) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+            return isWithinWindow(dates.get(key), date) || isWithinWindow(dates.get(key.withoutAmount()), date);
+        }
+
+        synchronized void add(List<Hold> added, LocalDate forgetBefore) {
+            holds.removeIf(hold -> hold.date().isBefore(forgetBefore));
+            holds.addAll(added);
+            dates.clear();
+            holds.forEach(this::index);
+            save();
+        }
+
+        private void index(Hold hold) {
+            dates.computeIfAbsent(hold.key(), key -> new ArrayList<>()).add(hold.date());
+        }
+
+        private boolean isWithinWindow(List<LocalDate> holdDates, LocalDate date) {
+            if (holdDates != null) {
+                for (LocalDate holdDate : holdDates) {
+                    if (isWithinWindow(holdDate, date)) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+        private boolean isWithinWindow(LocalDate holdDate, LocalDate date) {
+            return !date.isBefore(holdDate.minusDays(windowDays)) && !date.isAfter(holdDate.plusDays(windowDays));
+        }
+
+        private void load() {
+            if (Files.isRegularFile(file)) {
+                try (BufferedReader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                    final String header = in.readLine();
+                    Validate.validState(header != null && header.startsWith(SINCE + SEPARATOR), "Unknown format of holds");
+                    final LocalDate loadedSince = LocalDate.parse(header.substring(SINCE.length() + 1));
+                    String line;
+                    while ((line = in.readLine()) != null) {
+                        if (!line.isEmpty()) {
+                            holds.add(parseHold(line));
+                        }
+                    }
+                    holds.forEach(this::index);
+                    since = loadedSince;
+                    return;
+                } catch (IOException | RuntimeException e) {
+                    log.warn("Unable to read holds {}, all operations of the account may match holds for a while", file, e);
+                    holds.clear();
+                    dates.clear();
+                }
+            }
+            since = LocalDate.now(clock);
+            save();
+        }
+
+        /**
+         * Line of a hold is its date, type, amount and currency separated by tabs, lines of earlier versions have no amount
+         */
+        private static Hold parseHold(String line) {
+            final String[] fields = line.split(String.valueOf(SEPARATOR));
+            final OperationType type = OperationType.valueOf(fields[1]);
+            return new Hold(LocalDate.parse(fields[0]), fields.length < 4
+                    ? new HoldKey(type, null, null)
+                    : new HoldKey(type, Long.parseLong(fields[2]), fields[3]));
+        }
+
+        private static String formatHold(Hold hold) {
+            final HoldKey key = hold.key();
+            final String line = hold.date().toString() + SEPARATOR + key.type().name();
+            return key.amount() == null ? line : line + SEPARATOR + key.amount() + SEPARATOR + key.currency();
+        }
+
+        private void save() {
+            try {
+                Files.createDirectories(file.getParent());
+                final Path tmp = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+                try {
+                    try (Writer out = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                        out.write(SINCE + SEPARATOR + since + '\n');
+                        for (Hold hold : holds) {
+                            out.write(formatHold(hold) + '\n');
+                        }
+                    }
+                    Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } finally {
+                    Files.deleteIfExists(tmp);
+                }
+            } catch (IOException e) {
+                log.warn("Unable to write holds {}, they are kept in memory only", file, e);
+            }
+        }
+    }
+}
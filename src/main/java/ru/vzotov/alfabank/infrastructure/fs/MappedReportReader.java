@@ -0,0 +1,384 @@
+package ru.vzotov.alfabank.infrastructure.fs;
+
+import org.apache.commons.lang3.Validate;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Reads reports in a single-byte charset straight from the memory-mapped file.
+ * <p>
+ * The format is the one of Alfabank reports: {@code ;} delimiter, trailing delimiter, fields optionally
+ * enclosed in double quotes with doubled quotes inside, CR, LF or CRLF record separators, empty lines are skipped
+ * and the first record is the header. Fields are located without decoding and only requested fields
+ * are decoded with the precomputed table of the charset.
+ * <p>
+ * The reader returns the same record object for every record of the report. It is not thread-safe,
+ * but readers of different ranges of the same report may be used by different threads.
+ * <p>
+ * Reports up to {@value #HEAP_SIZE} bytes are read into a heap buffer, so their files are not held after the reader
+ * is closed. Larger reports are memory-mapped. A mapping can not be released explicitly, it stays until the buffer
+ * is collected by the garbage collector, and until then the file can not be renamed or deleted on Windows.
+ * The reader drops its buffer when it is closed, so the mapping is not kept by a reader that is still referenced.
+ */
+final class MappedReportReader implements ReportReader, ReportRecord {
+
+    /**
+     * Largest file that can be mapped into a single buffer
+     */
+    static final long MAX_SIZE = Integer.MAX_VALUE;
+
+    /**
+     * Largest file that is read into a heap buffer instead of being mapped
+     */
+    static final int HEAP_SIZE = 16 * 1024 * 1024;
+
+    private static final byte DELIMITER = ';';
+    private static final byte QUOTE = '"';
+    private static final byte CR = '\r';
+    private static final byte LF = '\n';
+
+    private ByteBuffer buffer;
+
+    private final char[] decodeTable;
+
+    private final ReportColumns columns;
+
+    private final int limit;
+
+    /**
+     * Records that start at or after this position are not read
+     */
+    private final int stopAt;
+
+    private int position;
+
+    private int recordStart;
+
+    /**
+     * Position up to which line breaks are counted, lines are counted only when they are requested
+     */
+    private int countedTo;
+
+    private long countedLines;
+
+    private int fields;
+
+    /**
+     * Start and end of every field of the current record, ends of the fields with escaped quotes are negative
+     */
+    private int[] bounds = new int[32];
+
+    private char[] chars = new char[256];
+
+    private CharBuffer charView = CharBuffer.wrap(chars);
+
+    MappedReportReader(File file, Charset charset) throws IOException {
+        Validate.isTrue(file.length() <= MAX_SIZE, "Report is too large to be mapped: %s", file);
+        this.decodeTable = decodeTable(charset);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            this.buffer = load(channel);
+        }
+        this.limit = buffer.limit();
+        this.stopAt = limit;
+        this.columns = ReportColumns.of(readHeader());
+    }
+
+    /**
+     * Reads the file into a heap buffer if it is not larger than {@value #HEAP_SIZE} bytes, otherwise maps it.
+     * The mapping stays valid after the channel is closed.
+     *
+     * @param channel channel of the file, it must not be larger than {@value #MAX_SIZE} bytes
+     * @return content of the file
+     */
+    static ByteBuffer load(FileChannel channel) throws IOException {
+        final long size = channel.size();
+        if (size > HEAP_SIZE) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+        final ByteBuffer buffer = ByteBuffer.allocate((int) size);
+        while (buffer.hasRemaining() && channel.read(buffer, buffer.position()) >= 0) {
+            // reads until the buffer is full
+        }
+        Validate.validState(!buffer.hasRemaining(), "File is truncated while it is read");
+        return buffer.flip();
+    }
+
+    private MappedReportReader(MappedReportReader report, int start, int stopAt) {
+        this.buffer = report.buffer;
+        this.decodeTable = report.decodeTable;
+        this.columns = report.columns;
+        this.limit = report.limit;
+        this.stopAt = stopAt;
+        this.position = start;
+        this.countedTo = start;
+    }
+
+    /**
+     * Creates reader of the records of this report that start in the range. Records that start in the range
+     * are read completely even if they end after the range. The start must be the start of a record,
+     * otherwise the records are tokenized incorrectly. The new reader does not have to be closed.
+     *
+     * @param start  start of the first record
+     * @param stopAt records that start at or after this position are not read
+     * @return reader of the range
+     */
+    MappedReportReader range(int start, int stopAt) {
+        Validate.isTrue(start >= 0 && start <= limit && stopAt <= limit);
+        return new MappedReportReader(this, start, stopAt);
+    }
+
+    /**
+     * @return position after the last read record, or the start of the next record when there are no more records
+     */
+    int position() {
+        return position;
+    }
+
+    int limit() {
+        return limit;
+    }
+
+    /**
+     * @return first position at or after the given one that follows a line break
+     */
+    int lineStart(int from) {
+        int i = Math.max(from, 1);
+        while (i < limit && !isLineBreak(buffer.get(i - 1))) {
+            i++;
+        }
+        return Math.min(i, limit);
+    }
+
+    /**
+     * @return first position at or after the given one that is not a line break
+     */
+    int skipLineBreaks(int from) {
+        int i = from;
+        while (i < limit && isLineBreak(buffer.get(i))) {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * Builds table that maps every byte of a single-byte charset to its character
+     */
+    static char[] decodeTable(Charset charset) {
+        Validate.isTrue(charset.newEncoder().maxBytesPerChar() == 1.0f, "Charset %s is not single-byte", charset);
+        final byte[] bytes = new byte[256];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) i;
+        }
+        final char[] table = new String(bytes, charset).toCharArray();
+        Validate.validState(table.length == 256);
+        return table;
+    }
+
+    private Map<String, Integer> readHeader() {
+        final Map<String, Integer> header = new HashMap<>();
+        if (next()) {
+            for (int i = 0; i < fields; i++) {
+                header.putIfAbsent(get(i), i);
+            }
+        }
+        return header;
+    }
+
+    @Override
+    public ReportColumns columns() {
+        return columns;
+    }
+
+    @Override
+    public Stream<ReportRecord> records() {
+        final Spliterator<ReportRecord> spliterator = new Spliterators.AbstractSpliterator<>(Long.MAX_VALUE,
+                Spliterator.ORDERED | Spliterator.NONNULL) {
+            @Override
+            public boolean tryAdvance(Consumer<? super ReportRecord> action) {
+                if (!next()) {
+                    return false;
+                }
+                action.accept(MappedReportReader.this);
+                return true;
+            }
+        };
+        return StreamSupport.stream(spliterator, false);
+    }
+
+    @Override
+    public String get(int column) {
+        final int length = decode(column);
+        return new String(chars, 0, length);
+    }
+
+    /**
+     * Lines are counted from the start of the range of the reader. CR, LF and CRLF are line breaks.
+     */
+    @Override
+    public long line() {
+        for (; countedTo < recordStart; countedTo++) {
+            final byte b = buffer.get(countedTo);
+            if (b == LF || b == CR && (countedTo + 1 >= limit || buffer.get(countedTo + 1) != LF)) {
+                countedLines++;
+            }
+        }
+        return countedLines + 1;
+    }
+
+    /**
+     * Decodes the field into the reusable buffer, so values that are already interned are not copied.
+     */
+    @Override
+    public String get(int column, StringInterner interner) {
+        final int length = decode(column);
+        return interner.intern(charView, 0, length);
+    }
+
+    private int decode(int column) {
+        if (column < 0 || column >= fields) {
+            throw new ArrayIndexOutOfBoundsException("Index " + column + " out of bounds for length " + fields);
+        }
+        final int start = bounds[2 * column];
+        final int end = bounds[2 * column + 1];
+        return end < 0 ? decodeEscaped(start, -end - 1) : decode(start, end);
+    }
+
+    /**
+     * Locates fields of the next record.
+     *
+     * @return false if there are no more records
+     */
+    boolean next() {
+        position = skipLineBreaks(position);
+        recordStart = position;
+        fields = 0;
+        if (position >= limit || position >= stopAt) {
+            return false;
+        }
+
+        while (true) {
+            if (buffer.get(position) == QUOTE) {
+                readQuotedField(limit);
+            } else {
+                final int start = position;
+                while (position < limit && !isSeparator(buffer.get(position))) {
+                    position++;
+                }
+                addField(start, position);
+            }
+
+            if (position >= limit) {
+                return true;
+            }
+            if (buffer.get(position) == DELIMITER) {
+                position++;
+                if (position >= limit || isLineBreak(buffer.get(position))) {
+                    // trailing delimiter
+                    skipLineBreak(limit);
+                    return true;
+                }
+            } else {
+                skipLineBreak(limit);
+                return true;
+            }
+        }
+    }
+
+    private void readQuotedField(int limit) {
+        final int start = ++position;
+        boolean escaped = false;
+        while (true) {
+            Validate.isTrue(position < limit, "EOF reached before encapsulated token finished at %d", start);
+            if (buffer.get(position) == QUOTE) {
+                if (position + 1 < limit && buffer.get(position + 1) == QUOTE) {
+                    escaped = true;
+                    position += 2;
+                    continue;
+                }
+                break;
+            }
+            position++;
+        }
+        final int end = position++;
+        Validate.isTrue(position >= limit || isSeparator(buffer.get(position)),
+                "Invalid char between encapsulated token and delimiter at %d", position);
+        addField(start, escaped ? -end - 1 : end);
+    }
+
+    private void addField(int start, int end) {
+        if (2 * fields + 1 >= bounds.length) {
+            bounds = Arrays.copyOf(bounds, bounds.length * 2);
+        }
+        bounds[2 * fields] = start;
+        bounds[2 * fields + 1] = end;
+        fields++;
+    }
+
+    private void skipLineBreak(int limit) {
+        if (position < limit && buffer.get(position) == CR) {
+            position++;
+        }
+        if (position < limit && buffer.get(position) == LF) {
+            position++;
+        }
+    }
+
+    private int decode(int start, int end) {
+        final char[] chars = chars(end - start);
+        for (int i = start; i < end; i++) {
+            chars[i - start] = decodeTable[buffer.get(i) & 0xFF];
+        }
+        return end - start;
+    }
+
+    private int decodeEscaped(int start, int end) {
+        final char[] chars = chars(end - start);
+        int length = 0;
+        for (int i = start; i < end; i++) {
+            final byte b = buffer.get(i);
+            chars[length++] = decodeTable[b & 0xFF];
+            if (b == QUOTE) {
+                i++;
+            }
+        }
+        return length;
+    }
+
+    private char[] chars(int length) {
+        if (chars.length < length) {
+            chars = new char[Math.max(length, chars.length * 2)];
+            charView = CharBuffer.wrap(chars);
+        }
+        return chars;
+    }
+
+    private static boolean isSeparator(byte b) {
+        return b == DELIMITER || isLineBreak(b);
+    }
+
+    private static boolean isLineBreak(byte b) {
+        return b == CR || b == LF;
+    }
+
+    /**
+     * Drops the buffer of the report, readers of its ranges keep their references to the buffer.
+     */
+    @Override
+    public void close() {
+        buffer = null;
+    }
+}
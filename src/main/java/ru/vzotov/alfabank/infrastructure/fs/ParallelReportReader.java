@@ -0,0 +1,160 @@
+package ru.vzotov.alfabank.infrastructure.fs;
+
+import org.apache.commons.lang3.Validate;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Parses a memory-mapped report by chunks on a {@link ForkJoinPool}, results are returned in the order of the report.
+ * <p>
+ * The report is split into chunks of about the same size. A chunk speculatively starts after the first line break
+ * of its range, because a line break inside a quoted description can not be told from the end of a record
+ * without tokenizing the report from its start. When the chunks are merged, the start of every chunk is checked
+ * against the end of the last record of the previous chunk. A chunk that started inside a record is parsed again
+ * on the merging thread from the right position, so the results are always the same as the ones of
+ * {@link MappedReportReader}. Failures of a chunk are rethrown only if the chunk started at the right position.
+ * <p>
+ * Only a few chunks ahead of the consumer are parsed at the same time, so memory stays bounded
+ * while a large report is streamed.
+ */
+final class ParallelReportReader implements Closeable {
+
+    static final int DEFAULT_CHUNK_SIZE = 4 << 20;
+
+    private final MappedReportReader report;
+
+    private final int chunkSize;
+
+    private final ForkJoinPool pool;
+
+    /**
+     * Parser of a record. It is called by the threads of the pool with an interner that belongs to the chunk.
+     */
+    interface RecordParser<T> {
+        T parse(ReportRecord record, ReportColumns columns, StringInterner interner);
+    }
+
+    ParallelReportReader(File file, Charset charset, int chunkSize, ForkJoinPool pool) throws IOException {
+        Validate.isTrue(chunkSize > 0);
+        Validate.notNull(pool);
+        this.report = new MappedReportReader(file, charset);
+        this.chunkSize = chunkSize;
+        this.pool = pool;
+    }
+
+    ReportColumns columns() {
+        return report.columns();
+    }
+
+    <T> Stream<T> parse(RecordParser<T> parser) {
+        final Iterator<List<T>> chunks = new Chunks<>(parser);
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(chunks, Spliterator.ORDERED | Spliterator.NONNULL), false)
+                .flatMap(List::stream);
+    }
+
+    @Override
+    public void close() throws IOException {
+        report.close();
+    }
+
+    /**
+     * Result of parsing of a chunk
+     */
+    private record Chunk<T>(int start, int stopAt, List<T> values, int end, RuntimeException error) {
+    }
+
+    /**
+     * Iterates over parsed chunks in the order of the report
+     */
+    private class Chunks<T> implements Iterator<List<T>> {
+
+        private final RecordParser<T> parser;
+
+        private final Deque<CompletableFuture<Chunk<T>>> pending = new ArrayDeque<>();
+
+        private final int window = Math.max(2, 2 * pool.getParallelism());
+
+        /**
+         * Start of the next chunk to submit, the first chunk starts right after the header
+         * and the others right after a line break
+         */
+        private int nextRange;
+
+        /**
+         * Position where the next chunk must start
+         */
+        private int expectedStart;
+
+        private boolean finished;
+
+        Chunks(RecordParser<T> parser) {
+            this.parser = parser;
+            this.expectedStart = report.skipLineBreaks(report.position());
+            this.nextRange = expectedStart;
+            fill();
+        }
+
+        private void fill() {
+            while (pending.size() < window && nextRange < report.limit()) {
+                final int start = nextRange;
+                final int stopAt = nextRange + chunkSize >= report.limit() ? report.limit() : report.lineStart(nextRange + chunkSize);
+                nextRange = stopAt;
+                pending.add(CompletableFuture.supplyAsync(() -> parseChunk(start, stopAt), pool));
+            }
+        }
+
+        private Chunk<T> parseChunk(int start, int stopAt) {
+            final MappedReportReader reader = report.range(start, stopAt);
+            final StringInterner interner = new StringInterner();
+            final List<T> values = new ArrayList<>();
+            try {
+                while (reader.next()) {
+                    values.add(parser.parse(reader, report.columns(), interner));
+                }
+                return new Chunk<>(report.skipLineBreaks(start), stopAt, values, reader.position(), null);
+            } catch (RuntimeException e) {
+                return new Chunk<>(report.skipLineBreaks(start), stopAt, values, reader.position(), e);
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !finished && !pending.isEmpty();
+        }
+
+        @Override
+        public List<T> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Chunk<T> chunk = pending.poll().join();
+            if (chunk.start() != expectedStart) {
+                // the chunk started inside a record that began in the previous chunk
+                chunk = parseChunk(expectedStart, Math.max(expectedStart, chunk.stopAt()));
+            }
+            if (chunk.error() != null) {
+                finished = true;
+                pending.forEach(future -> future.cancel(false));
+                throw chunk.error();
+            }
+            expectedStart = chunk.end();
+            fill();
+            return chunk.values();
+        }
+    }
+}
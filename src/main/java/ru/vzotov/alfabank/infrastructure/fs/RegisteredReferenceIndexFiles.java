@@ -0,0 +1,227 @@
+package ru.vzotov.alfabank.infrastructure.fs;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.vzotov.alfabank.application.OperationRegistration;
+import ru.vzotov.alfabank.application.RegisteredReferenceIndex;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * Index of registered operations stored in the directory of reports.
+ * <p>
+ * Identities of operations of every account are kept in {@code .alfabank-references/<account>.ids},
+ * the identity of every registered operation is appended to the file after every registered batch,
+ * so an identity is written as many times as the operation is registered.
+ * Files of earlier versions kept every identity once, their operations are counted as registered once. The file of an account is loaded
+ * when the account is met for the first time. Delete the directory to register all operations again,
+ * e.g. after the accounting data is restored from a backup.
+ * <p>
+ * Identities are 64-bit hashes, not a Bloom filter: a false positive would silently drop a new operation, while
+ * a collision of 64-bit hashes is negligible for the number of operations of an account.
+ * Files of earlier versions that kept hashes of references only are ignored.
+ */
+public class RegisteredReferenceIndexFiles implements RegisteredReferenceIndex {
+
+    private static final Logger log = LoggerFactory.getLogger(RegisteredReferenceIndexFiles.class);
+
+    static final String INDEX_DIRECTORY = ".alfabank-references";
+
+    private static final String INDEX_EXT = ".ids";
+
+    private static final Pattern ACCOUNT_NUMBER = Pattern.compile("[0-9A-Za-z]+");
+
+    private final File directory;
+
+    private final Map<String, AccountReferences> accounts = new ConcurrentHashMap<>();
+
+    /**
+     * @param baseDirectoryPath directory of reports
+     */
+    public RegisteredReferenceIndexFiles(String baseDirectoryPath) {
+        Validate.notEmpty(baseDirectoryPath);
+        this.directory = new File(baseDirectoryPath, INDEX_DIRECTORY);
+    }
+
+    @Override
+    public int count(String accountNumber, long identity) {
+        if (!isIndexed(accountNumber)) {
+            return 0;
+        }
+        return account(accountNumber).count(identity);
+    }
+
+    @Override
+    public void registered(List<OperationRegistration> batch) {
+        for (OperationRegistration operation : batch) {
+            if (operation.isHold()) {
+                continue;
+            }
+            final String accountNumber = operation.account().value();
+            if (isIndexed(accountNumber) && StringUtils.isNotBlank(operation.reference().value())) {
+                account(accountNumber).add(RegisteredReferenceIndex.identity(operation));
+            }
+        }
+        for (AccountReferences account : accounts.values()) {
+            account.flush();
+        }
+    }
+
+    private AccountReferences account(String accountNumber) {
+        return accounts.computeIfAbsent(accountNumber, number -> new AccountReferences(new File(directory, number + INDEX_EXT)));
+    }
+
+    private static boolean isIndexed(String accountNumber) {
+        return accountNumber != null && ACCOUNT_NUMBER.matcher(accountNumber).matches();
+    }
+
+    /**
+     * Identities of operations of a single account
+     */
+    private static class AccountReferences {
+
+        private final File file;
+
+        private final LongCountMap hashes = new LongCountMap();
+
+        private long[] pending = new long[64];
+
+        private int pendingSize;
+
+        AccountReferences(File file) {
+            this.file = file;
+            load();
+        }
+
+        synchronized int count(long hash) {
+            return hashes.get(hash);
+        }
+
+        synchronized void add(long hash) {
+            hashes.increment(hash);
+            if (pendingSize == pending.length) {
+                pending = Arrays.copyOf(pending, pendingSize * 2);
+            }
+            pending[pendingSize++] = hash;
+        }
+
+        synchronized void flush() {
+            if (pendingSize == 0) {
+                return;
+            }
+            try {
+                Validate.validState(file.getParentFile().isDirectory() || file.getParentFile().mkdirs(),
+                        "Unable to create directory %s", file.getParentFile());
+                try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)))) {
+                    for (int i = 0; i < pendingSize; i++) {
+                        out.writeLong(pending[i]);
+                    }
+                }
+            } catch (IOException | IllegalStateException e) {
+                log.warn("Unable to write registered references to {}, they are kept in memory only", file, e);
+            }
+            pendingSize = 0;
+        }
+
+        private void load() {
+            if (!file.isFile()) {
+                return;
+            }
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+                for (long i = file.length() / Long.BYTES; i > 0; i--) {
+                    hashes.increment(in.readLong());
+                }
+            } catch (EOFException e) {
+                log.warn("Registered references {} are truncated", file);
+            } catch (IOException e) {
+                log.warn("Unable to read registered references {}", file, e);
+            }
+        }
+    }
+
+    /**
+     * Open-addressing map of longs to their counts
+     */
+    private static class LongCountMap {
+
+        private long[] keys = new long[1024];
+
+        private int[] counts = new int[1024];
+
+        private int zeroCount;
+
+        private int size;
+
+        int get(long key) {
+            if (key == 0) {
+                return zeroCount;
+            }
+            final int mask = keys.length - 1;
+            for (int i = index(key, mask); ; i = (i + 1) & mask) {
+                if (keys[i] == key) {
+                    return counts[i];
+                }
+                if (keys[i] == 0) {
+                    return 0;
+                }
+            }
+        }
+
+        void increment(long key) {
+            if (key == 0) {
+                zeroCount++;
+                return;
+            }
+            if (2 * (size + 1) > keys.length) {
+                resize();
+            }
+            final int mask = keys.length - 1;
+            int i = index(key, mask);
+            while (keys[i] != 0 && keys[i] != key) {
+                i = (i + 1) & mask;
+            }
+            if (keys[i] == 0) {
+                keys[i] = key;
+                size++;
+            }
+            counts[i]++;
+        }
+
+        private void resize() {
+            final long[] oldKeys = keys;
+            final int[] oldCounts = counts;
+            keys = new long[oldKeys.length * 2];
+            counts = new int[keys.length];
+            final int mask = keys.length - 1;
+            for (int j = 0; j < oldKeys.length; j++) {
+                if (oldKeys[j] != 0) {
+                    int i = index(oldKeys[j], mask);
+                    while (keys[i] != 0) {
+                        i = (i + 1) & mask;
+                    }
+                    keys[i] = oldKeys[j];
+                    counts[i] = oldCounts[j];
+                }
+            }
+        }
+
+        private static int index(long value, int mask) {
+            return (int) (value ^ (value >>> 32)) & mask;
+        }
+    }
+}
@@ -0,0 +1,258 @@
+package ru.vzotov.alfabank.infrastructure.fs;
+
+import org.apache.commons.io.input.BoundedInputStream;
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.vzotov.accounting.domain.model.AccountReportId;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Processed reports compressed into rolling archive files.
+ * <p>
+ * Every report is a separate gzip member appended to the current archive file {@code reports-NNNNN.gz},
+ * so an archive file is itself a gzip file of the concatenated reports. A new archive file is started
+ * when the current one reaches the maximum size.
+ * <p>
+ * Name, location, size and content hash of every report are appended to the index file of the archive,
+ * which is loaded into memory when the archive is opened. If a report is not completely written
+ * its bytes are truncated from the archive file, and a report whose index record is not written
+ * stays in the archive file but is not listed. Several archives must not share the same directory.
+ */
+final class ReportArchive {
+
+    private static final Logger log = LoggerFactory.getLogger(ReportArchive.class);
+
+    static final String INDEX_NAME = "index";
+
+    private static final String INDEX_HEADER = "alfabank-archive 1";
+
+    private static final Pattern ARCHIVE_NAME = Pattern.compile("reports-(\\d+)\\.gz");
+
+    private static final char SEPARATOR = '\t';
+
+    private static final String CONTENT_DIGEST = "SHA-256";
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Path directory;
+
+    private final Path index;
+
+    private final long maxSize;
+
+    private final Map<String, Entry> entries = new LinkedHashMap<>();
+
+    private final Map<String, Entry> byContent = new HashMap<>();
+
+    /**
+     * Number of the archive file that receives new reports
+     */
+    private int current = 1;
+
+    /**
+     * @param directory directory of the archive, it is created when the first report is archived
+     * @param maxSize   size of an archive file after which a new archive file is started
+     */
+    ReportArchive(Path directory, long maxSize) throws IOException {
+        Validate.notNull(directory);
+        Validate.isTrue(maxSize > 0);
+        this.directory = directory;
+        this.index = directory.resolve(INDEX_NAME);
+        this.maxSize = maxSize;
+        if (Files.isDirectory(directory)) {
+            load();
+        }
+    }
+
+    synchronized boolean contains(String name) {
+        return entries.containsKey(name);
+    }
+
+    synchronized List<AccountReportId> findAll() {
+        return entries.values().stream().map(Entry::reportId).toList();
+    }
+
+    /**
+     * @return identifier of the archived report with the same content or null if there is no such report
+     */
+    synchronized AccountReportId find(long size, String hash) {
+        final Entry entry = byContent.get(hash);
+        return entry != null && entry.size() == size ? entry.reportId() : null;
+    }
+
+    /**
+     * Compresses the report to the end of the current archive file and adds it to the index.
+     *
+     * @param reportId identifier of the report in the archive
+     * @param report   file of the report, it is not removed
+     */
+    synchronized void add(AccountReportId reportId, Path report) throws IOException {
+        Validate.notNull(reportId);
+        Validate.isTrue(!entries.containsKey(reportId.name()), "Report is already archived: %s", reportId.name());
+        Validate.isTrue(isIndexable(reportId.name()), "Invalid name of report: %s", reportId.name());
+
+        Files.createDirectories(directory);
+        Path file = archiveFile(current);
+        if (Files.exists(file) && Files.size(file) >= maxSize) {
+            file = archiveFile(++current);
+        }
+
+        final MessageDigest digest = newContentDigest();
+        final long offset = Files.exists(file) ? Files.size(file) : 0;
+        final long size;
+        try (InputStream in = new DigestInputStream(Files.newInputStream(report), digest);
+             OutputStream out = new GZIPOutputStream(Files.newOutputStream(file,
+                     StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND), BUFFER_SIZE)) {
+            size = in.transferTo(out);
+        } catch (IOException | RuntimeException e) {
+            truncate(file, offset);
+            throw e;
+        }
+
+        final Entry entry = new Entry(reportId, current, offset, Files.size(file) - offset, size,
+                HexFormat.of().formatHex(digest.digest()));
+        final boolean header = !Files.exists(index) || Files.size(index) == 0;
+        try (Writer out = Files.newBufferedWriter(index, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            if (header) {
+                out.write(INDEX_HEADER);
+                out.write('\n');
+            }
+            out.write(entry.toRecord());
+            out.write('\n');
+        } catch (IOException e) {
+            truncate(file, offset);
+            throw e;
+        }
+        put(entry);
+    }
+
+    /**
+     * Opens decompressed content of the archived report. The stream keeps the archive file open
+     * and must be closed by the caller.
+     */
+    InputStream open(String name) throws IOException {
+        final Entry entry;
+        synchronized (this) {
+            entry = entries.get(name);
+        }
+        Validate.isTrue(entry != null, "Report is not archived: %s", name);
+
+        final FileChannel channel = FileChannel.open(archiveFile(entry.file()), StandardOpenOption.READ);
+        try {
+            channel.position(entry.offset());
+            return new GZIPInputStream(new BoundedInputStream(Channels.newInputStream(channel), entry.length()), BUFFER_SIZE);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private Path archiveFile(int number) {
+        return directory.resolve(String.format("reports-%05d.gz", number));
+    }
+
+    private void put(Entry entry) {
+        entries.put(entry.reportId().name(), entry);
+        byContent.putIfAbsent(entry.hash(), entry);
+    }
+
+    private void load() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            files.map(file -> ARCHIVE_NAME.matcher(file.getFileName().toString()))
+                    .filter(Matcher::matches)
+                    .mapToInt(matcher -> Integer.parseInt(matcher.group(1)))
+                    .max()
+                    .ifPresent(number -> current = number);
+        }
+        if (!Files.isRegularFile(index)) {
+            return;
+        }
+
+        try (BufferedReader in = Files.newBufferedReader(index, StandardCharsets.UTF_8)) {
+            Validate.validState(INDEX_HEADER.equals(in.readLine()), "Unknown format of archive index %s", index);
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                try {
+                    put(Entry.parse(line));
+                } catch (RuntimeException e) {
+                    log.warn("Invalid record of archive index {} is skipped: {}", index, line, e);
+                }
+            }
+        }
+    }
+
+    private static void truncate(Path file, long size) {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.truncate(size);
+        } catch (IOException e) {
+            log.warn("Unable to truncate archive {} to {} bytes", file, size, e);
+        }
+    }
+
+    private static boolean isIndexable(String name) {
+        return name.indexOf(SEPARATOR) < 0 && name.indexOf('\n') < 0 && name.indexOf('\r') < 0;
+    }
+
+    private static MessageDigest newContentDigest() {
+        try {
+            return MessageDigest.getInstance(CONTENT_DIGEST);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Archived report.
+     *
+     * @param reportId identifier of the report
+     * @param file     number of the archive file
+     * @param offset   position of the compressed report in the archive file
+     * @param length   length of the compressed report
+     * @param size     size of the report
+     * @param hash     SHA-256 of the content of the report in hex
+     */
+    private record Entry(AccountReportId reportId, int file, long offset, long length, long size, String hash) {
+
+        String toRecord() {
+            return String.join(String.valueOf(SEPARATOR), reportId.name(), reportId.dateImported().toString(),
+                    Integer.toString(file), Long.toString(offset), Long.toString(length), Long.toString(size), hash);
+        }
+
+        static Entry parse(String record) {
+            final String[] fields = record.split(String.valueOf(SEPARATOR));
+            Validate.isTrue(fields.length == 7, "Invalid number of fields: %d", fields.length);
+            return new Entry(new AccountReportId(fields[0], Instant.parse(fields[1])), Integer.parseInt(fields[2]),
+                    Long.parseLong(fields[3]), Long.parseLong(fields[4]), Long.parseLong(fields[5]), fields[6]);
+        }
+    }
+}
@@ -0,0 +1,529 @@
+package ru.vzotov.alfabank.infrastructure.fs;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.vzotov.alfabank.domain.model.AlfabankOperation;
+import ru.vzotov.alfabank.domain.model.CardOperation;
+import ru.vzotov.alfabank.domain.model.PosInfo;
+import ru.vzotov.alfabank.domain.model.TransactionId;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.LongFunction;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Binary cache of parsed operations of a report, stored in the state directory of the repository
+ * in {@code .alfabank-state/<report>.cache}.
+ * <p>
+ * The cache starts with a header of the format version and of the size and modification time of the report,
+ * the cache is used only while the report has the same size and modification time.
+ * Values that repeat from row to row, like account numbers and POS information, are written once
+ * and then referenced by their number. The cache is written while the parsed report is read to its end,
+ * a report that is read partially is not cached.
+ * <p>
+ * The cache ends with a trailer of its length and CRC-32, which are verified before the cache is used.
+ * A corrupt cache is deleted and the report is parsed. If reading of a verified cache still fails,
+ * the cache is deleted and the remaining operations are parsed from the report.
+ */
+final class ReportCache {
+
+    private static final Logger log = LoggerFactory.getLogger(ReportCache.class);
+
+    static final String CACHE_EXT = ".cache";
+
+    private static final int MAGIC = 0x414C4643;
+
+    private static final int VERSION = 4;
+
+    private static final int HEADER_SIZE = 24;
+
+    private static final int TRAILER_SIZE = 16;
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private static final int MAX_DICTIONARY_SIZE = 1 << 16;
+
+    private static final byte RECORD = 1;
+    private static final byte END = 0;
+
+    private static final int NULL = 0;
+    private static final int LITERAL = 1;
+    private static final int NEW_ENTRY = 2;
+    private static final int ENTRY_OFFSET = 3;
+
+    private ReportCache() {
+    }
+
+    static File cacheFile(File report) {
+        return new File(AlfabankReportRepositoryFiles.stateDirectory(report.getParentFile()), report.getName() + CACHE_EXT);
+    }
+
+    /**
+     * Opens cached operations of the report.
+     *
+     * @param report   file of the report
+     * @param fallback parses operations of the report after the given number of rows, if reading of the cache fails
+     * @return operations of the report or null if there is no valid cache
+     */
+    static Stream<AlfabankOperation> read(File report, LongFunction<Stream<AlfabankOperation>> fallback) {
+        final File cache = cacheFile(report);
+        if (!cache.isFile()) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(cache.toPath(), StandardOpenOption.READ)) {
+            final long size = channel.size();
+            if (size > MappedReportReader.MAX_SIZE) {
+                return null;
+            }
+            final ByteBuffer in = MappedReportReader.load(channel);
+            if (size < HEADER_SIZE + TRAILER_SIZE || in.getInt() != MAGIC) {
+                return corrupt(cache, "it is too short or has no header");
+            }
+            if (in.getInt() != VERSION || in.getLong() != report.length() || in.getLong() != report.lastModified()) {
+                return null;
+            }
+            final int length = (int) (size - TRAILER_SIZE);
+            if (in.getLong(length) != length) {
+                return corrupt(cache, "its length does not match");
+            }
+            final CRC32 checksum = new CRC32();
+            checksum.update(in.duplicate().position(0).limit(length));
+            if (in.getLong(length + Long.BYTES) != checksum.getValue()) {
+                return corrupt(cache, "its checksum does not match");
+            }
+            in.limit(length);
+            final FallbackReader reader = new FallbackReader(cache, new CacheReader(in), fallback);
+            return StreamSupport.stream(Spliterators.spliteratorUnknownSize(reader,
+                    Spliterator.ORDERED | Spliterator.NONNULL), false).onClose(reader::close);
+        } catch (IOException e) {
+            log.warn("Unable to read cache {}, the report is parsed", cache, e);
+            return null;
+        }
+    }
+
+    private static Stream<AlfabankOperation> corrupt(File cache, String reason) {
+        log.warn("Cache {} is corrupt, {}, it is deleted and the report is parsed", cache, reason);
+        FileUtils.deleteQuietly(cache);
+        return null;
+    }
+
+    /**
+     * Writes operations to the cache of the report while they are read.
+     * The cache replaces the previous one when all operations are read.
+     * Failures of writing are logged and do not affect the operations.
+     *
+     * @param report     file of the report, its size and modification time must be taken before parsing
+     * @param size       size of the report
+     * @param modified   modification time of the report
+     * @param operations parsed operations of the report
+     * @return the same operations
+     */
+    static Stream<AlfabankOperation> writeThrough(File report, long size, long modified, Stream<AlfabankOperation> operations) {
+        final CacheWriter writer = new CacheWriter(cacheFile(report), size, modified);
+        final Iterator<AlfabankOperation> it = operations.iterator();
+        final Iterator<AlfabankOperation> writing = new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                final boolean hasNext = it.hasNext();
+                if (!hasNext) {
+                    writer.commit();
+                }
+                return hasNext;
+            }
+
+            @Override
+            public AlfabankOperation next() {
+                final AlfabankOperation operation = it.next();
+                writer.write(operation);
+                return operation;
+            }
+        };
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(writing, Spliterator.ORDERED | Spliterator.NONNULL), false)
+                .onClose(writer::discard)
+                .onClose(operations::close);
+    }
+
+    static void delete(File report) {
+        FileUtils.deleteQuietly(cacheFile(report));
+    }
+
+    /**
+     * Moves the cache of the report that is renamed. The rename keeps the size and modification time of the report.
+     */
+    static void move(File report, File renamed) {
+        final File cache = cacheFile(report);
+        if (cache.isFile()) {
+            try {
+                Files.move(cache.toPath(), cacheFile(renamed).toPath(), StandardCopyOption.REPLACE_EXISTING);
+            } catch (IOException e) {
+                log.warn("Unable to move cache {}", cache, e);
+                FileUtils.deleteQuietly(cache);
+            }
+        }
+    }
+
+    private static class CacheWriter {
+
+        private final Path cache;
+
+        private final Map<String, Integer> dictionary = new HashMap<>();
+
+        private final CRC32 checksum = new CRC32();
+
+        private Path tmp;
+
+        private DataOutputStream out;
+
+        private long rows;
+
+        CacheWriter(File cache, long size, long modified) {
+            this.cache = cache.toPath();
+            try {
+                Files.createDirectories(this.cache.getParent());
+                tmp = Files.createTempFile(this.cache.getParent(), cache.getName(), ".tmp");
+                out = new DataOutputStream(new BufferedOutputStream(
+                        new CheckedOutputStream(Files.newOutputStream(tmp), checksum), BUFFER_SIZE));
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(size);
+                out.writeLong(modified);
+            } catch (IOException e) {
+                failed(e);
+            }
+        }
+
+        void write(AlfabankOperation operation) {
+            if (out == null) {
+                return;
+            }
+            try {
+                out.writeByte(RECORD);
+                writeEntry(operation.accountType());
+                writeEntry(operation.accountNumber());
+                writeEntry(operation.currencyCode());
+                writeDate(operation.date());
+                writeLiteral(operation.transactionId().reference());
+                writeLiteral(operation.description());
+                out.writeLong(operation.depositMinor());
+                out.writeLong(operation.withdrawMinor());
+                final CardOperation card = operation.cardOperation();
+                out.writeBoolean(card != null);
+                if (card != null) {
+                    writeEntry(card.cardNumber());
+                    final PosInfo pos = card.posInfo();
+                    out.writeBoolean(pos != null);
+                    if (pos != null) {
+                        writeEntry(pos.terminalId());
+                        writeEntry(pos.country());
+                        writeEntry(pos.city());
+                        writeEntry(pos.street());
+                        writeEntry(pos.merchant());
+                    }
+                    writeDate(card.authDate());
+                    writeDate(card.purchaseDate());
+                    out.writeLong(card.amountMinor());
+                    writeEntry(card.currency());
+                    writeEntry(card.extraInfo());
+                    writeEntry(card.mcc());
+                }
+                rows++;
+            } catch (IOException e) {
+                failed(e);
+            }
+        }
+
+        void commit() {
+            if (out == null) {
+                return;
+            }
+            try {
+                out.writeByte(END);
+                out.writeLong(rows);
+                out.flush();
+                final long length = out.size();
+                final long crc = checksum.getValue();
+                out.writeLong(length);
+                out.writeLong(crc);
+                out.close();
+                out = null;
+                Files.move(tmp, cache, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                tmp = null;
+            } catch (IOException e) {
+                failed(e);
+            }
+        }
+
+        void discard() {
+            IOUtils.closeQuietly(out);
+            out = null;
+            if (tmp != null) {
+                FileUtils.deleteQuietly(tmp.toFile());
+                tmp = null;
+            }
+        }
+
+        private void failed(IOException e) {
+            log.warn("Unable to write cache {}", cache, e);
+            discard();
+        }
+
+        private void writeEntry(String value) throws IOException {
+            if (value == null) {
+                writeVarInt(NULL);
+                return;
+            }
+            final Integer entry = dictionary.get(value);
+            if (entry != null) {
+                writeVarInt(ENTRY_OFFSET + entry);
+            } else if (dictionary.size() < MAX_DICTIONARY_SIZE) {
+                dictionary.put(value, dictionary.size());
+                writeVarInt(NEW_ENTRY);
+                writeString(value);
+            } else {
+                writeVarInt(LITERAL);
+                writeString(value);
+            }
+        }
+
+        private void writeLiteral(String value) throws IOException {
+            if (value == null) {
+                writeVarInt(NULL);
+            } else {
+                writeVarInt(LITERAL);
+                writeString(value);
+            }
+        }
+
+        private void writeString(String value) throws IOException {
+            final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeVarInt(bytes.length);
+            out.write(bytes);
+        }
+
+        private void writeDate(LocalDate date) throws IOException {
+            if (date == null) {
+                writeVarLong(0);
+            } else {
+                final long epochDay = date.toEpochDay();
+                writeVarLong(((epochDay << 1) ^ (epochDay >> 63)) + 1);
+            }
+        }
+
+        private void writeVarInt(int value) throws IOException {
+            writeVarLong(value);
+        }
+
+        private void writeVarLong(long value) throws IOException {
+            while ((value & ~0x7FL) != 0) {
+                out.writeByte((int) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            out.writeByte((int) value);
+        }
+    }
+
+    /**
+     * Reads operations from the cache and continues with parsed operations of the report if the cache fails
+     */
+    private static class FallbackReader implements Iterator<AlfabankOperation> {
+
+        private final File cache;
+
+        private final CacheReader cached;
+
+        private final LongFunction<Stream<AlfabankOperation>> fallback;
+
+        private Stream<AlfabankOperation> parsed;
+
+        private Iterator<AlfabankOperation> parsedOperations;
+
+        private long rows;
+
+        FallbackReader(File cache, CacheReader cached, LongFunction<Stream<AlfabankOperation>> fallback) {
+            this.cache = cache;
+            this.cached = cached;
+            this.fallback = fallback;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (parsedOperations != null) {
+                return parsedOperations.hasNext();
+            }
+            try {
+                return cached.hasNext();
+            } catch (RuntimeException e) {
+                log.warn("Unable to read cache {} after {} rows, it is deleted and the report is parsed", cache, rows, e);
+                FileUtils.deleteQuietly(cache);
+                parsed = fallback.apply(rows);
+                parsedOperations = parsed.iterator();
+                return parsedOperations.hasNext();
+            }
+        }
+
+        @Override
+        public AlfabankOperation next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            rows++;
+            return parsedOperations != null ? parsedOperations.next() : cached.next();
+        }
+
+        void close() {
+            if (parsed != null) {
+                parsed.close();
+            }
+        }
+    }
+
+    private static class CacheReader implements Iterator<AlfabankOperation> {
+
+        private final ByteBuffer in;
+
+        private final List<String> dictionary = new ArrayList<>();
+
+        private byte[] bytes = new byte[256];
+
+        private AlfabankOperation next;
+
+        private long rows;
+
+        private boolean finished;
+
+        CacheReader(ByteBuffer in) {
+            this.in = in;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (next == null && !finished) {
+                try {
+                    next = read();
+                } catch (BufferUnderflowException e) {
+                    throw new IllegalStateException("Cache of the report is truncated", e);
+                }
+            }
+            return next != null;
+        }
+
+        @Override
+        public AlfabankOperation next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            final AlfabankOperation operation = next;
+            next = null;
+            return operation;
+        }
+
+        private AlfabankOperation read() {
+            if (in.get() == END) {
+                finished = true;
+                final long expected = in.getLong();
+                if (expected != rows) {
+                    throw new IllegalStateException("Cache of the report has " + rows + " rows instead of " + expected);
+                }
+                return null;
+            }
+            rows++;
+            final String accountType = readEntry();
+            final String accountNumber = readEntry();
+            final String currencyCode = readEntry();
+            final LocalDate date = readDate();
+            final String reference = readEntry();
+            final String description = readEntry();
+            final long deposit = in.getLong();
+            final long withdraw = in.getLong();
+            CardOperation card = null;
+            if (readBoolean()) {
+                final String cardNumber = readEntry();
+                final PosInfo pos = readBoolean()
+                        ? new PosInfo(readEntry(), readEntry(), readEntry(), readEntry(), readEntry())
+                        : null;
+                final LocalDate authDate = readDate();
+                final LocalDate purchaseDate = readDate();
+                final long amount = in.getLong();
+                card = new CardOperation(cardNumber, pos, authDate, purchaseDate, amount, readEntry(), readEntry(), readEntry());
+            }
+            return new AlfabankOperation(accountType, accountNumber, currencyCode, date, new TransactionId(reference),
+                    description, deposit, withdraw, card);
+        }
+
+        private boolean readBoolean() {
+            return in.get() != 0;
+        }
+
+        private String readEntry() {
+            final int code = readVarInt();
+            return switch (code) {
+                case NULL -> null;
+                case LITERAL -> readString();
+                case NEW_ENTRY -> {
+                    final String value = readString();
+                    dictionary.add(value);
+                    yield value;
+                }
+                default -> dictionary.get(code - ENTRY_OFFSET);
+            };
+        }
+
+        private String readString() {
+            final int length = readVarInt();
+            if (bytes.length < length) {
+                bytes = new byte[Math.max(length, bytes.length * 2)];
+            }
+            in.get(bytes, 0, length);
+            return new String(bytes, 0, length, StandardCharsets.UTF_8);
+        }
+
+        private LocalDate readDate() {
+            final long value = readVarLong();
+            if (value == 0) {
+                return null;
+            }
+            final long zigzag = value - 1;
+            return LocalDate.ofEpochDay((zigzag >>> 1) ^ -(zigzag & 1));
+        }
+
+        private int readVarInt() {
+            return (int) readVarLong();
+        }
+
+        private long readVarLong() {
+            long value = 0;
+            for (int shift = 0; ; shift += 7) {
+                final byte b = in.get();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package ru.vzotov.alfabank.infrastructure.fs;
+
+import org.apache.commons.lang3.Validate;
+
+import java.util.Map;
+
+/**
+ * Indexes of report columns. Columns are resolved by name once per report, so fields are accessed by index.
+ */
+record ReportColumns(int accountType, int accountNumber, int currencyCode, int date,
+                     int reference, int description, int deposit, int withdraw) {
+
+    static final String ACCOUNT_TYPE = "Тип счёта";
+    static final String ACCOUNT_NUMBER = "Номер счета";
+    static final String CURRENCY_CODE = "Валюта";
+    static final String DATE = "Дата операции";
+    static final String REFERENCE = "Референс проводки";
+    static final String DESCRIPTION = "Описание операции";
+    static final String DEPOSIT = "Приход";
+    static final String WITHDRAW = "Расход";
+
+    /**
+     * @param header indexes of columns by name
+     * @return columns of the report
+     * @throws IllegalArgumentException if the report has no required column
+     */
+    static ReportColumns of(Map<String, Integer> header) {
+        return new ReportColumns(
+                column(header, ACCOUNT_TYPE),
+                column(header, ACCOUNT_NUMBER),
+                column(header, CURRENCY_CODE),
+                column(header, DATE),
+                column(header, REFERENCE),
+                column(header, DESCRIPTION),
+                column(header, DEPOSIT),
+                column(header, WITHDRAW)
+        );
+    }
+
+    private static int column(Map<String, Integer> header, String name) {
+        final Integer column = header.get(name);
+        Validate.isTrue(column != null, "Mapping for %s not found, expected one of %s", name, header.keySet());
+        return column;
+    }
+}
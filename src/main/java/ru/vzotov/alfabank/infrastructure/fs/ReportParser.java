@@ -0,0 +1,26 @@
+package ru.vzotov.alfabank.infrastructure.fs;
+
+/**
+ * Strategy of reading report files.
+ */
+public enum ReportParser {
+
+    /**
+     * Reports are decoded to characters and tokenized by commons-csv
+     */
+    COMMONS_CSV,
+
+    /**
+     * Reports are memory-mapped and tokenized straight from the bytes.
+     * Reports that are too large to be mapped are read by commons-csv.
+     */
+    MAPPED,
+
+    /**
+     * Reports are memory-mapped like with {@link #MAPPED}, and large reports are parsed by chunks
+     * on the common {@link java.util.concurrent.ForkJoinPool}.
+     * Small reports, processing that continues from a checkpoint and machines with a single core
+     * read reports on a single thread.
+     */
+    PARALLEL
+}
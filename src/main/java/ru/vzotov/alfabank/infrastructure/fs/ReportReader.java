@@ -0,0 +1,20 @@
+package ru.vzotov.alfabank.infrastructure.fs;
+
+import java.io.Closeable;
+import java.util.stream.Stream;
+
+/**
+ * Reader of report records. The reader keeps the report open until it is closed.
+ */
+interface ReportReader extends Closeable {
+
+    /**
+     * @return columns of the report resolved from its header
+     */
+    ReportColumns columns();
+
+    /**
+     * @return lazy stream of records in report order, the stream does not close the reader
+     */
+    Stream<ReportRecord> records();
+}
@@ -0,0 +1,31 @@
+package ru.vzotov.alfabank.infrastructure.fs;
+
+/**
+ * Record of a report. Records may be reused by readers, so fields must be read before the next record is requested.
+ */
+interface ReportRecord {
+
+    /**
+     * @param column index of the column
+     * @return value of the field
+     * @throws ArrayIndexOutOfBoundsException if the record has no such column
+     */
+    String get(int column);
+
+    /**
+     * @param column   index of the column
+     * @param interner interner of values
+     * @return value of the field taken from the interner
+     * @throws ArrayIndexOutOfBoundsException if the record has no such column
+     */
+    default String get(int column, StringInterner interner) {
+        return interner.intern(get(column));
+    }
+
+    /**
+     * @return number of the line of the report where the record is, starting from 1, or 0 if it is not known
+     */
+    default long line() {
+        return 0;
+    }
+}
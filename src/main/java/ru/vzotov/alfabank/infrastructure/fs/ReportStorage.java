@@ -0,0 +1,23 @@
+package ru.vzotov.alfabank.infrastructure.fs;
+
+/**
+ * Storage of reports.
+ */
+public enum ReportStorage {
+
+    /**
+     * Reports are files in the directory of reports, processed reports are renamed to {@code <report>_processed.csv}
+     */
+    FILES,
+
+    /**
+     * New reports are files in the directory of reports like with {@link #FILES},
+     * processed reports are compressed into rolling archive files in the {@code archive} directory
+     */
+    ARCHIVE,
+
+    /**
+     * Reports are kept in memory and are lost when the application stops, for tests and benchmarks
+     */
+    MEMORY
+}
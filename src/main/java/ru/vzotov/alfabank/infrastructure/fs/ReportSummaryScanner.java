@@ -0,0 +1,181 @@
+package ru.vzotov.alfabank.infrastructure.fs;
+
+import java.nio.charset.Charset;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Counts records and finds the range of operation dates of a report while its bytes pass by.
+ * <p>
+ * Bytes are tokenized incrementally in the same format as the one of {@link MappedReportReader},
+ * so a report can be summarized while it is being uploaded, without reading it again.
+ * Only the fields of the header and the date fields are collected. Dates that can not be parsed are ignored.
+ * The scanner is not thread-safe.
+ */
+final class ReportSummaryScanner {
+
+    private static final byte DELIMITER = ';';
+    private static final byte QUOTE = '"';
+    private static final byte CR = '\r';
+    private static final byte LF = '\n';
+
+    private final Charset charset;
+
+    private final Map<String, Integer> header = new HashMap<>();
+
+    private boolean headerRead;
+
+    private int dateColumn = -1;
+
+    private boolean quoted;
+
+    /**
+     * Whether the last byte was a quote inside a quoted field, it either closes the field or escapes the next quote
+     */
+    private boolean quotePending;
+
+    /**
+     * Whether the current record has any bytes, empty lines are not records
+     */
+    private boolean recordStarted;
+
+    private int field;
+
+    private boolean fieldStarted;
+
+    private byte[] value = new byte[64];
+
+    private int valueLength;
+
+    private long rows;
+
+    private LocalDate firstDate;
+
+    private LocalDate lastDate;
+
+    ReportSummaryScanner(Charset charset) {
+        this.charset = charset;
+    }
+
+    void update(byte[] bytes, int offset, int length) {
+        for (int i = offset; i < offset + length; i++) {
+            update(bytes[i]);
+        }
+    }
+
+    private void update(byte b) {
+        if (quoted) {
+            if (quotePending) {
+                quotePending = false;
+                if (b == QUOTE) {
+                    append(b);
+                    return;
+                }
+                quoted = false;
+            } else {
+                if (b == QUOTE) {
+                    quotePending = true;
+                } else {
+                    append(b);
+                }
+                return;
+            }
+        }
+
+        if (b == CR || b == LF) {
+            if (recordStarted) {
+                endField();
+                endRecord();
+            }
+        } else if (b == DELIMITER) {
+            recordStarted = true;
+            endField();
+        } else if (b == QUOTE && !fieldStarted) {
+            recordStarted = true;
+            fieldStarted = true;
+            quoted = true;
+        } else {
+            recordStarted = true;
+            fieldStarted = true;
+            append(b);
+        }
+    }
+
+    /**
+     * Completes the last record of a report that does not end with a line break.
+     */
+    void finish() {
+        if (recordStarted || quoted) {
+            endField();
+            endRecord();
+        }
+        quoted = false;
+        quotePending = false;
+    }
+
+    long rows() {
+        return rows;
+    }
+
+    LocalDate firstDate() {
+        return firstDate;
+    }
+
+    LocalDate lastDate() {
+        return lastDate;
+    }
+
+    private void append(byte b) {
+        if (!isCollected()) {
+            return;
+        }
+        if (valueLength == value.length) {
+            value = Arrays.copyOf(value, value.length * 2);
+        }
+        value[valueLength++] = b;
+    }
+
+    private boolean isCollected() {
+        return !headerRead || field == dateColumn;
+    }
+
+    private void endField() {
+        if (!headerRead) {
+            header.putIfAbsent(new String(value, 0, valueLength, charset), field);
+        } else if (field == dateColumn && valueLength == ReportValues.DATE_LENGTH) {
+            final String s = new String(value, 0, valueLength, charset);
+            if (ReportValues.isDate(s, 0)) {
+                try {
+                    date(ReportValues.parseDate(s, 0));
+                } catch (RuntimeException e) {
+                    // invalid dates are reported when the report is processed
+                }
+            }
+        }
+        valueLength = 0;
+        fieldStarted = false;
+        field++;
+    }
+
+    private void endRecord() {
+        if (!headerRead) {
+            headerRead = true;
+            dateColumn = header.getOrDefault(ReportColumns.DATE, -1);
+        } else {
+            rows++;
+        }
+        field = 0;
+        recordStarted = false;
+    }
+
+    private void date(LocalDate date) {
+        if (firstDate == null || date.isBefore(firstDate)) {
+            firstDate = date;
+        }
+        if (lastDate == null || date.isAfter(lastDate)) {
+            lastDate = date;
+        }
+    }
+}
@@ -0,0 +1,248 @@
+package ru.vzotov.alfabank.infrastructure.fs;
+
+import ru.vzotov.alfabank.domain.model.MinorUnits;
+
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.text.ParseException;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.time.Month;
+import java.time.Year;
+import java.time.format.DateTimeParseException;
+import java.util.Locale;
+
+import static java.time.temporal.ChronoField.DAY_OF_MONTH;
+
+/**
+ * Parsers of the values used in Alfabank reports.
+ * <p>
+ * Values are parsed straight from the characters of the field without intermediate objects.
+ * The results are the same as the ones of {@code new DecimalFormat("###.##")} and of the {@code dd.MM.yy}
+ * date formatter with the reduced year based on 2000, except that leading spaces of amounts are skipped.
+ * The class has no state and may be used from any thread.
+ */
+final class ReportValues {
+
+    /**
+     * Decimal separator of amounts in report columns
+     */
+    static final char RU_DECIMAL_SEPARATOR = ',';
+
+    /**
+     * Decimal separator of amounts inside descriptions of card operations
+     */
+    static final char US_DECIMAL_SEPARATOR = '.';
+
+    static final int DATE_LENGTH = 8;
+
+    /**
+     * Longest mantissa that is exactly representable as a double
+     */
+    private static final int MAX_EXACT_DIGITS = 15;
+
+    private static final long[] LONG_POWERS_OF_TEN = {1, 10, 100, 1000, 10000, 100000, 1000000};
+
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15
+    };
+
+    private ReportValues() {
+    }
+
+    static double parseAmount(CharSequence s, char decimalSeparator) throws ParseException {
+        return parseAmount(s, 0, s.length(), decimalSeparator);
+    }
+
+    /**
+     * Parses amount.
+     * Leading spaces are skipped, parsing stops at the first character that does not belong to the number.
+     *
+     * @param s                characters
+     * @param from             start of the field, inclusive
+     * @param to               end of the field, exclusive
+     * @param decimalSeparator decimal separator
+     * @return parsed amount
+     * @throws ParseException if the field does not start with a number
+     */
+    static double parseAmount(CharSequence s, int from, int to, char decimalSeparator) throws ParseException {
+        int i = from;
+        while (i < to && s.charAt(i) == ' ') {
+            i++;
+        }
+
+        boolean negative = false;
+        if (i < to && s.charAt(i) == '-') {
+            negative = true;
+            i++;
+        }
+
+        long mantissa = 0;
+        int scale = 0;
+        int digits = 0;
+        boolean fraction = false;
+        for (; i < to; i++) {
+            final char c = s.charAt(i);
+            if (isDigit(c)) {
+                if (mantissa == 0 && c == '0') {
+                    if (fraction) scale++;
+                    continue;
+                }
+                if (++digits > MAX_EXACT_DIGITS) {
+                    return parseAmountSlow(s, from, to, decimalSeparator);
+                }
+                mantissa = mantissa * 10 + (c - '0');
+                if (fraction) scale++;
+            } else if (c == decimalSeparator && !fraction) {
+                fraction = true;
+            } else {
+                break;
+            }
+        }
+
+        if (digits == 0 && !hasZero(s, from, i)) {
+            throw new ParseException("Unparseable number: \"" + s.subSequence(from, to) + "\"", from);
+        }
+        if (scale > MAX_EXACT_DIGITS) {
+            return parseAmountSlow(s, from, to, decimalSeparator);
+        }
+
+        final double value = scale == 0 ? mantissa : mantissa / POWERS_OF_TEN[scale];
+        return negative ? -value : value;
+    }
+
+    static long parseMinorUnits(CharSequence s, char decimalSeparator) throws ParseException {
+        return parseMinorUnits(s, 0, s.length(), decimalSeparator, MinorUnits.DEFAULT_FRACTION_DIGITS);
+    }
+
+    static long parseMinorUnits(CharSequence s, char decimalSeparator, int fractionDigits) throws ParseException {
+        return parseMinorUnits(s, 0, s.length(), decimalSeparator, fractionDigits);
+    }
+
+    /**
+     * Parses amount into minor units of currency without floating point arithmetic.
+     * Leading spaces are skipped, parsing stops at the first character that does not belong to the number.
+     * Fractional digits after the last digit of minor units are rounded half up.
+     *
+     * @param s                characters
+     * @param from             start of the field, inclusive
+     * @param to               end of the field, exclusive
+     * @param decimalSeparator decimal separator
+     * @param fractionDigits   number of fractional digits of the currency, see {@link MinorUnits#fractionDigits(String)}
+     * @return parsed amount in minor units
+     * @throws ParseException if the field does not start with a number or the amount is too large
+     */
+    static long parseMinorUnits(CharSequence s, int from, int to, char decimalSeparator, int fractionDigits)
+            throws ParseException {
+        int i = from;
+        while (i < to && s.charAt(i) == ' ') {
+            i++;
+        }
+
+        boolean negative = false;
+        if (i < to && s.charAt(i) == '-') {
+            negative = true;
+            i++;
+        }
+
+        final int start = i;
+        while (i < to && isDigit(s.charAt(i))) {
+            i++;
+        }
+        final int end = i;
+        int digits = end - start;
+
+        long fraction = 0;
+        int scale = 0;
+        boolean roundUp = false;
+        if (i < to && s.charAt(i) == decimalSeparator) {
+            for (i++; i < to && isDigit(s.charAt(i)); i++, digits++) {
+                if (scale < fractionDigits) {
+                    fraction = fraction * 10 + (s.charAt(i) - '0');
+                    scale++;
+                } else if (scale == fractionDigits) {
+                    roundUp = s.charAt(i) >= '5';
+                    scale++;
+                }
+            }
+        }
+
+        if (digits == 0) {
+            throw new ParseException("Unparseable number: \"" + s.subSequence(from, to) + "\"", from);
+        }
+        for (; scale < fractionDigits; scale++) {
+            fraction *= 10;
+        }
+
+        try {
+            long minor = 0;
+            for (int j = start; j < end; j++) {
+                minor = Math.addExact(Math.multiplyExact(minor, 10), s.charAt(j) - '0');
+            }
+            minor = Math.addExact(Math.multiplyExact(minor, LONG_POWERS_OF_TEN[fractionDigits]), fraction + (roundUp ? 1 : 0));
+            return negative ? -minor : minor;
+        } catch (ArithmeticException e) {
+            throw new ParseException("Amount is too large: \"" + s.subSequence(from, to) + "\"", from);
+        }
+    }
+
+    static LocalDate parseDate(CharSequence s) {
+        if (s.length() != DATE_LENGTH || !isDate(s, 0)) {
+            throw new DateTimeParseException("Text '" + s + "' could not be parsed", s, 0);
+        }
+        return parseDate(s, 0);
+    }
+
+    /**
+     * Parses date in format {@code dd.MM.yy}. Years are in the range 2000-2099.
+     * Day of month is resolved like the smart resolver of {@link java.time.format.DateTimeFormatter} does it,
+     * i.e. {@code 31.02.20} is the last day of February.
+     *
+     * @param s    characters
+     * @param from start of the date, there must be a date in format {@code dd.MM.yy} at this position
+     * @return parsed date
+     */
+    static LocalDate parseDate(CharSequence s, int from) {
+        final int day = twoDigits(s, from);
+        final int month = twoDigits(s, from + 3);
+        final int year = 2000 + twoDigits(s, from + 6);
+        try {
+            DAY_OF_MONTH.checkValidValue(day);
+            return LocalDate.of(year, month, Math.min(day, Month.of(month).length(Year.isLeap(year))));
+        } catch (DateTimeException e) {
+            throw new DateTimeParseException(e.getMessage(), s.subSequence(from, from + DATE_LENGTH), 0, e);
+        }
+    }
+
+    static boolean isDate(CharSequence s, int from) {
+        return isDigit(s.charAt(from)) && isDigit(s.charAt(from + 1)) && s.charAt(from + 2) == '.'
+                && isDigit(s.charAt(from + 3)) && isDigit(s.charAt(from + 4)) && s.charAt(from + 5) == '.'
+                && isDigit(s.charAt(from + 6)) && isDigit(s.charAt(from + 7));
+    }
+
+    static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean hasZero(CharSequence s, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (s.charAt(i) == '0') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int twoDigits(CharSequence s, int from) {
+        return (s.charAt(from) - '0') * 10 + (s.charAt(from + 1) - '0');
+    }
+
+    /**
+     * Parses numbers that are too long for the fast path. Such numbers are not expected in reports.
+     */
+    private static double parseAmountSlow(CharSequence s, int from, int to, char decimalSeparator) throws ParseException {
+        final Locale locale = decimalSeparator == RU_DECIMAL_SEPARATOR ? new Locale("ru") : Locale.US;
+        final DecimalFormat format = new DecimalFormat("###.##", DecimalFormatSymbols.getInstance(locale));
+        return format.parse(s.subSequence(from, to).toString().trim()).doubleValue();
+    }
+}
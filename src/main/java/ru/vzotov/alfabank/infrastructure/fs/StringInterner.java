@@ -0,0 +1,145 @@
+package ru.vzotov.alfabank.infrastructure.fs;
+
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Bounded dictionary of strings that makes equal values of a report share one instance.
+ * <p>
+ * Values are looked up straight by their characters, so a string is created only for the values
+ * that are not in the dictionary yet. When the dictionary is full new values are no longer added
+ * and are returned as new strings. Instances are meant to be used by a single import and are not thread-safe,
+ * except for {@link #NONE} that never stores values.
+ */
+final class StringInterner {
+
+    static final int DEFAULT_MAX_SIZE = 4096;
+
+    /**
+     * Interner that does not deduplicate values
+     */
+    static final StringInterner NONE = new StringInterner(0);
+
+    private final int maxSize;
+
+    private String[] table;
+
+    private int size;
+
+    StringInterner() {
+        this(DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * @param maxSize maximum number of distinct values kept by the interner
+     */
+    StringInterner(int maxSize) {
+        Validate.isTrue(maxSize >= 0);
+        this.maxSize = maxSize;
+        this.table = maxSize == 0 ? null : new String[64];
+    }
+
+    int size() {
+        return size;
+    }
+
+    String intern(String s) {
+        if (s == null || table == null) {
+            return s;
+        }
+        final String found = find(s, 0, s.length(), s.hashCode());
+        return found != null ? found : add(s);
+    }
+
+    String intern(CharSequence s, int from, int to) {
+        if (table == null) {
+            return s.subSequence(from, to).toString();
+        }
+        final String found = find(s, from, to, hash(s, from, to));
+        return found != null ? found : add(s.subSequence(from, to).toString());
+    }
+
+    /**
+     * Interns characters without leading and trailing whitespace, like {@link String#trim()} does.
+     */
+    String internTrimmed(CharSequence s, int from, int to) {
+        while (from < to && s.charAt(from) <= ' ') {
+            from++;
+        }
+        while (to > from && s.charAt(to - 1) <= ' ') {
+            to--;
+        }
+        return intern(s, from, to);
+    }
+
+    private String find(CharSequence s, int from, int to, int hash) {
+        final int mask = table.length - 1;
+        for (int i = spread(hash) & mask; ; i = (i + 1) & mask) {
+            final String candidate = table[i];
+            if (candidate == null) {
+                return null;
+            }
+            if (candidate.hashCode() == hash && contentEquals(candidate, s, from, to)) {
+                return candidate;
+            }
+        }
+    }
+
+    private String add(String s) {
+        if (size >= maxSize) {
+            return s;
+        }
+        if (2 * (size + 1) > table.length) {
+            resize();
+        }
+        final int mask = table.length - 1;
+        int i = spread(s.hashCode()) & mask;
+        while (table[i] != null) {
+            i = (i + 1) & mask;
+        }
+        table[i] = s;
+        size++;
+        return s;
+    }
+
+    private void resize() {
+        final String[] old = table;
+        table = new String[old.length * 2];
+        final int mask = table.length - 1;
+        for (String s : old) {
+            if (s != null) {
+                int i = spread(s.hashCode()) & mask;
+                while (table[i] != null) {
+                    i = (i + 1) & mask;
+                }
+                table[i] = s;
+            }
+        }
+    }
+
+    /**
+     * Same hash as the one of {@link String#hashCode()} of the characters
+     */
+    private static int hash(CharSequence s, int from, int to) {
+        int h = 0;
+        for (int i = from; i < to; i++) {
+            h = 31 * h + s.charAt(i);
+        }
+        return h;
+    }
+
+    private static int spread(int h) {
+        return h ^ (h >>> 16);
+    }
+
+    private static boolean contentEquals(String candidate, CharSequence s, int from, int to) {
+        if (candidate.length() != to - from) {
+            return false;
+        }
+        for (int i = from; i < to; i++) {
+            if (candidate.charAt(i - from) != s.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,92 @@
+package ru.vzotov.alfabank.infrastructure.metrics;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.apache.commons.lang3.Validate;
+import org.springframework.beans.factory.BeanFactory;
+import ru.vzotov.alfabank.application.ImportMetrics;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Metrics of report imports exported through Micrometer:
+ * <ul>
+ *     <li>{@code alfabank.import.stage} - timer of every stage of the import, tagged with {@code stage}</li>
+ *     <li>{@code alfabank.import.report} - timer of processed reports</li>
+ *     <li>{@code alfabank.import.rows} - counter of rows in processed reports</li>
+ *     <li>{@code alfabank.import.report.rows} - distribution of report sizes in rows</li>
+ *     <li>{@code alfabank.import.failures} - counter of failed reports, tagged with {@code exception}</li>
+ * </ul>
+ * Micrometer is an optional dependency, the class must be loaded only when Micrometer is on the classpath.
+ */
+public class MicrometerImportMetrics implements ImportMetrics {
+
+    public static final String METER_REGISTRY_CLASS = "io.micrometer.core.instrument.MeterRegistry";
+
+    private final MeterRegistry registry;
+
+    private final Map<Stage, Timer> stages = new EnumMap<>(Stage.class);
+
+    private final Timer reports;
+
+    private final Counter rows;
+
+    private final DistributionSummary reportRows;
+
+    public MicrometerImportMetrics(MeterRegistry registry) {
+        Validate.notNull(registry);
+        this.registry = registry;
+        for (Stage stage : Stage.values()) {
+            stages.put(stage, Timer.builder("alfabank.import.stage")
+                    .description("Time spent on the stage of report import")
+                    .tag("stage", stage.name().toLowerCase())
+                    .register(registry));
+        }
+        this.reports = Timer.builder("alfabank.import.report")
+                .description("Time spent on processed reports")
+                .register(registry);
+        this.rows = Counter.builder("alfabank.import.rows")
+                .description("Rows of processed reports")
+                .register(registry);
+        this.reportRows = DistributionSummary.builder("alfabank.import.report.rows")
+                .description("Number of rows in processed reports")
+                .baseUnit("rows")
+                .register(registry);
+    }
+
+    /**
+     * Creates metrics for the meter registry of the application.
+     *
+     * @param beanFactory bean factory of the application
+     * @return metrics or null if the application has no unique meter registry
+     */
+    public static ImportMetrics fromBeanFactory(BeanFactory beanFactory) {
+        final MeterRegistry registry = beanFactory.getBeanProvider(MeterRegistry.class).getIfUnique();
+        return registry == null ? null : new MicrometerImportMetrics(registry);
+    }
+
+    @Override
+    public void record(Stage stage, long nanos) {
+        stages.get(stage).record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void reportProcessed(long rows, long nanos) {
+        this.reports.record(nanos, TimeUnit.NANOSECONDS);
+        this.rows.increment(rows);
+        this.reportRows.record(rows);
+    }
+
+    @Override
+    public void reportFailed(Exception error) {
+        Counter.builder("alfabank.import.failures")
+                .description("Failed reports")
+                .tag("exception", error.getClass().getSimpleName())
+                .register(registry)
+                .increment();
+    }
+}
@@ -0,0 +1,71 @@
+package ru.vzotov.alfabank.application;
+
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import ru.vzotov.accounting.application.AccountReportService;
+import ru.vzotov.accounting.domain.model.AccountReportId;
+import ru.vzotov.alfabank.domain.model.AlfabankReportRepository;
+
+import java.time.Instant;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class AccountReportAlfabankNotifierTest {
+
+    @Test
+    public void processReadyReportsAfterPoll() throws Exception {
+        final AccountReportService service = Mockito.mock(AccountReportService.class);
+        final AlfabankReportRepository repository = Mockito.mock(AlfabankReportRepository.class);
+        final AccountReportId reportId = new AccountReportId("movementList_2020-01.csv", Instant.now());
+        Mockito.when(repository.findUnprocessed(reportId.name())).thenReturn(reportId);
+
+        final CountDownLatch pollStarted = new CountDownLatch(1);
+        final CountDownLatch pollReleased = new CountDownLatch(1);
+        Mockito.doAnswer(invocation -> {
+            pollStarted.countDown();
+            assertThat(pollReleased.await(10, TimeUnit.SECONDS)).isTrue();
+            return null;
+        }).when(service).processNewReports();
+        final CountDownLatch processed = new CountDownLatch(1);
+        Mockito.doAnswer(invocation -> {
+            processed.countDown();
+            return null;
+        }).when(service).processAccountReport(reportId);
+
+        try (AccountReportAlfabankNotifier notifier = new AccountReportAlfabankNotifier(service, repository)) {
+            final Thread poll = new Thread(notifier::searchNewReports);
+            poll.start();
+            assertThat(pollStarted.await(10, TimeUnit.SECONDS)).isTrue();
+
+            // the watcher is not blocked, the report waits for the poll
+            notifier.reportReady(reportId);
+            notifier.reportReady(reportId);
+            assertThat(processed.await(200, TimeUnit.MILLISECONDS)).isFalse();
+
+            pollReleased.countDown();
+            poll.join(10000);
+            assertThat(processed.await(10, TimeUnit.SECONDS)).isTrue();
+        }
+        Mockito.verify(service, Mockito.times(1)).processAccountReport(reportId);
+    }
+
+    @Test
+    public void skipReportsProcessedByPoll() throws Exception {
+        final AccountReportService service = Mockito.mock(AccountReportService.class);
+        final AlfabankReportRepository repository = Mockito.mock(AlfabankReportRepository.class);
+        final AccountReportId reportId = new AccountReportId("movementList_2020-01.csv", Instant.now());
+        final CountDownLatch checked = new CountDownLatch(1);
+        Mockito.when(repository.findUnprocessed(reportId.name())).thenAnswer(invocation -> {
+            checked.countDown();
+            return null;
+        });
+
+        try (AccountReportAlfabankNotifier notifier = new AccountReportAlfabankNotifier(service, repository)) {
+            notifier.reportReady(reportId);
+            assertThat(checked.await(10, TimeUnit.SECONDS)).isTrue();
+        }
+        Mockito.verify(service, Mockito.never()).processAccountReport(Mockito.any());
+    }
+}
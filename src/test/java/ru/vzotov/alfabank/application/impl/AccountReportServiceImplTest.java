@@ -2,37 +2,63 @@ package ru.vzotov.alfabank.application.impl;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.provider.EnumSource;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
 import org.mockito.Mockito;
 import ru.vzotov.accounting.application.AccountNotFoundException;
 import ru.vzotov.accounting.application.AccountReportNotFoundException;
 import ru.vzotov.accounting.application.AccountingService;
-import ru.vzotov.accounting.domain.model.AccountReport;
 import ru.vzotov.accounting.domain.model.AccountReportId;
-import ru.vzotov.accounting.domain.model.AccountReportRepository;
+import ru.vzotov.alfabank.application.ImportMetrics;
+import ru.vzotov.alfabank.application.OperationBatchRegistrar;
+import ru.vzotov.alfabank.application.OperationRegistration;
+import ru.vzotov.alfabank.application.RegisteredReferenceIndex;
+import ru.vzotov.alfabank.application.ReportProcessingResult;
+import ru.vzotov.alfabank.application.ReportProcessingSettings;
 import ru.vzotov.alfabank.domain.model.AlfabankOperation;
+import ru.vzotov.alfabank.domain.model.AlfabankReportRepository;
+import ru.vzotov.alfabank.domain.model.CardOperation;
+import ru.vzotov.alfabank.domain.model.PosInfo;
+import ru.vzotov.alfabank.domain.model.ReportValidation;
 import ru.vzotov.alfabank.domain.model.TransactionId;
+import ru.vzotov.alfabank.infrastructure.fs.AlfabankReportRepositoryFiles;
+import ru.vzotov.alfabank.infrastructure.fs.RegisteredReferenceIndexFiles;
 import ru.vzotov.banking.domain.model.AccountNumber;
 import ru.vzotov.banking.domain.model.OperationId;
 import ru.vzotov.banking.domain.model.OperationType;
 import ru.vzotov.banking.domain.model.TransactionReference;
 import ru.vzotov.domain.model.Money;
 
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.time.LocalDate;
 import java.time.ZoneOffset;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Currency;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
 public class AccountReportServiceImplTest {
 
     private AccountReportServiceAlfabank service;
     private AccountReportId reportId;
-    private AccountReportRepository<AlfabankOperation> reportRepository;
+    private AlfabankReportRepository reportRepository;
     private AccountingService accountingService;
 
     @BeforeEach
-    @SuppressWarnings("unchecked")
     public void setUp() throws Exception {
-        reportRepository = Mockito.mock(AccountReportRepository.class);
+        reportRepository = Mockito.mock(AlfabankReportRepository.class);
         accountingService = Mockito.mock(AccountingService.class);
         service = new AccountReportServiceAlfabank(reportRepository, accountingService);
         reportId = new AccountReportId("test-1", LocalDate.now().atStartOfDay().toInstant(ZoneOffset.UTC));
@@ -51,8 +77,10 @@ public class AccountReportServiceImplTest {
                 )
         );
 
-        Mockito.when(reportRepository.find(reportId))
-                .thenReturn(new AccountReport<>(reportId, operations));
+        Mockito.when(reportRepository.stream(reportId))
+                .thenAnswer(invocation -> operations.stream());
+        Mockito.when(reportRepository.validate(Mockito.any(AccountReportId.class), Mockito.any()))
+                .thenAnswer(invocation -> new ReportValidation(invocation.getArgument(0), 0, 0, List.of(), Set.of()));
 
         Mockito.when(accountingService.registerOperation(
                 Mockito.any(AccountNumber.class),
@@ -77,4 +105,307 @@ public class AccountReportServiceImplTest {
         );
     }
 
+    @ParameterizedTest
+    @EnumSource(ReportProcessingSettings.Execution.class)
+    public void processReportsInParallel(ReportProcessingSettings.Execution execution) {
+        final AccountReportId first = new AccountReportId("test-first", LocalDate.now().atStartOfDay().toInstant(ZoneOffset.UTC));
+        final AccountReportId second = new AccountReportId("test-second", LocalDate.now().atStartOfDay().toInstant(ZoneOffset.UTC));
+        final AccountReportId broken = new AccountReportId("test-broken", LocalDate.now().atStartOfDay().toInstant(ZoneOffset.UTC));
+        validation(reportId, "40817810108290123456");
+        validation(first, "40817810808290123456");
+        validation(second, "40817810808290123456", "40817810108290123456");
+        validation(broken, "40817810208290123456");
+        Mockito.when(reportRepository.stream(first)).thenAnswer(invocation -> Stream.empty());
+        Mockito.when(reportRepository.stream(second)).thenAnswer(invocation -> Stream.empty());
+        Mockito.when(reportRepository.stream(broken)).thenThrow(new IllegalArgumentException("broken report"));
+
+        service = new AccountReportServiceAlfabank(reportRepository, accountingService, ReportProcessingSettings.defaults().withWorkers(4).withExecution(execution));
+
+        final List<AccountReportId> reports = List.of(reportId, first, broken, second);
+        final Map<AccountReportId, ReportValidation> validations = new HashMap<>();
+        assertThat(service.groupByAccounts(reports, validations))
+                .containsExactly(List.of(reportId, first, second), List.of(broken));
+        assertThat(validations).containsOnlyKeys(reports);
+        Mockito.clearInvocations(reportRepository);
+
+        final List<ReportProcessingResult> results = service.processReports(reports);
+        assertThat(results).extracting(ReportProcessingResult::reportId).containsExactlyElementsOf(reports);
+        assertThat(results).extracting(ReportProcessingResult::status).containsExactly(
+                ReportProcessingResult.Status.PROCESSED,
+                ReportProcessingResult.Status.PROCESSED,
+                ReportProcessingResult.Status.FAILED,
+                ReportProcessingResult.Status.PROCESSED
+        );
+
+        final InOrder inOrder = Mockito.inOrder(reportRepository);
+        inOrder.verify(reportRepository).markProcessed(reportId);
+        inOrder.verify(reportRepository).markProcessed(first);
+        inOrder.verify(reportRepository).markProcessed(second);
+        Mockito.verify(reportRepository, Mockito.never()).markProcessed(broken);
+
+        // reports are validated once, when they are grouped
+        for (AccountReportId report : reports) {
+            Mockito.verify(reportRepository).validate(Mockito.eq(report), Mockito.any());
+        }
+        Mockito.verify(reportRepository, Mockito.never()).findAccountNumbers(Mockito.any());
+    }
+
+    private void validation(AccountReportId report, String... accounts) {
+        Mockito.when(reportRepository.validate(Mockito.eq(report), Mockito.any()))
+                .thenReturn(new ReportValidation(report, 0, 0, List.of(), Set.of(accounts)));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void processAccountReportInBatches() throws AccountReportNotFoundException, AccountNotFoundException {
+        final AlfabankOperation hold = new AlfabankOperation("test type", "40817810108290123456", "RUR", LocalDate.now(),
+                new TransactionId("HOLD"), "hold description", 0.0d, 10.0d, null);
+        final AlfabankOperation deposit = new AlfabankOperation("test type", "40817810108290123456", "RUR", LocalDate.now(),
+                new TransactionId("C013110180004900"), "deposit description", 100.0d, 0.0d, null);
+        final AlfabankOperation withdraw = new AlfabankOperation("test type", "40817810108290123456", "RUR", LocalDate.now(),
+                new TransactionId("C013110180004901"), "withdraw description", 0.0d, 10.0d, null);
+        Mockito.when(reportRepository.stream(reportId)).thenAnswer(invocation -> Stream.of(hold, deposit, withdraw));
+
+        final OperationBatchRegistrar registrar = Mockito.mock(OperationBatchRegistrar.class);
+        final List<List<OperationRegistration>> batches = new ArrayList<>();
+        Mockito.doAnswer(invocation -> batches.add(List.copyOf((List<OperationRegistration>) invocation.getArgument(0))))
+                .when(registrar).register(Mockito.anyList());
+
+        service = new AccountReportServiceAlfabank(reportRepository, registrar, ReportProcessingSettings.defaults().withBatchSize(2));
+        service.processAccountReport(reportId);
+
+        assertThat(batches).hasSize(2);
+        assertThat(batches.get(0)).extracting(OperationRegistration::isHold).containsExactly(true, false);
+        assertThat(batches.get(0).get(1).type()).isEqualTo(OperationType.DEPOSIT);
+        assertThat(batches.get(1)).extracting(OperationRegistration::amount).containsExactly(Money.kopecks(1000));
+        Mockito.verify(reportRepository).markProcessed(reportId);
+    }
+
+    @Test
+    public void resumeFromCheckpoint() throws AccountReportNotFoundException, AccountNotFoundException {
+        final List<AlfabankOperation> operations = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            operations.add(new AlfabankOperation("test type", "40817810108290123456", "RUR", LocalDate.now(),
+                    new TransactionId("C01311018000490" + i), "description " + i, 0.0d, 10.0d + i, null));
+        }
+        Mockito.when(reportRepository.stream(reportId)).thenAnswer(invocation -> operations.stream());
+        Mockito.when(reportRepository.stream(Mockito.eq(reportId), Mockito.anyLong()))
+                .thenAnswer(invocation -> operations.stream().skip(invocation.getArgument(1, Long.class)));
+
+        final OperationBatchRegistrar registrar = Mockito.mock(OperationBatchRegistrar.class);
+        final List<OperationRegistration> registered = new ArrayList<>();
+        Mockito.doAnswer(invocation -> {
+            final List<OperationRegistration> batch = invocation.getArgument(0);
+            if (batch.stream().anyMatch(operation -> operation.description().equals("description 3"))) {
+                throw new AccountNotFoundException();
+            }
+            return registered.addAll(batch);
+        }).when(registrar).register(Mockito.anyList());
+
+        service = new AccountReportServiceAlfabank(reportRepository, registrar, ReportProcessingSettings.defaults().withBatchSize(2));
+        final ReportProcessingResult failed = service.processReports(List.of(reportId)).get(0);
+        assertThat(failed.status()).isEqualTo(ReportProcessingResult.Status.FAILED);
+        Mockito.verify(reportRepository).saveCheckpoint(reportId, 2);
+        Mockito.verify(reportRepository, Mockito.never()).markProcessed(reportId);
+
+        Mockito.reset(registrar);
+        Mockito.doAnswer(invocation -> registered.addAll(invocation.getArgument(0))).when(registrar).register(Mockito.anyList());
+        Mockito.when(reportRepository.findCheckpoint(reportId)).thenReturn(2L);
+
+        service.processAccountReport(reportId);
+        assertThat(registered).extracting(OperationRegistration::description)
+                .containsExactly("description 0", "description 1", "description 2", "description 3", "description 4");
+        Mockito.verify(reportRepository).saveCheckpoint(reportId, 5);
+        Mockito.verify(reportRepository).markProcessed(reportId);
+    }
+
+    @Test
+    public void skipRegisteredReferences() throws AccountReportNotFoundException, AccountNotFoundException {
+        final List<AlfabankOperation> operations = List.of(
+                new AlfabankOperation("test type", "40817810108290123456", "RUR", LocalDate.now(),
+                        new TransactionId("C013110180004900"), "registered", 0.0d, 10.0d, null),
+                new AlfabankOperation("test type", "40817810108290123456", "RUR", LocalDate.now(),
+                        new TransactionId("HOLD"), "hold", 0.0d, 11.0d, null),
+                new AlfabankOperation("test type", "40817810108290123456", "RUR", LocalDate.now(),
+                        new TransactionId("C013110180004901"), "new", 0.0d, 12.0d, null)
+        );
+        Mockito.when(reportRepository.stream(reportId)).thenAnswer(invocation -> operations.stream());
+
+        final RegisteredReferenceIndex index = Mockito.mock(RegisteredReferenceIndex.class);
+        final OperationRegistration registeredOperation = new OperationRegistration(new AccountNumber("40817810108290123456"),
+                LocalDate.now(), new TransactionReference("C013110180004900"), OperationType.WITHDRAW, Money.kopecks(1000),
+                "registered", null);
+        Mockito.when(index.count("40817810108290123456", RegisteredReferenceIndex.identity(registeredOperation))).thenReturn(1);
+        final OperationBatchRegistrar registrar = Mockito.mock(OperationBatchRegistrar.class);
+        final List<OperationRegistration> registered = new ArrayList<>();
+        Mockito.doAnswer(invocation -> registered.addAll(invocation.getArgument(0))).when(registrar).register(Mockito.anyList());
+
+        service = new AccountReportServiceAlfabank(reportRepository, registrar, ReportProcessingSettings.defaults(),
+                ImportMetrics.NOOP, index);
+        service.processAccountReport(reportId);
+
+        assertThat(registered).extracting(OperationRegistration::description).containsExactly("hold", "new");
+        Mockito.verify(index).registered(Mockito.anyList());
+        Mockito.verify(reportRepository).saveCheckpoint(reportId, 3);
+        Mockito.verify(reportRepository).markProcessed(reportId);
+    }
+
+    @Test
+    public void rejectUnknownAccounts() throws AccountNotFoundException {
+        final AccountNumber known = new AccountNumber("40817810108290123456");
+        final List<AlfabankOperation> operations = List.of(
+                new AlfabankOperation("test type", "40817810108290123456", "RUR", LocalDate.now(),
+                        new TransactionId("C013110180004900"), "known", 0.0d, 10.0d, null),
+                new AlfabankOperation("test type", "40817810108290654321", "RUR", LocalDate.now(),
+                        new TransactionId("C013110180004901"), "unknown", 0.0d, 11.0d, null)
+        );
+        Mockito.when(reportRepository.stream(reportId)).thenAnswer(invocation -> operations.stream());
+        Mockito.when(reportRepository.validate(Mockito.any(AccountReportId.class), Mockito.any()))
+                .thenCallRealMethod();
+        Mockito.when(reportRepository.findAccountNumbers(reportId))
+                .thenReturn(Set.of("40817810108290123456", "40817810108290654321"));
+        final OperationBatchRegistrar registrar = Mockito.mock(OperationBatchRegistrar.class);
+
+        service = new AccountReportServiceAlfabank(reportRepository, registrar, ReportProcessingSettings.defaults(),
+                ImportMetrics.NOOP, RegisteredReferenceIndex.NONE, known::equals);
+        assertThatThrownBy(() -> service.processAccountReport(reportId)).isInstanceOf(AccountNotFoundException.class);
+        Mockito.verify(registrar, Mockito.never()).register(Mockito.anyList());
+        Mockito.verify(reportRepository, Mockito.never()).markProcessed(reportId);
+        // accounts are collected by the validation, the report is read once
+        Mockito.verify(reportRepository, Mockito.never()).findAccountNumbers(reportId);
+        Mockito.verify(reportRepository).stream(reportId);
+
+        // without validation the accounts are found separately
+        service = new AccountReportServiceAlfabank(reportRepository, registrar,
+                ReportProcessingSettings.defaults().withValidate(false),
+                ImportMetrics.NOOP, RegisteredReferenceIndex.NONE, known::equals);
+        assertThatThrownBy(() -> service.processAccountReport(reportId)).isInstanceOf(AccountNotFoundException.class);
+        Mockito.verify(reportRepository).findAccountNumbers(reportId);
+
+        final ImportResolution resolution = new ImportResolution();
+        assertThat(resolution.account("40817810108290123456")).isSameAs(resolution.account("40817810108290123456"));
+        assertThat(resolution.currency("RUR")).isSameAs(resolution.currency("RUR"));
+    }
+
+    @Test
+    public void quarantineInvalidReports() throws AccountNotFoundException {
+        final List<AlfabankOperation> operations = List.of(
+                new AlfabankOperation("test type", "40817810108290123456", "RUR", LocalDate.now(),
+                        new TransactionId("C013110180004900"), "valid", 0.0d, 10.0d, null),
+                new AlfabankOperation("test type", "40817810108290123456", "RUR", LocalDate.now(),
+                        new TransactionId("C013110180004901"), "both", 5.0d, 10.0d, null),
+                new AlfabankOperation("test type", "40817810108290123456", "XXQ", LocalDate.now(),
+                        new TransactionId("C013110180004902"), "currency", 0.0d, 10.0d, null)
+        );
+        Mockito.when(reportRepository.stream(reportId)).thenAnswer(invocation -> operations.stream());
+        Mockito.when(reportRepository.validate(Mockito.any(AccountReportId.class), Mockito.any()))
+                .thenCallRealMethod();
+        Mockito.when(reportRepository.quarantine(Mockito.eq(reportId), Mockito.any())).thenReturn(true);
+        final OperationBatchRegistrar registrar = Mockito.mock(OperationBatchRegistrar.class);
+
+        service = new AccountReportServiceAlfabank(reportRepository, registrar, ReportProcessingSettings.defaults());
+        assertThatThrownBy(() -> service.processAccountReport(reportId))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("2 invalid rows of 3");
+
+        final ArgumentCaptor<ReportValidation> validation = ArgumentCaptor.forClass(ReportValidation.class);
+        Mockito.verify(reportRepository).quarantine(Mockito.eq(reportId), validation.capture());
+        assertThat(validation.getValue().errors()).extracting(ReportValidation.RowError::row).containsExactly(2L, 3L);
+        // rows of the stream have no lines
+        assertThat(validation.getValue().errors()).extracting(ReportValidation.RowError::line).containsOnlyNulls();
+        assertThat(validation.getValue().errors().get(1).toString()).startsWith("row 3: ");
+        assertThat(validation.getValue().errors().get(0).message()).isEqualTo("Operation has both deposit and withdrawal");
+        Mockito.verify(registrar, Mockito.never()).register(Mockito.anyList());
+        Mockito.verify(reportRepository, Mockito.never()).markProcessed(reportId);
+    }
+
+    @Test
+    public void convertAmountsInMinorUnitsOfCurrency() {
+        final PosTerminalCache posTerminals = new PosTerminalCache(16, AccountReportServiceAlfabank::makePosTerminal);
+        final PosInfo posInfo = new PosInfo("00000002", "JPN", "TOKYO", null, "LAWSON");
+        final AlfabankOperation yen = new AlfabankOperation("test type", "40817840108290123456", "USD", LocalDate.now(),
+                new TransactionId("CRD_1Z2X3C"), "card operation", 0, 1385,
+                new CardOperation("555957++++++1234", posInfo, LocalDate.now(), LocalDate.now(), 1500, "JPY", null, "5411"));
+        final OperationRegistration registration = AccountReportServiceAlfabank.toRegistration(yen, posTerminals, new ImportResolution());
+        assertThat(registration.amount()).isEqualTo(new Money(13.85d, Currency.getInstance("USD")));
+        assertThat(registration.card().amount()).isEqualTo(new Money(1500, Currency.getInstance("JPY")));
+
+        final AlfabankOperation rouble = new AlfabankOperation("test type", "40817810108290123456", "RUR", LocalDate.now(),
+                new TransactionId("CRD_1Z2X3D"), "card operation", 0, 90012,
+                new CardOperation("555957++++++1234", posInfo, LocalDate.now(), LocalDate.now(), 12350, "KWD", null, "5411"));
+        final OperationRegistration converted = AccountReportServiceAlfabank.toRegistration(rouble, posTerminals, new ImportResolution());
+        assertThat(converted.amount()).isEqualTo(Money.kopecks(90012));
+        assertThat(converted.card().amount()).isEqualTo(new Money(12.35d, Currency.getInstance("KWD")));
+    }
+
+    /**
+     * An operation that repeats across the checkpoint is registered again after the import continues.
+     */
+    @Test
+    public void registerRepeatedOperationsAfterCheckpoint(@TempDir Path directory) throws Exception {
+        final List<AlfabankOperation> operations = new ArrayList<>();
+        for (String reference : List.of("C013110180004900", "C013110180004901", "C013110180004900", "C013110180004902")) {
+            operations.add(new AlfabankOperation("test type", "40817810108290123456", "RUR", LocalDate.of(2020, 3, 18),
+                    new TransactionId(reference), "payment " + operations.size(), 0.0d, 10.0d, null));
+        }
+        Mockito.when(reportRepository.stream(reportId)).thenAnswer(invocation -> operations.stream());
+        Mockito.when(reportRepository.stream(Mockito.eq(reportId), Mockito.anyLong()))
+                .thenAnswer(invocation -> operations.stream().skip(invocation.getArgument(1, Long.class)));
+
+        final OperationBatchRegistrar registrar = Mockito.mock(OperationBatchRegistrar.class);
+        final List<OperationRegistration> registered = new ArrayList<>();
+        Mockito.doAnswer(invocation -> {
+            final List<OperationRegistration> batch = invocation.getArgument(0);
+            if (batch.stream().anyMatch(operation -> operation.description().equals("payment 3"))) {
+                throw new AccountNotFoundException();
+            }
+            return registered.addAll(batch);
+        }).when(registrar).register(Mockito.anyList());
+
+        service = new AccountReportServiceAlfabank(reportRepository, registrar,
+                ReportProcessingSettings.defaults().withBatchSize(2).withPipelineDepth(0),
+                ImportMetrics.NOOP, new RegisteredReferenceIndexFiles(directory.toString()));
+        assertThat(service.processReports(List.of(reportId)).get(0).status()).isEqualTo(ReportProcessingResult.Status.FAILED);
+        Mockito.verify(reportRepository).saveCheckpoint(reportId, 2);
+
+        Mockito.reset(registrar);
+        Mockito.doAnswer(invocation -> registered.addAll(invocation.getArgument(0))).when(registrar).register(Mockito.anyList());
+        Mockito.when(reportRepository.findCheckpoint(reportId)).thenReturn(2L);
+
+        // a new index instance reads the registrations made before the failure from its files
+        service = new AccountReportServiceAlfabank(reportRepository, registrar,
+                ReportProcessingSettings.defaults().withBatchSize(2).withPipelineDepth(0),
+                ImportMetrics.NOOP, new RegisteredReferenceIndexFiles(directory.toString()));
+        service.processAccountReport(reportId);
+        assertThat(registered).extracting(OperationRegistration::description)
+                .containsExactly("payment 0", "payment 1", "payment 2", "payment 3");
+    }
+
+    /**
+     * References repeat on loan payments of the credit report, every row must be registered whatever the batches are.
+     */
+    @ParameterizedTest
+    @ValueSource(ints = {0, 2})
+    public void registerRepeatedReferences(int pipelineDepth, @TempDir Path directory) throws Exception {
+        final Path source = Path.of("src/test/resources/account-reports/credit_movementList_2018-06.csv");
+        Files.copy(source, directory.resolve("credit_movementList_2018-06.csv"));
+        final AlfabankReportRepositoryFiles repository = new AlfabankReportRepositoryFiles(directory.toString());
+        final OperationBatchRegistrar registrar = Mockito.mock(OperationBatchRegistrar.class);
+        final List<OperationRegistration> registered = new ArrayList<>();
+        Mockito.doAnswer(invocation -> registered.addAll(invocation.getArgument(0))).when(registrar).register(Mockito.anyList());
+
+        service = new AccountReportServiceAlfabank(repository, registrar,
+                ReportProcessingSettings.defaults().withBatchSize(5).withPipelineDepth(pipelineDepth),
+                ImportMetrics.NOOP, new RegisteredReferenceIndexFiles(directory.toString()));
+        service.processAccountReport(repository.findUnprocessed("credit_movementList_2018-06.csv"));
+        assertThat(registered).hasSize(26);
+        assertThat(registered.stream().filter(operation -> "GTRC#16011800849".equals(
+                operation.reference() == null ? null : operation.reference().value()))).hasSizeGreaterThan(1);
+
+        // the same operations in another report are already registered
+        registered.clear();
+        Files.copy(source, directory.resolve("copy.csv"));
+        service.processAccountReport(repository.findUnprocessed("copy.csv"));
+        assertThat(registered).allMatch(OperationRegistration::isHold);
+    }
 }
@@ -0,0 +1,42 @@
+package ru.vzotov.alfabank.application.impl;
+
+import org.junit.jupiter.api.Test;
+import ru.vzotov.alfabank.domain.model.PosInfo;
+import ru.vzotov.banking.domain.model.PosTerminal;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class PosTerminalCacheTest {
+
+    @Test
+    public void get() {
+        final AtomicInteger built = new AtomicInteger();
+        final PosTerminalCache cache = new PosTerminalCache(2, posInfo -> {
+            built.incrementAndGet();
+            return AccountReportServiceAlfabank.makePosTerminal(posInfo);
+        });
+
+        final PosInfo magnit = new PosInfo("11276718", "RUS", "SARATOV", "6 MOT", "MAGNIT MM ANT");
+        final PosInfo unknownCountry = new PosInfo("00000002", "", null, null, "STEAMGAMES CO");
+        final PosInfo rostelecom = new PosInfo("10705017", "RUS", "MOSCOW", "1 YA T", "ROSTELECOM");
+
+        final PosTerminal terminal = cache.get(magnit);
+        assertThat(terminal).isNotNull();
+        assertThat(cache.get(new PosInfo("11276718", "RUS", "SARATOV", "6 MOT", "MAGNIT MM ANT"))).isSameAs(terminal);
+        assertThat(cache.get(unknownCountry)).isNull();
+        assertThat(cache.get(unknownCountry)).isNull();
+        assertThat(built).hasValue(2);
+        assertThat(cache.hits()).isEqualTo(2);
+        assertThat(cache.misses()).isEqualTo(2);
+
+        // magnit is the least recently used terminal
+        cache.get(rostelecom);
+        assertThat(cache.size()).isEqualTo(2);
+        cache.get(unknownCountry);
+        assertThat(built).hasValue(3);
+        assertThat(cache.get(magnit)).isNotSameAs(terminal).isEqualTo(terminal);
+        assertThat(built).hasValue(4);
+    }
+}
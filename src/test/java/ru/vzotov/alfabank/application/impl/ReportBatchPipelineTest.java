@@ -0,0 +1,102 @@
+package ru.vzotov.alfabank.application.impl;
+
+import org.junit.jupiter.api.Test;
+import ru.vzotov.alfabank.application.ReportProcessingSettings.Execution;
+import ru.vzotov.alfabank.domain.model.AlfabankOperation;
+import ru.vzotov.alfabank.domain.model.TransactionId;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class ReportBatchPipelineTest {
+
+    @Test
+    public void readAheadInOrder() throws InterruptedException {
+        final List<String> descriptions = new ArrayList<>();
+        final ReportBatchReader reader = reader(operations(10).iterator(), 3);
+        try (ReportBatchPipeline pipeline = new ReportBatchPipeline(reader, 1, Execution.PLATFORM)) {
+            ReportBatches.Batch batch;
+            final List<Long> rows = new ArrayList<>();
+            while ((batch = pipeline.next()) != null) {
+                batch.operations().forEach(operation -> descriptions.add(operation.description()));
+                rows.add(batch.rows());
+            }
+            assertThat(rows).containsExactly(3L, 6L, 9L, 10L);
+            assertThat(pipeline.next()).isNull();
+        }
+        assertThat(descriptions).containsExactlyElementsOf(IntStream.range(0, 10).mapToObj(i -> "description " + i).toList());
+        assertThat(reader.rows()).isEqualTo(10);
+    }
+
+    @Test
+    public void failuresReachConsumer() throws InterruptedException {
+        final Iterator<AlfabankOperation> broken = Stream.concat(operations(4), Stream.<AlfabankOperation>of((AlfabankOperation) null))
+                .map(operation -> {
+                    if (operation == null) {
+                        throw new IllegalArgumentException("broken row");
+                    }
+                    return operation;
+                })
+                .iterator();
+        try (ReportBatchPipeline pipeline = new ReportBatchPipeline(reader(broken, 2), 4, Execution.PLATFORM)) {
+            assertThat(pipeline.next().operations()).hasSize(2);
+            assertThat(pipeline.next().operations()).hasSize(2);
+            assertThatThrownBy(pipeline::next).isInstanceOf(IllegalArgumentException.class).hasMessage("broken row");
+        }
+
+        // the reader stops when the consumer gives up while the queue is full
+        final AtomicInteger read = new AtomicInteger();
+        final Iterator<AlfabankOperation> endless = Stream.generate(() -> operation(read.getAndIncrement())).iterator();
+        try (ReportBatchPipeline pipeline = new ReportBatchPipeline(reader(endless, 2), 2, Execution.PLATFORM)) {
+            assertThat(pipeline.next().operations()).hasSize(2);
+        }
+        final int readAfterClose = read.get();
+        assertThat(readAfterClose).isLessThanOrEqualTo(2 * (1 + 2 + 1) + 1);
+        Thread.sleep(50);
+        assertThat(read.get()).isEqualTo(readAfterClose);
+    }
+
+    @Test
+    public void measurePreparationApartFromReading() {
+        final PosTerminalCache posTerminals = new PosTerminalCache(0, info -> null);
+        final ImportResolution resolution = new ImportResolution();
+        final ReportBatchReader reader = new ReportBatchReader(operations(5).iterator(), 0, 2, row -> {
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return false;
+        }, row -> AccountReportServiceAlfabank.toRegistration(row, posTerminals, resolution));
+        while (reader.next() != null) {
+            assertThat(reader.rows()).isPositive();
+        }
+        assertThat(reader.prepareNanos()).isGreaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(50));
+        assertThat(reader.readNanos()).isLessThan(reader.prepareNanos());
+    }
+
+    private static ReportBatchReader reader(Iterator<AlfabankOperation> operations, int batchSize) {
+        final PosTerminalCache posTerminals = new PosTerminalCache(0, info -> null);
+        final ImportResolution resolution = new ImportResolution();
+        return new ReportBatchReader(operations, 0, batchSize, row -> false,
+                row -> AccountReportServiceAlfabank.toRegistration(row, posTerminals, resolution));
+    }
+
+    private static Stream<AlfabankOperation> operations(int count) {
+        return IntStream.range(0, count).mapToObj(ReportBatchPipelineTest::operation);
+    }
+
+    private static AlfabankOperation operation(int i) {
+        return new AlfabankOperation("test type", "40817810108290123456", "RUR", LocalDate.now(),
+                new TransactionId("C01311018000" + i), "description " + i, 0.0d, 10.0d, null);
+    }
+}
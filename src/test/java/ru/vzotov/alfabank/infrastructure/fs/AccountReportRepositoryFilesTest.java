@@ -1,14 +1,19 @@
 package ru.vzotov.alfabank.infrastructure.fs;
 
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import ru.vzotov.accounting.domain.model.AccountReport;
 import ru.vzotov.accounting.domain.model.AccountReportId;
+import ru.vzotov.alfabank.application.ImportMetrics;
 import ru.vzotov.alfabank.application.impl.AccountReportServiceAlfabank;
 import ru.vzotov.alfabank.domain.model.AlfabankOperation;
+import ru.vzotov.alfabank.domain.model.AlfabankOperationBatch;
 import ru.vzotov.alfabank.domain.model.CardOperation;
 import ru.vzotov.alfabank.domain.model.PosInfo;
+import ru.vzotov.alfabank.domain.model.ReportUpload;
+import ru.vzotov.alfabank.domain.model.ReportValidation;
 import ru.vzotov.banking.domain.model.CardNumber;
 import ru.vzotov.banking.domain.model.City;
 import ru.vzotov.banking.domain.model.Country;
@@ -18,13 +23,24 @@ import ru.vzotov.banking.domain.model.PosTerminalId;
 import ru.vzotov.banking.domain.model.Street;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.text.ParseException;
 import java.time.LocalDate;
 import java.util.ArrayList;
+import java.util.Currency;
+import java.util.Arrays;
 import java.util.List;
+import java.util.function.Function;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
 public class AccountReportRepositoryFilesTest {
 
@@ -173,4 +189,221 @@ public class AccountReportRepositoryFilesTest {
         assertThat(terminal).isEqualTo(new PosTerminal(new PosTerminalId("RU200213"), new Country("RUS"),
                 new City("BORISOGLEBSK"), null, new Merchant("LUKOIL AZS 36")));
     }
+
+    @Test
+    public void checkpoint(@TempDir Path directory) throws IOException {
+        final AlfabankReportRepositoryFiles repo = new AlfabankReportRepositoryFiles(directory.toString());
+        final AccountReportId reportId;
+        try (InputStream in = new FileInputStream("src/test/resources/account-reports/credit_movementList_2018-06.csv")) {
+            reportId = repo.save("credit_movementList_2018-06.csv", in);
+        }
+        assertThat(repo.findCheckpoint(reportId)).isZero();
+
+        repo.saveCheckpoint(reportId, 20);
+        repo.saveCheckpoint(reportId, 24);
+        assertThat(repo.findCheckpoint(reportId)).isEqualTo(24);
+        try (Stream<AlfabankOperation> all = repo.stream(reportId); Stream<AlfabankOperation> remaining = repo.stream(reportId, 24)) {
+            assertThat(remaining.toList()).isEqualTo(all.skip(24).toList()).hasSize(2);
+        }
+
+        repo.markProcessed(reportId);
+        assertThat(directory.resolve(AlfabankReportRepositoryFiles.STATE_DIRECTORY)
+                .resolve("credit_movementList_2018-06.csv.checkpoint")).doesNotExist();
+        try (Stream<Path> files = Files.list(directory)) {
+            assertThat(files.map(file -> file.getFileName().toString())).containsExactlyInAnyOrder(
+                    "credit_movementList_2018-06_processed.csv", AlfabankReportRepositoryFiles.STATE_DIRECTORY);
+        }
+    }
+
+    @Test
+    public void upload(@TempDir Path directory) throws IOException {
+        final AlfabankReportRepositoryFiles repo = new AlfabankReportRepositoryFiles(directory.toString());
+        final Path source = Path.of("src/test/resources/account-reports/credit_movementList_2018-06.csv");
+
+        final ReportUpload upload;
+        try (InputStream in = Files.newInputStream(source)) {
+            upload = repo.upload("credit_movementList_2018-06.csv", in);
+        }
+        assertThat(upload.duplicate()).isFalse();
+        assertThat(upload.rows()).isEqualTo(26);
+        assertThat(upload.contentHash()).hasSize(64);
+        try (Stream<AlfabankOperation> operations = repo.stream(upload.reportId())) {
+            final List<LocalDate> dates = operations.map(AlfabankOperation::date).sorted().toList();
+            assertThat(upload.firstDate()).isEqualTo(dates.get(0));
+            assertThat(upload.lastDate()).isEqualTo(dates.get(dates.size() - 1));
+        }
+        assertThat(directory.resolve("credit_movementList_2018-06.csv")).hasSameBinaryContentAs(source);
+
+        repo.markProcessed(upload.reportId());
+        final ReportUpload copy;
+        try (InputStream in = Files.newInputStream(source)) {
+            copy = repo.upload("copy.csv", in);
+        }
+        assertThat(copy.duplicate()).isTrue();
+        assertThat(copy.reportId().name()).isEqualTo("credit_movementList_2018-06_processed.csv");
+        assertThat(copy.contentHash()).isEqualTo(upload.contentHash());
+        try (InputStream in = Files.newInputStream(source)) {
+            assertThatThrownBy(() -> repo.save("copy.csv", in)).isInstanceOf(IllegalArgumentException.class);
+        }
+        try (Stream<Path> files = Files.list(directory)) {
+            assertThat(files.map(file -> file.getFileName().toString())).containsExactlyInAnyOrder(
+                    "credit_movementList_2018-06_processed.csv", AlfabankReportRepositoryFiles.STATE_DIRECTORY);
+        }
+
+        for (File report : new File("src/test/resources/account-reports").listFiles()) {
+            try (InputStream in = new FileInputStream(report)) {
+                final ReportUpload summary = repo.upload("summary-" + report.getName(), in);
+                if (!summary.duplicate()) {
+                    try (Stream<AlfabankOperation> operations = repo.stream(summary.reportId())) {
+                        assertThat(operations.count()).isEqualTo(summary.rows());
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void cache(@TempDir Path directory) throws IOException {
+        final AlfabankReportRepositoryFiles parsed = new AlfabankReportRepositoryFiles("src/test/resources/account-reports");
+        final AlfabankReportRepositoryFiles repo = new AlfabankReportRepositoryFiles(directory.toString(), false,
+                ReportParser.MAPPED, ImportMetrics.NOOP, true);
+        for (AccountReportId reportId : parsed.findAll()) {
+            try (InputStream in = new FileInputStream("src/test/resources/account-reports/" + reportId.name())) {
+                repo.save(reportId.name(), in);
+            }
+            final List<AlfabankOperation> expected = parsed.find(reportId).operations();
+            final Path cache = directory.resolve(AlfabankReportRepositoryFiles.STATE_DIRECTORY).resolve(reportId.name() + ".cache");
+
+            try (Stream<AlfabankOperation> operations = repo.stream(reportId)) {
+                assertThat(operations.limit(1).count()).isEqualTo(1);
+            }
+            assertThat(cache).doesNotExist();
+
+            assertThat(repo.find(reportId).operations()).isEqualTo(expected);
+            assertThat(cache).exists();
+            final long cached = 1_000_000_000L;
+            assertThat(cache.toFile().setLastModified(cached)).isTrue();
+            assertThat(repo.find(reportId).operations()).isEqualTo(expected);
+            try (Stream<AlfabankOperation> remaining = repo.stream(reportId, 2)) {
+                assertThat(remaining.toList()).isEqualTo(expected.subList(2, expected.size()));
+            }
+            assertThat(Files.getLastModifiedTime(cache).toMillis()).isEqualTo(cached);
+
+            final File report = directory.resolve(reportId.name()).toFile();
+            assertThat(report.setLastModified(report.lastModified() - 10000)).isTrue();
+            assertThat(repo.find(reportId).operations()).isEqualTo(expected);
+            assertThat(Files.getLastModifiedTime(cache).toMillis()).isNotEqualTo(cached);
+        }
+
+        final AccountReportId reportId = repo.findUnprocessed().get(0);
+        final List<AlfabankOperation> expected = repo.find(reportId).operations();
+        repo.markProcessed(reportId);
+        final AccountReportId processed = repo.findAll().stream()
+                .filter(id -> id.name().equals(reportId.name().replace(".csv", "_processed.csv")))
+                .findFirst().orElseThrow();
+        assertThat(directory.resolve(AlfabankReportRepositoryFiles.STATE_DIRECTORY).resolve(processed.name() + ".cache")).exists();
+        assertThat(repo.find(processed).operations()).isEqualTo(expected);
+    }
+
+    @Test
+    public void corruptCache(@TempDir Path directory) throws IOException {
+        final AlfabankReportRepositoryFiles repo = new AlfabankReportRepositoryFiles(directory.toString(), false,
+                ReportParser.MAPPED, ImportMetrics.NOOP, true);
+        final AccountReportId reportId;
+        try (InputStream in = new FileInputStream("src/test/resources/account-reports/credit_movementList_2018-06.csv")) {
+            reportId = repo.save("credit_movementList_2018-06.csv", in);
+        }
+        final List<AlfabankOperation> expected = repo.find(reportId).operations();
+        final Path cache = directory.resolve(AlfabankReportRepositoryFiles.STATE_DIRECTORY).resolve(reportId.name() + ".cache");
+        final byte[] valid = Files.readAllBytes(cache);
+
+        final byte[] changed = valid.clone();
+        changed[changed.length / 2] ^= 0x55;
+        Files.write(cache, changed);
+        assertThat(repo.find(reportId).operations()).isEqualTo(expected);
+        assertThat(cache).hasBinaryContent(valid);
+
+        Files.write(cache, Arrays.copyOf(valid, valid.length / 2));
+        try (Stream<AlfabankOperation> remaining = repo.stream(reportId, 2)) {
+            assertThat(remaining.toList()).isEqualTo(expected.subList(2, expected.size()));
+        }
+        assertThat(cache).doesNotExist();
+    }
+
+    @Test
+    public void batches() {
+        for (ReportParser parser : ReportParser.values()) {
+            final AlfabankReportRepositoryFiles repo = new AlfabankReportRepositoryFiles(
+                    "src/test/resources/account-reports", false, parser);
+            for (AccountReportId reportId : repo.findAll()) {
+                final List<AlfabankOperation> expected = repo.find(reportId).operations();
+                try (Stream<AlfabankOperationBatch> batches = repo.batches(reportId, 0, 7)) {
+                    final List<AlfabankOperationBatch> all = batches.toList();
+                    assertThat(all).allSatisfy(batch -> assertThat(batch.size()).isBetween(1, 7));
+                    assertThat(all.stream().flatMap(AlfabankOperationBatch::stream)).containsExactlyElementsOf(expected);
+                }
+                final int skip = Math.min(3, expected.size());
+                try (Stream<AlfabankOperationBatch> batches = repo.batches(reportId, skip, 100)) {
+                    assertThat(batches.flatMap(AlfabankOperationBatch::stream))
+                            .containsExactlyElementsOf(expected.subList(skip, expected.size()));
+                }
+            }
+        }
+
+        final AlfabankReportRepositoryFiles repo = new AlfabankReportRepositoryFiles("src/test/resources/account-reports");
+        final AccountReportId reportId = repo.findAll().stream()
+                .filter(id -> id.name().equals("credit_movementList_2018-06.csv"))
+                .findFirst().orElseThrow();
+        try (Stream<AlfabankOperationBatch> batches = repo.batches(reportId, 0, 1000)) {
+            final AlfabankOperationBatch batch = batches.findFirst().orElseThrow();
+            assertThat(batch.size()).isEqualTo(26);
+            assertThat(batch.date(0)).isEqualTo(LocalDate.of(2018, 6, 25));
+            assertThat(batch.epochDay(0)).isEqualTo(LocalDate.of(2018, 6, 25).toEpochDay());
+            assertThat(batch.deposit(0)).isZero();
+            assertThat(batch.withdraw(0)).isEqualTo(3319994L);
+            assertThat(batch.accountNumber(0)).isSameAs(batch.accountNumber(25));
+            assertThatThrownBy(() -> batch.get(26)).isInstanceOf(IndexOutOfBoundsException.class);
+        }
+    }
+
+    @Test
+    public void validateAndQuarantine(@TempDir Path directory) throws IOException {
+        final Charset charset = Charset.forName("Cp1251");
+        final String[] lines = Files.readString(Path.of("src/test/resources/account-reports/credit_movementList_2018-06.csv"), charset)
+                .split("(?<=\n)");
+        lines[2] = lines[2].replace(";25.06.18;", ";25.13.18;");
+        lines[4] = lines[4].replace(";RUR;", ";XXQ;");
+        Files.writeString(directory.resolve("broken.csv"), String.join("", lines), charset);
+        final Function<AlfabankOperation, String> rules = row -> {
+            try {
+                Currency.getInstance(row.currencyCode());
+                return null;
+            } catch (IllegalArgumentException e) {
+                return "Unknown currency " + row.currencyCode();
+            }
+        };
+
+        for (ReportParser parser : List.of(ReportParser.COMMONS_CSV, ReportParser.MAPPED)) {
+            final AlfabankReportRepositoryFiles repo = new AlfabankReportRepositoryFiles(directory.toString(), false, parser);
+            final ReportValidation validation = repo.validate(repo.findUnprocessed("broken.csv"), rules);
+            assertThat(validation.valid()).isFalse();
+            assertThat(validation.rows()).isEqualTo(26);
+            assertThat(validation.invalidRows()).isEqualTo(2);
+            assertThat(validation.errors()).extracting(ReportValidation.RowError::row).containsExactly(2L, 4L);
+            assertThat(validation.errors()).extracting(ReportValidation.RowError::line).containsExactly(3L, 5L);
+            assertThat(validation.errors().get(1).message()).isEqualTo("Unknown currency XXQ");
+            assertThat(validation.accounts()).containsExactly("40817810808290123456");
+        }
+
+        final AlfabankReportRepositoryFiles repo = new AlfabankReportRepositoryFiles(directory.toString());
+        final AccountReportId reportId = repo.findUnprocessed("broken.csv");
+        assertThat(repo.quarantine(reportId, repo.validate(reportId, rules))).isTrue();
+        assertThat(repo.findUnprocessed()).isEmpty();
+        assertThat(directory.resolve("quarantine/broken.csv")).exists();
+        final List<String> errors = Files.readAllLines(directory.resolve("quarantine/broken.csv.errors"));
+        assertThat(errors).hasSize(3);
+        assertThat(errors.get(0)).isEqualTo("rows: 26, invalid rows: 2");
+        assertThat(errors.get(1)).startsWith("line 3: ");
+        assertThat(errors.get(2)).isEqualTo("line 5: Unknown currency XXQ");
+    }
 }
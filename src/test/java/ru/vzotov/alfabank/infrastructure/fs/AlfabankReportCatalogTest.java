@@ -0,0 +1,118 @@
+package ru.vzotov.alfabank.infrastructure.fs;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.vzotov.accounting.domain.model.AccountReportId;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class AlfabankReportCatalogTest {
+
+    @Test
+    public void catalog(@TempDir Path directory) throws IOException {
+        Files.writeString(directory.resolve("movementList_2020-01.csv"), "");
+        Files.writeString(directory.resolve("movementList_2020-02_processed.csv"), "");
+        Files.writeString(directory.resolve("readme.txt"), "");
+
+        final AtomicInteger reads = new AtomicInteger();
+        final Function<File, AccountReportId> mapper = file -> {
+            reads.incrementAndGet();
+            return new AccountReportId(file.getName(), Instant.ofEpochSecond(file.getName().length()));
+        };
+
+        final AlfabankReportCatalog catalog = new AlfabankReportCatalog(directory.toFile(), mapper, true);
+        assertThat(catalog.findAll()).extracting(AccountReportId::name)
+                .containsExactly("movementList_2020-01.csv", "movementList_2020-02_processed.csv");
+        assertThat(catalog.findUnprocessed()).extracting(AccountReportId::name)
+                .containsExactly("movementList_2020-01.csv");
+        assertThat(reads).hasValue(2);
+
+        Files.writeString(directory.resolve("movementList_2020-03.csv"), "");
+        assertThat(catalog.findUnprocessed("movementList_2020-03.csv")).isNotNull();
+        assertThat(reads).hasValue(3);
+
+        Files.move(directory.resolve("movementList_2020-01.csv"), directory.resolve("movementList_2020-01_processed.csv"));
+        catalog.removed("movementList_2020-01.csv");
+        catalog.added(mapper.apply(directory.resolve("movementList_2020-01_processed.csv").toFile()));
+        assertThat(catalog.findUnprocessed()).extracting(AccountReportId::name)
+                .containsExactly("movementList_2020-03.csv");
+
+        reads.set(0);
+        final AlfabankReportCatalog restored = new AlfabankReportCatalog(directory.toFile(), mapper, true);
+        assertThat(restored.findAll()).isEqualTo(catalog.findAll());
+        assertThat(restored.findUnprocessed()).isEqualTo(catalog.findUnprocessed());
+        assertThat(reads).hasValue(0);
+        assertThat(directory.resolve(AlfabankReportRepositoryFiles.STATE_DIRECTORY).resolve(AlfabankReportCatalog.INDEX_NAME)).exists();
+    }
+
+    @Test
+    public void indexDoesNotGrowWithoutChanges(@TempDir Path directory) throws IOException {
+        Files.writeString(directory.resolve("movementList_2020-01.csv"), "");
+        final Function<File, AccountReportId> mapper = file -> new AccountReportId(file.getName(), Instant.EPOCH);
+        final Path index = directory.resolve(AlfabankReportRepositoryFiles.STATE_DIRECTORY).resolve(AlfabankReportCatalog.INDEX_NAME);
+
+        final AlfabankReportCatalog catalog = new AlfabankReportCatalog(directory.toFile(), mapper, true);
+        assertThat(catalog.findAll()).hasSize(1);
+        final long lines = Files.readAllLines(index).size();
+
+        // the directory has just been modified, so it is scanned again on every search
+        for (int i = 0; i < 100; i++) {
+            assertThat(catalog.findAll()).hasSize(1);
+        }
+        assertThat(Files.readAllLines(index)).hasSize((int) lines);
+
+        // the index is compacted when it grows
+        for (int i = 0; i < 100; i++) {
+            catalog.added(new AccountReportId("movementList_2020-02.csv", Instant.EPOCH));
+            catalog.removed("movementList_2020-02.csv");
+        }
+        assertThat(Files.readAllLines(index).size()).isLessThanOrEqualTo(2 * 1 + 64 + 1);
+
+        final AlfabankReportCatalog restored = new AlfabankReportCatalog(directory.toFile(), mapper, true);
+        assertThat(restored.findAll()).extracting(AccountReportId::name).containsExactly("movementList_2020-01.csv");
+    }
+
+    @Test
+    public void changesOfRepositoryDoNotScan(@TempDir Path directory) throws IOException {
+        Files.writeString(directory.resolve("movementList_2020-01.csv"), "");
+        Files.createDirectories(directory.resolve(AlfabankReportRepositoryFiles.STATE_DIRECTORY));
+        assertThat(directory.toFile().setLastModified(System.currentTimeMillis() - 60000)).isTrue();
+
+        final AtomicInteger reads = new AtomicInteger();
+        final Function<File, AccountReportId> mapper = file -> {
+            reads.incrementAndGet();
+            return new AccountReportId(file.getName(), Instant.EPOCH);
+        };
+        final AlfabankReportCatalog catalog = new AlfabankReportCatalog(directory.toFile(), mapper, true);
+        assertThat(catalog.findAll()).hasSize(1);
+        assertThat(reads).hasValue(1);
+
+        final Path report = directory.resolve("movementList_2020-02.csv");
+        final Path processed = directory.resolve("movementList_2020-02_processed.csv");
+        catalog.change(() -> {
+            Files.writeString(report, "");
+            catalog.added(mapper.apply(report.toFile()));
+        });
+        catalog.change(() -> {
+            Files.move(report, processed);
+            catalog.removed(report.getFileName().toString());
+            catalog.added(mapper.apply(processed.toFile()));
+        });
+        reads.set(0);
+        assertThat(catalog.findAll()).extracting(AccountReportId::name)
+                .containsExactly("movementList_2020-01.csv", "movementList_2020-02_processed.csv");
+        assertThat(reads).hasValue(0);
+
+        // a report written by another process is found by its name even if the directory is not scanned
+        Files.writeString(directory.resolve("movementList_2020-03.csv"), "");
+        assertThat(catalog.findUnprocessed("movementList_2020-03.csv")).isNotNull();
+    }
+}
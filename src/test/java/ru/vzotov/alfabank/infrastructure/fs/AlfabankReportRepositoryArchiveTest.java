@@ -0,0 +1,124 @@
+package ru.vzotov.alfabank.infrastructure.fs;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.vzotov.accounting.domain.model.AccountReportId;
+import ru.vzotov.alfabank.application.ImportMetrics;
+import ru.vzotov.alfabank.domain.model.AlfabankOperation;
+import ru.vzotov.alfabank.domain.model.AlfabankOperationBatch;
+import ru.vzotov.alfabank.domain.model.ReportUpload;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class AlfabankReportRepositoryArchiveTest {
+
+    private static final Path REPORTS = Path.of("src/test/resources/account-reports");
+
+    @Test
+    public void archive(@TempDir Path directory) throws IOException {
+        final AlfabankReportRepositoryFiles files = new AlfabankReportRepositoryFiles(REPORTS.toString());
+        final AlfabankReportRepositoryArchive repo = new AlfabankReportRepositoryArchive(directory.toString(), false,
+                ReportParser.MAPPED, ImportMetrics.NOOP, false, 1);
+
+        final File[] reports = REPORTS.toFile().listFiles();
+        for (File report : reports) {
+            final AccountReportId reportId;
+            try (InputStream in = Files.newInputStream(report.toPath())) {
+                reportId = repo.save(report.getName(), in);
+            }
+            repo.saveCheckpoint(reportId, 1);
+            repo.markProcessed(reportId);
+        }
+        assertThat(repo.findUnprocessed()).isEmpty();
+        try (Stream<Path> stored = Files.list(directory)) {
+            assertThat(stored.map(file -> file.getFileName().toString())).containsExactlyInAnyOrder(
+                    "archive", AlfabankReportRepositoryFiles.STATE_DIRECTORY);
+        }
+        try (Stream<Path> archived = Files.list(directory.resolve("archive"))) {
+            // every archive file reaches the maximum size with a single report
+            assertThat(archived).hasSize(reports.length + 1);
+        }
+
+        for (AlfabankReportRepositoryArchive reopened : List.of(repo, new AlfabankReportRepositoryArchive(directory.toString()))) {
+            assertThat(reopened.findAll()).hasSize(reports.length);
+            for (File report : reports) {
+                final AccountReportId expected = files.findUnprocessed(report.getName());
+                final AccountReportId processed = reopened.findAll().stream()
+                        .filter(id -> id.name().equals(AlfabankReportRepositoryFiles.processedName(report.getName())))
+                        .findFirst().orElseThrow();
+                assertThat(reopened.find(processed).operations()).isEqualTo(files.find(expected).operations());
+                assertThat(reopened.findAccountNumbers(processed)).isEqualTo(files.findAccountNumbers(expected));
+                try (Stream<AlfabankOperationBatch> batches = reopened.batches(processed, 1, 10)) {
+                    assertThat(batches.flatMap(AlfabankOperationBatch::stream).toList())
+                            .isEqualTo(files.find(expected).operations().stream().skip(1).toList());
+                }
+            }
+        }
+
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(directory.resolve("archive/reports-00001.gz")))) {
+            assertThat(in.readAllBytes()).isEqualTo(Files.readAllBytes(reports[0].toPath()));
+        }
+    }
+
+    @Test
+    public void duplicates(@TempDir Path directory) throws IOException {
+        final AlfabankReportRepositoryArchive repo = new AlfabankReportRepositoryArchive(directory.toString());
+        final Path source = REPORTS.resolve("credit_movementList_2018-06.csv");
+
+        final ReportUpload upload;
+        try (InputStream in = Files.newInputStream(source)) {
+            upload = repo.upload("credit_movementList_2018-06.csv", in);
+        }
+        repo.markProcessed(upload.reportId());
+
+        final AlfabankReportRepositoryArchive reopened = new AlfabankReportRepositoryArchive(directory.toString());
+        final ReportUpload copy;
+        try (InputStream in = Files.newInputStream(source)) {
+            copy = reopened.upload("copy.csv", in);
+        }
+        assertThat(copy.duplicate()).isTrue();
+        assertThat(copy.reportId().name()).isEqualTo("credit_movementList_2018-06_processed.csv");
+        assertThat(copy.reportId().dateImported()).isEqualTo(upload.reportId().dateImported());
+        try (InputStream in = Files.newInputStream(REPORTS.resolve("debit_movementList_2020_2020-03-30.csv"))) {
+            assertThatThrownBy(() -> reopened.save("credit_movementList_2018-06.csv", in))
+                    .isInstanceOf(IllegalArgumentException.class);
+        }
+        try (Stream<AlfabankOperation> operations = reopened.stream(copy.reportId())) {
+            assertThat(operations.count()).isEqualTo(upload.rows());
+        }
+    }
+
+    /**
+     * The application stopped after the report was archived, but before it was deleted from the directory.
+     */
+    @Test
+    public void markArchivedReportProcessed(@TempDir Path directory) throws IOException {
+        final Path source = REPORTS.resolve("credit_movementList_2018-06.csv");
+        final AlfabankReportRepositoryArchive repo = new AlfabankReportRepositoryArchive(directory.toString());
+        final AccountReportId reportId;
+        try (InputStream in = Files.newInputStream(source)) {
+            reportId = repo.save("credit_movementList_2018-06.csv", in);
+        }
+        repo.markProcessed(reportId);
+        Files.copy(source, directory.resolve("credit_movementList_2018-06.csv"));
+
+        final AlfabankReportRepositoryArchive reopened = new AlfabankReportRepositoryArchive(directory.toString());
+        final AccountReportId leftover = reopened.findUnprocessed("credit_movementList_2018-06.csv");
+        assertThat(leftover).isNotNull();
+        reopened.markProcessed(leftover);
+        assertThat(reopened.findUnprocessed()).isEmpty();
+        assertThat(directory.resolve("credit_movementList_2018-06.csv")).doesNotExist();
+        assertThat(reopened.findAll()).extracting(AccountReportId::name)
+                .containsExactly("credit_movementList_2018-06_processed.csv");
+    }
+}
@@ -0,0 +1,59 @@
+package ru.vzotov.alfabank.infrastructure.fs;
+
+import org.junit.jupiter.api.Test;
+import ru.vzotov.accounting.domain.model.AccountReportId;
+import ru.vzotov.alfabank.domain.model.AlfabankOperation;
+import ru.vzotov.alfabank.domain.model.ReportValidation;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class AlfabankReportRepositoryMemoryTest {
+
+    @Test
+    public void memory() throws IOException {
+        final AlfabankReportRepositoryFiles files = new AlfabankReportRepositoryFiles("src/test/resources/account-reports");
+        final AlfabankReportRepositoryMemory repo = new AlfabankReportRepositoryMemory();
+        final Path source = Path.of("src/test/resources/account-reports/credit_movementList_2018-06.csv");
+
+        final AccountReportId reportId;
+        try (InputStream in = Files.newInputStream(source)) {
+            reportId = repo.save("credit_movementList_2018-06.csv", in);
+        }
+        assertThat(repo.findUnprocessed()).containsExactly(reportId);
+        assertThat(repo.findUnprocessed("credit_movementList_2018-06.csv")).isEqualTo(reportId);
+        final List<AlfabankOperation> expected = files.find(files.findUnprocessed("credit_movementList_2018-06.csv")).operations();
+        assertThat(repo.find(reportId).operations()).isEqualTo(expected);
+        try (Stream<AlfabankOperation> remaining = repo.stream(reportId, 24)) {
+            assertThat(remaining.toList()).isEqualTo(expected.subList(24, expected.size()));
+        }
+
+        repo.saveCheckpoint(reportId, 24);
+        assertThat(repo.findCheckpoint(reportId)).isEqualTo(24);
+        repo.markProcessed(reportId);
+        assertThat(repo.findCheckpoint(reportId)).isZero();
+        assertThat(repo.findUnprocessed()).isEmpty();
+        assertThat(repo.findAll()).extracting(AccountReportId::name).containsExactly("credit_movementList_2018-06_processed.csv");
+        assertThat(repo.find(repo.findAll().get(0)).operations()).isEqualTo(expected);
+        try (InputStream in = Files.newInputStream(source)) {
+            assertThatThrownBy(() -> repo.save("credit_movementList_2018-06.csv", in)).isInstanceOf(IllegalArgumentException.class);
+        }
+
+        final AccountReportId invalid;
+        try (InputStream in = Files.newInputStream(source)) {
+            invalid = repo.save("invalid.csv", in);
+        }
+        final ReportValidation validation = new ReportValidation(invalid, 26, 1, List.of(), Set.of());
+        assertThat(repo.quarantine(invalid, validation)).isTrue();
+        assertThat(repo.findQuarantined("invalid.csv")).isEqualTo(validation);
+        assertThat(repo.findAll()).hasSize(1);
+    }
+}
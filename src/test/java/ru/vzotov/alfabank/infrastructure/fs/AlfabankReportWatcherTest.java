@@ -0,0 +1,38 @@
+package ru.vzotov.alfabank.infrastructure.fs;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.vzotov.accounting.domain.model.AccountReportId;
+
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class AlfabankReportWatcherTest {
+
+    private static final String HEADER = "Тип счёта;Номер счета;Валюта;Дата операции;Референс проводки;Описание операции;Приход;Расход;\n";
+
+    @Test
+    public void reportReady(@TempDir Path directory) throws Exception {
+        final AlfabankReportRepositoryFiles repo = new AlfabankReportRepositoryFiles(directory.toString());
+        final BlockingQueue<AccountReportId> ready = new LinkedBlockingQueue<>();
+
+        try (AlfabankReportWatcher watcher = new AlfabankReportWatcher(repo, directory, Duration.ofMillis(200), ready::add)) {
+            watcher.start();
+
+            Files.writeString(directory.resolve("movementList.csv"), HEADER, Charset.forName("Cp1251"));
+            Files.writeString(directory.resolve("movementList_processed.csv"), HEADER, Charset.forName("Cp1251"));
+
+            final AccountReportId reportId = ready.poll(10, TimeUnit.SECONDS);
+            assertThat(reportId).isNotNull();
+            assertThat(reportId.name()).isEqualTo("movementList.csv");
+            assertThat(ready.poll(1, TimeUnit.SECONDS)).isNull();
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package ru.vzotov.alfabank.infrastructure.fs;
+
+import org.junit.jupiter.api.Test;
+import ru.vzotov.alfabank.domain.model.CardOperation;
+import ru.vzotov.alfabank.domain.model.PosInfo;
+
+import java.text.ParseException;
+import java.time.LocalDate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class CardOperationParserTest {
+
+    private final CardOperationParser parser = new CardOperationParser();
+
+    @Test
+    public void parse() throws ParseException {
+        CardOperation op = parser.parse("555957++++++1234    11276718\\RUS\\SARATOV\\6 MOT\\MAGNIT MM ANT          28.03.20 25.03.20      1543.40  RUR (Android Pay-9313) MCC5411");
+        assertThat(op).isNotNull();
+        assertThat(op.cardNumber()).isEqualTo("555957++++++1234");
+        assertThat(op.posInfo().terminalId()).isEqualTo("11276718");
+        assertThat(op.posInfo().merchant()).isEqualTo("MAGNIT MM ANT");
+        assertThat(op.authDate()).isEqualTo(LocalDate.of(2020, 3, 28));
+        assertThat(op.purchaseDate()).isEqualTo(LocalDate.of(2020, 3, 25));
+        assertThat(op.amount()).isEqualTo(1543.40d);
+        assertThat(op.currency()).isEqualTo("RUR");
+        assertThat(op.extraInfo()).isEqualTo("(Android Pay-9313)");
+        assertThat(op.mcc()).isEqualTo("5411");
+    }
+
+    @Test
+    public void parseForeignCurrency() throws ParseException {
+        CardOperation yen = parser.parse("555957++++++1234    00000002\\JPN\\TOKYO\\\\LAWSON                        12.05.19 10.05.19      1500.00  JPY MCC5411");
+        assertThat(yen).isNotNull();
+        assertThat(yen.currency()).isEqualTo("JPY");
+        assertThat(yen.amountMinor()).isEqualTo(1500L);
+        assertThat(yen.amount()).isEqualTo(1500.0d);
+
+        CardOperation dinar = parser.parse("555957++++++1234    00000003\\KWT\\KUWAIT\\\\SULTAN CENTER                12.05.19 10.05.19        12.35  KWD MCC5411");
+        assertThat(dinar).isNotNull();
+        assertThat(dinar.amountMinor()).isEqualTo(12350L);
+        assertThat(dinar.amount()).isEqualTo(12.35d);
+
+        CardOperation dollar = parser.parse("555957++++++1234    00000004\\USA\\SEATTLE\\\\STEAMGAMES.COM              12.05.19 10.05.19        12.35  USD MCC5816");
+        assertThat(dollar).isNotNull();
+        assertThat(dollar.amountMinor()).isEqualTo(1235L);
+    }
+
+    @Test
+    public void parseNotCardOperation() throws ParseException {
+        assertThat(parser.parse("Пополнение счета")).isNull();
+        assertThat(parser.parse("11276719 RU MAGNIT MM ANTROPOS.>Sar 20.03.28 20.03.28 3127.89 RUR 555957++++++1234")).isNull();
+        assertThat(parser.parse("MCC5411")).isNull();
+    }
+
+    @Test
+    public void parseEndOfMonth() throws ParseException {
+        CardOperation op = parser.parse("555957++++++1234    10000001\\RUS\\MOSCOW\\10 bld\\Tinkoff Bank           31.02.20 19.02.20      2000.00  RUR MCC6538");
+        assertThat(op).isNotNull();
+        assertThat(op.authDate()).isEqualTo(LocalDate.of(2020, 2, 29));
+    }
+
+    @Test
+    public void parseAmountAlignedLeft() throws ParseException {
+        CardOperation op = parser.parse("415482++++++1234    5101831 /RU/UBRR>Visa Direct                      06.08.18 06.08.18 2040.00       RUR MCC6012");
+        assertThat(op).isNotNull();
+        assertThat(op.amount()).isEqualTo(2040.00d);
+        assertThat(op.posInfo().country()).isEqualTo("RU");
+        assertThat(op.posInfo().merchant()).isEqualTo("UBRR>Visa Direct");
+    }
+
+    @Test
+    public void parsePosInfoLikeSplit() {
+        final String[] values = {
+                "11276718\\RUS\\SARATOV\\6 MOT\\MAGNIT MM ANT",
+                "502546\\643\\SARATOV\\Alfa Iss",
+                "5101831 /RU/UBRR>Visa Direct",
+                "00000002\\DEU\\425952 2985\\\\STEAMGAMES CO",
+                "RU200213\\RUS\\BORISOGLEBSK\\\\LUKOIL AZS 36",
+                "12345\\RUS\\MOSCOW\\\\",
+                "12345/RUS/ /MERCHANT/ ",
+                "\\RUS\\MERCHANT"
+        };
+        for (String value : values) {
+            final String[] parts = value.split("[\\\\/]");
+            final PosInfo expected = new PosInfo(parts[0].trim(), parts[1].trim(),
+                    parts.length < 4 ? null : parts[2].trim(),
+                    parts.length < 5 ? null : parts[3].trim(),
+                    parts[parts.length - 1].trim());
+            assertThat(parser.parsePosInfo(value)).as(value).isEqualTo(expected);
+        }
+    }
+
+    @Test
+    public void parseWithInterner() throws ParseException {
+        final StringInterner interner = new StringInterner();
+        final String description = "555957++++++1234    11276718\\RUS\\SARATOV\\6 MOT\\MAGNIT MM ANT          28.03.20 25.03.20      1543.40  RUR (Android Pay-9313) MCC5411";
+        final CardOperation first = parser.parse(description, interner);
+        final CardOperation second = parser.parse(new String(description), interner);
+
+        assertThat(second).isEqualTo(parser.parse(description));
+        assertThat(second.cardNumber()).isSameAs(first.cardNumber());
+        assertThat(second.posInfo().merchant()).isSameAs(first.posInfo().merchant());
+        assertThat(second.posInfo().city()).isSameAs(first.posInfo().city());
+        assertThat(second.extraInfo()).isSameAs(first.extraInfo());
+        assertThat(second.mcc()).isSameAs(first.mcc());
+    }
+}
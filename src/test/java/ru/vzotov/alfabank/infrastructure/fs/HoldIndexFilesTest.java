@@ -0,0 +1,155 @@
+package ru.vzotov.alfabank.infrastructure.fs;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.InOrder;
+import org.mockito.Mockito;
+import ru.vzotov.accounting.application.AccountNotFoundException;
+import ru.vzotov.accounting.application.AccountingService;
+import ru.vzotov.alfabank.application.HoldIndex;
+import ru.vzotov.alfabank.application.ImportMetrics;
+import ru.vzotov.alfabank.application.OperationRegistration;
+import ru.vzotov.alfabank.application.impl.AccountingServiceBatchRegistrar;
+import ru.vzotov.banking.domain.model.AccountNumber;
+import ru.vzotov.banking.domain.model.OperationId;
+import ru.vzotov.banking.domain.model.OperationType;
+import ru.vzotov.banking.domain.model.TransactionReference;
+import ru.vzotov.domain.model.Money;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.Currency;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class HoldIndexFilesTest {
+
+    private static final String ACCOUNT = "40817810108290123456";
+
+    private static final LocalDate TODAY = LocalDate.of(2023, 6, 1);
+
+    private static final Clock CLOCK = Clock.fixed(TODAY.atStartOfDay().toInstant(ZoneOffset.UTC), ZoneOffset.UTC);
+
+    @TempDir
+    Path dir;
+
+    @Test
+    public void mayMatchHoldsWithinWindow() {
+        final HoldIndexFiles index = new HoldIndexFiles(dir.toString(), 30, CLOCK);
+
+        // holds registered before the account got into the index are unknown
+        assertThat(index.mayMatch(completed(ACCOUNT, TODAY.minusYears(1), OperationType.WITHDRAW))).isTrue();
+        assertThat(index.mayMatch(completed(ACCOUNT, TODAY.plusDays(30), OperationType.WITHDRAW))).isTrue();
+        assertThat(index.mayMatch(completed(ACCOUNT, TODAY.plusDays(31), OperationType.WITHDRAW))).isFalse();
+
+        index.holdsRegistered(List.of(hold(ACCOUNT, TODAY.plusDays(50), OperationType.WITHDRAW)));
+        final HoldIndexFiles reloaded = new HoldIndexFiles(dir.toString(), 30, CLOCK);
+        assertThat(reloaded.mayMatch(completed(ACCOUNT, TODAY.plusDays(52), OperationType.WITHDRAW))).isTrue();
+        assertThat(reloaded.mayMatch(completed(ACCOUNT, TODAY.plusDays(52), OperationType.DEPOSIT))).isFalse();
+        assertThat(reloaded.mayMatch(completed(ACCOUNT, TODAY.plusDays(81), OperationType.WITHDRAW))).isFalse();
+        assertThat(reloaded.mayMatch(completed("40817810108290000000", TODAY.plusDays(20), OperationType.WITHDRAW))).isTrue();
+    }
+
+    @Test
+    public void mayMatchHoldsOfSameAmount() throws IOException {
+        final HoldIndexFiles index = new HoldIndexFiles(dir.toString(), 30, CLOCK);
+        index.holdsRegistered(List.of(hold(ACCOUNT, TODAY.plusDays(50), OperationType.WITHDRAW)));
+
+        assertThat(index.mayMatch(completed(ACCOUNT, TODAY.plusDays(52), OperationType.WITHDRAW, Money.kopecks(1000)))).isTrue();
+        assertThat(index.mayMatch(completed(ACCOUNT, TODAY.plusDays(52), OperationType.WITHDRAW, Money.kopecks(1001)))).isFalse();
+
+        // the completed amount of a purchase in a foreign currency differs from its hold
+        final OperationRegistration foreign = new OperationRegistration(new AccountNumber(ACCOUNT), TODAY.plusDays(52),
+                new TransactionReference("CRD_1"), OperationType.WITHDRAW, Money.kopecks(1050), "completed",
+                new OperationRegistration.Card(null, null, TODAY.plusDays(50), TODAY.plusDays(50),
+                        new Money(10, Currency.getInstance("USD")), null, null));
+        assertThat(index.mayMatch(foreign)).isTrue();
+
+        // holds written without amounts match any amount
+        final Path file = dir.resolve(HoldIndexFiles.INDEX_DIRECTORY).resolve(ACCOUNT + ".holds");
+        Files.writeString(file, "since\t" + TODAY + "\n" + TODAY.plusDays(50) + "\tWITHDRAW\n");
+        final HoldIndexFiles legacy = new HoldIndexFiles(dir.toString(), 30, CLOCK);
+        assertThat(legacy.mayMatch(completed(ACCOUNT, TODAY.plusDays(52), OperationType.WITHDRAW, Money.kopecks(1001)))).isTrue();
+        assertThat(legacy.mayMatch(completed(ACCOUNT, TODAY.plusDays(52), OperationType.DEPOSIT, Money.kopecks(1001)))).isFalse();
+    }
+
+    @Test
+    public void removeHoldsOnlyForPossibleMatches() throws AccountNotFoundException {
+        final AccountingService accountingService = Mockito.mock(AccountingService.class);
+        Mockito.when(accountingService.registerOperation(Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any(),
+                        Mockito.any(), Mockito.any()))
+                .thenAnswer(invocation -> new OperationId(invocation.getArgument(2, TransactionReference.class).value()));
+        final HoldIndexFiles index = new HoldIndexFiles(dir.toString(), 30, CLOCK);
+        final AccountingServiceBatchRegistrar registrar = new AccountingServiceBatchRegistrar(accountingService,
+                ImportMetrics.NOOP, index);
+
+        final OperationRegistration completedBeforeHold = completed(ACCOUNT, TODAY.plusDays(100), OperationType.WITHDRAW);
+        final OperationRegistration hold = hold(ACCOUNT, TODAY.plusDays(100), OperationType.WITHDRAW);
+        final OperationRegistration completedAfterHold = completed(ACCOUNT, TODAY.plusDays(101), OperationType.WITHDRAW);
+        final OperationRegistration unmatched = completed(ACCOUNT, TODAY.plusDays(200), OperationType.WITHDRAW);
+        registrar.register(List.of(completedBeforeHold, hold, completedAfterHold, unmatched));
+
+        final InOrder inOrder = Mockito.inOrder(accountingService);
+        inOrder.verify(accountingService).registerOperation(Mockito.any(), Mockito.eq(TODAY.plusDays(100)), Mockito.any(),
+                Mockito.any(), Mockito.any(), Mockito.any());
+        inOrder.verify(accountingService).registerHoldOperation(Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any());
+        inOrder.verify(accountingService).registerOperation(Mockito.any(), Mockito.eq(TODAY.plusDays(101)), Mockito.any(),
+                Mockito.any(), Mockito.any(), Mockito.any());
+        inOrder.verify(accountingService).removeMatchingHoldOperations(new OperationId("C0" + TODAY.plusDays(101)));
+        inOrder.verify(accountingService).registerOperation(Mockito.any(), Mockito.eq(TODAY.plusDays(200)), Mockito.any(),
+                Mockito.any(), Mockito.any(), Mockito.any());
+        // the hold did not exist when the operation before it was registered
+        Mockito.verify(accountingService, Mockito.never()).removeMatchingHoldOperations(new OperationId("C0" + TODAY.plusDays(100)));
+        Mockito.verify(accountingService, Mockito.never()).removeMatchingHoldOperations(new OperationId("C0" + TODAY.plusDays(200)));
+    }
+
+    @Test
+    public void removeHoldsInOrderOfRows() throws AccountNotFoundException {
+        final AccountingService accountingService = Mockito.mock(AccountingService.class);
+        Mockito.when(accountingService.registerOperation(Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any(),
+                        Mockito.any(), Mockito.any()))
+                .thenAnswer(invocation -> new OperationId(invocation.getArgument(2, TransactionReference.class).value()));
+        final AccountingServiceBatchRegistrar registrar = new AccountingServiceBatchRegistrar(accountingService,
+                ImportMetrics.NOOP, HoldIndex.ALL);
+        final OperationRegistration hold = hold(ACCOUNT, TODAY, OperationType.WITHDRAW);
+        final OperationRegistration completed = completed(ACCOUNT, TODAY, OperationType.WITHDRAW);
+        final OperationId operationId = new OperationId("C0" + TODAY);
+
+        // the completed operation comes before its hold, the hold is still waiting after the batch
+        registrar.register(List.of(completed, hold));
+        InOrder inOrder = Mockito.inOrder(accountingService);
+        inOrder.verify(accountingService).registerOperation(Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any(),
+                Mockito.any(), Mockito.any());
+        inOrder.verify(accountingService).removeMatchingHoldOperations(operationId);
+        inOrder.verify(accountingService).registerHoldOperation(Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any());
+        inOrder.verifyNoMoreInteractions();
+
+        // the hold comes before its completed operation and is removed by it
+        Mockito.clearInvocations(accountingService);
+        registrar.register(List.of(hold, completed));
+        inOrder = Mockito.inOrder(accountingService);
+        inOrder.verify(accountingService).registerHoldOperation(Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any());
+        inOrder.verify(accountingService).registerOperation(Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any(),
+                Mockito.any(), Mockito.any());
+        inOrder.verify(accountingService).removeMatchingHoldOperations(operationId);
+        inOrder.verifyNoMoreInteractions();
+    }
+
+    private static OperationRegistration completed(String account, LocalDate date, OperationType type) {
+        return completed(account, date, type, Money.kopecks(1000));
+    }
+
+    private static OperationRegistration completed(String account, LocalDate date, OperationType type, Money amount) {
+        return new OperationRegistration(new AccountNumber(account), date, new TransactionReference("C0" + date),
+                type, amount, "completed", null);
+    }
+
+    private static OperationRegistration hold(String account, LocalDate date, OperationType type) {
+        return new OperationRegistration(new AccountNumber(account), date, null, type, Money.kopecks(1000), "hold", null);
+    }
+}
@@ -0,0 +1,82 @@
+package ru.vzotov.alfabank.infrastructure.fs;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.vzotov.accounting.domain.model.AccountReportId;
+import ru.vzotov.alfabank.domain.model.AlfabankOperation;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class MappedReportReaderTest {
+
+    private static final Charset CP1251 = Charset.forName("Cp1251");
+
+    @Test
+    public void sameOperationsAsCommonsCsv() {
+        final String path = new File("src/test/resources/account-reports").getAbsolutePath();
+        final AlfabankReportRepositoryFiles csv = new AlfabankReportRepositoryFiles(path, false, ReportParser.COMMONS_CSV);
+        final AlfabankReportRepositoryFiles mapped = new AlfabankReportRepositoryFiles(path, false, ReportParser.MAPPED);
+
+        final List<AccountReportId> reports = csv.findAll();
+        assertThat(reports).hasSize(3);
+        for (AccountReportId reportId : reports) {
+            try (Stream<AlfabankOperation> expected = csv.stream(reportId);
+                 Stream<AlfabankOperation> actual = mapped.stream(reportId)) {
+                assertThat(actual.toList()).isEqualTo(expected.toList());
+            }
+            assertThat(mapped.findAccountNumbers(reportId)).isEqualTo(csv.findAccountNumbers(reportId));
+        }
+    }
+
+    @Test
+    public void readSmallReportsIntoHeap(@TempDir Path directory) throws IOException {
+        final Path report = directory.resolve("report.csv");
+        Files.copy(Path.of("src/test/resources/account-reports/credit_movementList_2018-06.csv"), report);
+        try (FileChannel channel = FileChannel.open(report)) {
+            final ByteBuffer buffer = MappedReportReader.load(channel);
+            assertThat(buffer.isDirect()).isFalse();
+            assertThat(buffer.remaining()).isEqualTo(Files.size(report));
+        }
+
+        final MappedReportReader reader = new MappedReportReader(report.toFile(), CP1251);
+        assertThat(reader.records().count()).isEqualTo(26);
+        reader.close();
+        // the file is not held by the closed reader
+        Files.move(report, directory.resolve("report_processed.csv"));
+    }
+
+    @Test
+    public void tokenize(@TempDir Path directory) throws IOException {
+        final Path report = directory.resolve("report.csv");
+        Files.writeString(report, "Тип счёта;Номер счета;Валюта;Дата операции;Референс проводки;Описание операции;Приход;Расход;\r\n" +
+                "\r\n" +
+                "Текущий;40817810108290123456;RUR;01.04.20;C01;\"Перевод \"\"Счёт\"\"; оплата\";1,5;0;\r\n" +
+                ";;;;;\"\";;;\n" +
+                "Кредитный;40817810808290123456;RUR;02.04.20;C02;\"многострочное\nописание\";0;2", CP1251);
+
+        final List<List<String>> records = new ArrayList<>();
+        try (MappedReportReader reader = new MappedReportReader(report.toFile(), CP1251)) {
+            final ReportColumns columns = reader.columns();
+            assertThat(columns.withdraw()).isEqualTo(7);
+            reader.records().forEach(record -> records.add(List.of(
+                    record.get(columns.accountType()), record.get(columns.description()), record.get(columns.withdraw()))));
+        }
+
+        assertThat(records).containsExactly(
+                List.of("Текущий", "Перевод \"Счёт\"; оплата", "0"),
+                List.of("", "", ""),
+                List.of("Кредитный", "многострочное\nописание", "2")
+        );
+    }
+}
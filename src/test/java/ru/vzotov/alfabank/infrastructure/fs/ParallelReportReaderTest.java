@@ -0,0 +1,92 @@
+package ru.vzotov.alfabank.infrastructure.fs;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class ParallelReportReaderTest {
+
+    private static final Charset CP1251 = Charset.forName("Cp1251");
+
+    private static final String HEADER = "Тип счёта;Номер счета;Валюта;Дата операции;Референс проводки;Описание операции;Приход;Расход;\r\n";
+
+    private static final ParallelReportReader.RecordParser<List<String>> FIELDS = (record, columns, interner) ->
+            List.of(record.get(columns.accountNumber(), interner), record.get(columns.reference()),
+                    record.get(columns.description()), record.get(columns.withdraw()));
+
+    private static ForkJoinPool pool;
+
+    @TempDir
+    Path directory;
+
+    @BeforeAll
+    public static void setUp() {
+        pool = new ForkJoinPool(4);
+    }
+
+    @AfterAll
+    public static void tearDown() {
+        pool.shutdownNow();
+    }
+
+    @Test
+    public void sameRecordsAsSequentialReader() throws IOException {
+        final StringBuilder content = new StringBuilder(HEADER);
+        for (int i = 0; i < 500; i++) {
+            final String description = switch (i % 7) {
+                case 0 -> "\"многострочное\n\nописание " + i + "\r\n\"";
+                case 1 -> "\"кавычки \"\"" + i + "\"\";\n\"";
+                case 2 -> "\"\"";
+                default -> "Описание " + i;
+            };
+            content.append("Текущий;408178101082901").append(i % 3).append(";RUR;01.04.20;C0").append(i).append(';')
+                    .append(description).append(';').append("0;").append(i).append(i % 5 == 0 ? ";\n\n" : ";\r\n");
+        }
+        final Path report = directory.resolve("report.csv");
+        Files.writeString(report, content, CP1251);
+
+        final List<List<String>> expected = new ArrayList<>();
+        try (MappedReportReader reader = new MappedReportReader(report.toFile(), CP1251)) {
+            reader.records().forEach(record -> expected.add(FIELDS.parse(record, reader.columns(), StringInterner.NONE)));
+        }
+        assertThat(expected).hasSize(500);
+
+        for (int chunkSize : new int[]{1, 7, 64, 333, 4096, 1 << 20}) {
+            try (ParallelReportReader reader = new ParallelReportReader(report.toFile(), CP1251, chunkSize, pool);
+                 Stream<List<String>> records = reader.parse(FIELDS)) {
+                assertThat(records.toList()).as("chunk size %d", chunkSize).isEqualTo(expected);
+            }
+        }
+    }
+
+    @Test
+    public void failuresOfRecords() throws IOException {
+        final StringBuilder content = new StringBuilder(HEADER);
+        for (int i = 0; i < 100; i++) {
+            content.append("Текущий;40817810108290123456;RUR;01.04.20;C0").append(i)
+                    .append(i == 70 ? ";\"broken\"description;0;1;\n" : ";description;0;1;\n");
+        }
+        final Path report = directory.resolve("broken.csv");
+        Files.writeString(report, content, CP1251);
+
+        try (ParallelReportReader reader = new ParallelReportReader(report.toFile(), CP1251, 256, pool);
+             Stream<List<String>> records = reader.parse(FIELDS)) {
+            assertThatThrownBy(records::toList)
+                    .isInstanceOf(IllegalArgumentException.class)
+                    .hasMessageContaining("Invalid char between encapsulated token and delimiter");
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package ru.vzotov.alfabank.infrastructure.fs;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.vzotov.alfabank.application.OperationRegistration;
+import ru.vzotov.alfabank.application.RegisteredReferenceIndex;
+import ru.vzotov.banking.domain.model.AccountNumber;
+import ru.vzotov.banking.domain.model.OperationType;
+import ru.vzotov.banking.domain.model.TransactionReference;
+import ru.vzotov.domain.model.Money;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class RegisteredReferenceIndexFilesTest {
+
+    private static final String ACCOUNT = "40817810108290123456";
+
+    @TempDir
+    Path dir;
+
+    @Test
+    public void rememberRegisteredOperations() throws IOException {
+        final RegisteredReferenceIndexFiles index = new RegisteredReferenceIndexFiles(dir.toString());
+        assertThat(contains(index, ACCOUNT, "C013110180004900")).isFalse();
+
+        final List<OperationRegistration> batch = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            batch.add(operation(ACCOUNT, "C01311018" + i));
+        }
+        batch.add(operation("40817810108290000000", "C013110180004900"));
+        batch.add(new OperationRegistration(new AccountNumber(ACCOUNT), LocalDate.now(), null,
+                OperationType.WITHDRAW, Money.kopecks(100), "hold", null));
+        index.registered(batch);
+
+        assertThat(contains(index, ACCOUNT, "C013110181")).isTrue();
+        assertThat(contains(index, ACCOUNT, "C013110180004900")).isFalse();
+        assertThat(contains(index, "40817810108290000000", "C013110180004900")).isTrue();
+        // operations with the same reference differ by their dates and amounts
+        assertThat(index.contains(ACCOUNT, RegisteredReferenceIndex.identity(operation(ACCOUNT, "C013110181", 200)))).isFalse();
+
+        // a record torn by a crash is ignored
+        final File file = dir.resolve(RegisteredReferenceIndexFiles.INDEX_DIRECTORY).resolve(ACCOUNT + ".ids").toFile();
+        try (RandomAccessFile out = new RandomAccessFile(file, "rw")) {
+            out.seek(out.length());
+            out.write(new byte[3]);
+        }
+
+        final RegisteredReferenceIndexFiles reloaded = new RegisteredReferenceIndexFiles(dir.toString());
+        for (int i = 0; i < 2000; i++) {
+            assertThat(contains(reloaded, ACCOUNT, "C01311018" + i)).isTrue();
+        }
+        assertThat(contains(reloaded, ACCOUNT, "C013110180004900")).isFalse();
+        assertThat(contains(reloaded, "40817810108290000000", "C013110180004900")).isTrue();
+    }
+
+    @Test
+    public void countRepeatedRegistrations() {
+        final RegisteredReferenceIndexFiles index = new RegisteredReferenceIndexFiles(dir.toString());
+        final long identity = RegisteredReferenceIndex.identity(operation(ACCOUNT, "C013110180004900"));
+        index.registered(List.of(operation(ACCOUNT, "C013110180004900"), operation(ACCOUNT, "C013110180004900")));
+        index.registered(List.of(operation(ACCOUNT, "C013110180004900")));
+        assertThat(index.count(ACCOUNT, identity)).isEqualTo(3);
+        assertThat(new RegisteredReferenceIndexFiles(dir.toString()).count(ACCOUNT, identity)).isEqualTo(3);
+    }
+
+    private static boolean contains(RegisteredReferenceIndexFiles index, String account, String reference) {
+        return index.contains(account, RegisteredReferenceIndex.identity(operation(account, reference)));
+    }
+
+    private static OperationRegistration operation(String account, String reference) {
+        return operation(account, reference, 100);
+    }
+
+    private static OperationRegistration operation(String account, String reference, long kopecks) {
+        return new OperationRegistration(new AccountNumber(account), LocalDate.of(2020, 3, 18),
+                new TransactionReference(reference), OperationType.WITHDRAW, Money.kopecks(kopecks), "operation", null);
+    }
+}
@@ -0,0 +1,79 @@
+package ru.vzotov.alfabank.infrastructure.fs;
+
+import org.junit.jupiter.api.Test;
+
+import java.text.ParseException;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static ru.vzotov.alfabank.infrastructure.fs.ReportValues.RU_DECIMAL_SEPARATOR;
+import static ru.vzotov.alfabank.infrastructure.fs.ReportValues.US_DECIMAL_SEPARATOR;
+
+public class ReportValuesTest {
+
+    @Test
+    public void parseAmount() throws ParseException {
+        assertThat(ReportValues.parseAmount("0", RU_DECIMAL_SEPARATOR)).isEqualTo(0.0d);
+        assertThat(ReportValues.parseAmount("33199,94", RU_DECIMAL_SEPARATOR)).isEqualTo(33199.94d);
+        assertThat(ReportValues.parseAmount("1543,4", RU_DECIMAL_SEPARATOR)).isEqualTo(1543.4d);
+        assertThat(ReportValues.parseAmount("0,05", RU_DECIMAL_SEPARATOR)).isEqualTo(0.05d);
+        assertThat(ReportValues.parseAmount("-12,5", RU_DECIMAL_SEPARATOR)).isEqualTo(-12.5d);
+        assertThat(ReportValues.parseAmount("12.5", RU_DECIMAL_SEPARATOR)).isEqualTo(12.0d);
+        assertThat(ReportValues.parseAmount("      2007.30", US_DECIMAL_SEPARATOR)).isEqualTo(2007.30d);
+        assertThat(ReportValues.parseAmount("1234567890123456789,12", RU_DECIMAL_SEPARATOR)).isEqualTo(1234567890123456789.12d);
+
+        assertThatThrownBy(() -> ReportValues.parseAmount("", RU_DECIMAL_SEPARATOR)).isInstanceOf(ParseException.class);
+        assertThatThrownBy(() -> ReportValues.parseAmount("-", RU_DECIMAL_SEPARATOR)).isInstanceOf(ParseException.class);
+        assertThatThrownBy(() -> ReportValues.parseAmount("abc", RU_DECIMAL_SEPARATOR)).isInstanceOf(ParseException.class);
+    }
+
+    @Test
+    public void parseMinorUnits() throws ParseException {
+        assertThat(ReportValues.parseMinorUnits("0", RU_DECIMAL_SEPARATOR)).isZero();
+        assertThat(ReportValues.parseMinorUnits("33199,94", RU_DECIMAL_SEPARATOR)).isEqualTo(3319994L);
+        assertThat(ReportValues.parseMinorUnits("1543,4", RU_DECIMAL_SEPARATOR)).isEqualTo(154340L);
+        assertThat(ReportValues.parseMinorUnits("0,05", RU_DECIMAL_SEPARATOR)).isEqualTo(5L);
+        assertThat(ReportValues.parseMinorUnits(",5", RU_DECIMAL_SEPARATOR)).isEqualTo(50L);
+        assertThat(ReportValues.parseMinorUnits("-12,5", RU_DECIMAL_SEPARATOR)).isEqualTo(-1250L);
+        assertThat(ReportValues.parseMinorUnits("12.5", RU_DECIMAL_SEPARATOR)).isEqualTo(1200L);
+        assertThat(ReportValues.parseMinorUnits("      2007.30", US_DECIMAL_SEPARATOR)).isEqualTo(200730L);
+        assertThat(ReportValues.parseMinorUnits("0,125", RU_DECIMAL_SEPARATOR)).isEqualTo(13L);
+        assertThat(ReportValues.parseMinorUnits("0,1249", RU_DECIMAL_SEPARATOR)).isEqualTo(12L);
+        assertThat(ReportValues.parseMinorUnits("92233720368547758,07", RU_DECIMAL_SEPARATOR)).isEqualTo(Long.MAX_VALUE);
+
+        assertThatThrownBy(() -> ReportValues.parseMinorUnits("92233720368547758,08", RU_DECIMAL_SEPARATOR))
+                .isInstanceOf(ParseException.class);
+        assertThatThrownBy(() -> ReportValues.parseMinorUnits("922337203685477580,7", RU_DECIMAL_SEPARATOR))
+                .isInstanceOf(ParseException.class);
+        assertThatThrownBy(() -> ReportValues.parseMinorUnits("", RU_DECIMAL_SEPARATOR)).isInstanceOf(ParseException.class);
+        assertThatThrownBy(() -> ReportValues.parseMinorUnits("-", RU_DECIMAL_SEPARATOR)).isInstanceOf(ParseException.class);
+        assertThatThrownBy(() -> ReportValues.parseMinorUnits(",", RU_DECIMAL_SEPARATOR)).isInstanceOf(ParseException.class);
+        assertThatThrownBy(() -> ReportValues.parseMinorUnits("abc", RU_DECIMAL_SEPARATOR)).isInstanceOf(ParseException.class);
+    }
+
+    @Test
+    public void parseMinorUnitsOfCurrency() throws ParseException {
+        assertThat(ReportValues.parseMinorUnits("1500,00", RU_DECIMAL_SEPARATOR, 0)).isEqualTo(1500L);
+        assertThat(ReportValues.parseMinorUnits("150,5", RU_DECIMAL_SEPARATOR, 0)).isEqualTo(151L);
+        assertThat(ReportValues.parseMinorUnits("150,49", RU_DECIMAL_SEPARATOR, 0)).isEqualTo(150L);
+        assertThat(ReportValues.parseMinorUnits("1,2345", RU_DECIMAL_SEPARATOR, 3)).isEqualTo(1235L);
+        assertThat(ReportValues.parseMinorUnits("12,5", RU_DECIMAL_SEPARATOR, 3)).isEqualTo(12500L);
+        assertThat(ReportValues.parseMinorUnits("-0,001", RU_DECIMAL_SEPARATOR, 3)).isEqualTo(-1L);
+        assertThat(ReportValues.parseMinorUnits("9223372036854775807", RU_DECIMAL_SEPARATOR, 0)).isEqualTo(Long.MAX_VALUE);
+
+        assertThatThrownBy(() -> ReportValues.parseMinorUnits("9223372036854775,808", RU_DECIMAL_SEPARATOR, 3))
+                .isInstanceOf(ParseException.class);
+    }
+
+    @Test
+    public void parseDate() {
+        assertThat(ReportValues.parseDate("25.06.18")).isEqualTo(LocalDate.of(2018, 6, 25));
+        assertThat(ReportValues.parseDate("31.04.20")).isEqualTo(LocalDate.of(2020, 4, 30));
+
+        assertThatThrownBy(() -> ReportValues.parseDate("25.06.2018")).isInstanceOf(DateTimeParseException.class);
+        assertThatThrownBy(() -> ReportValues.parseDate("25.13.18")).isInstanceOf(DateTimeParseException.class);
+        assertThatThrownBy(() -> ReportValues.parseDate("")).isInstanceOf(DateTimeParseException.class);
+    }
+}
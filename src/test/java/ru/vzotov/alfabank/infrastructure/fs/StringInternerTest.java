@@ -0,0 +1,35 @@
+package ru.vzotov.alfabank.infrastructure.fs;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class StringInternerTest {
+
+    @Test
+    public void intern() {
+        final StringInterner interner = new StringInterner();
+        final String value = interner.intern("MAGNIT MM ANT");
+
+        assertThat(interner.intern(new String("MAGNIT MM ANT"))).isSameAs(value);
+        assertThat(interner.intern("11276718\\RUS\\MAGNIT MM ANT", 13, 26)).isSameAs(value);
+        assertThat(interner.internTrimmed("\\ MAGNIT MM ANT  \\", 1, 17)).isSameAs(value);
+        assertThat(interner.intern("", 0, 0)).isEmpty();
+        assertThat(interner.intern(null)).isNull();
+        assertThat(interner.size()).isEqualTo(2);
+    }
+
+    @Test
+    public void bounded() {
+        final StringInterner interner = new StringInterner(100);
+        for (int i = 0; i < 1000; i++) {
+            assertThat(interner.intern(Integer.toString(i))).isEqualTo(Integer.toString(i));
+        }
+        assertThat(interner.size()).isEqualTo(100);
+        assertThat(interner.intern(new String("99"))).isSameAs(interner.intern("99"));
+
+        final String notInterned = new String("999");
+        assertThat(interner.intern(notInterned)).isSameAs(notInterned);
+        assertThat(StringInterner.NONE.intern(notInterned)).isSameAs(notInterned);
+    }
+}
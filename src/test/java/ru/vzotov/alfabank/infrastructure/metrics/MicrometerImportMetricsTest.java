@@ -0,0 +1,35 @@
+package ru.vzotov.alfabank.infrastructure.metrics;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import ru.vzotov.alfabank.application.ImportMetrics.Stage;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class MicrometerImportMetricsTest {
+
+    @Test
+    public void record() {
+        final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        final MicrometerImportMetrics metrics = new MicrometerImportMetrics(registry);
+
+        metrics.record(Stage.CARD_PARSE, TimeUnit.MICROSECONDS.toNanos(3));
+        metrics.record(Stage.CARD_PARSE, TimeUnit.MICROSECONDS.toNanos(5));
+        metrics.reportProcessed(120, TimeUnit.MILLISECONDS.toNanos(40));
+        metrics.reportProcessed(80, TimeUnit.MILLISECONDS.toNanos(20));
+        metrics.reportFailed(new IllegalArgumentException());
+        metrics.reportFailed(new IllegalArgumentException());
+        metrics.reportFailed(new IllegalStateException());
+
+        assertThat(registry.get("alfabank.import.stage").tag("stage", "card_parse").timer().count()).isEqualTo(2);
+        assertThat(registry.get("alfabank.import.stage").tag("stage", "card_parse").timer().totalTime(TimeUnit.MICROSECONDS)).isEqualTo(8);
+        assertThat(registry.get("alfabank.import.stage").tag("stage", "mark_processed").timer().count()).isZero();
+        assertThat(registry.get("alfabank.import.report").timer().count()).isEqualTo(2);
+        assertThat(registry.get("alfabank.import.rows").counter().count()).isEqualTo(200);
+        assertThat(registry.get("alfabank.import.report.rows").summary().max()).isEqualTo(120);
+        assertThat(registry.get("alfabank.import.failures").tag("exception", "IllegalArgumentException").counter().count()).isEqualTo(2);
+        assertThat(registry.get("alfabank.import.failures").tag("exception", "IllegalStateException").counter().count()).isEqualTo(1);
+    }
+}